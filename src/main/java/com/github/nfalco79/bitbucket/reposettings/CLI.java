@@ -16,12 +16,17 @@
 package com.github.nfalco79.bitbucket.reposettings;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Handler;
 import java.util.logging.LogManager;
+import java.util.logging.Logger;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -32,6 +37,11 @@ import org.apache.commons.cli.Option.Builder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import com.github.nfalco79.bitbucket.reposettings.exec.FlightRecorder;
+import com.github.nfalco79.bitbucket.reposettings.log.JsonLinesFormatter;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.SnapshotBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.WorkspaceSnapshot;
+
 /**
  * Command line parser for reposettings arguments.
  */
@@ -56,6 +66,32 @@ public class CLI {
     private static final String ACCESS_RULE_OPT = "accessRules";
     private static final String BRANCH_RULE_OPT = "branchRules";
     private static final String DRY_RUN_OPT = "dryRun";
+    private static final String RETRY_ATTEMPTS_LONG_OPT = "retries";
+    private static final String PARALLELISM_LONG_OPT = "parallelism";
+    private static final String TIMING_HISTORY_LONG_OPT = "timingHistory";
+    private static final String RULE_PROFILE_LONG_OPT = "ruleProfile";
+    private static final String ROLLOUT_BATCH_LONG_OPT = "rolloutBatch";
+    private static final String ROLLOUT_PAUSE_LONG_OPT = "rolloutPause";
+    private static final String ROLLOUT_MAX_ERRORS_LONG_OPT = "rolloutMaxErrors";
+    private static final String ROLLOUT_MAX_THROTTLED_LONG_OPT = "rolloutMaxThrottled";
+    private static final String CANARY_LONG_OPT = "canary";
+    private static final String EXPORT_SNAPSHOT_LONG_OPT = "exportSnapshot";
+    private static final String OFFLINE_LONG_OPT = "offline";
+    private static final String VALIDATE_LONG_OPT = "validate";
+    private static final String JFR_LONG_OPT = "jfr";
+    private static final String JSON_LOG_LONG_OPT = "jsonLog";
+    private static final String PROGRESS_LONG_OPT = "progress";
+    private static final String STATUS_FILE_LONG_OPT = "statusFile";
+    private static final int DEFAULT_PROGRESS_INTERVAL = 30;
+    private static final String READ_CONCURRENCY_LONG_OPT = "readConcurrency";
+    private static final String WRITE_CONCURRENCY_LONG_OPT = "writeConcurrency";
+    private static final String READ_RATE_LONG_OPT = "readRate";
+    private static final String WRITE_RATE_LONG_OPT = "writeRate";
+    private static final String ADAPTIVE_LONG_OPT = "adaptive";
+    private static final String MAX_CONCURRENCY_LONG_OPT = "maxConcurrency";
+    private static final String REPOSITORY_TIMEOUT_LONG_OPT = "repositoryTimeout";
+    private static final String TIMEOUT_LONG_OPT = "timeout";
+    private static final String REPOSITORY_WRITE_CONCURRENCY_LONG_OPT = "repositoryWriteConcurrency";
 
     /**
      * Main method.
@@ -64,19 +100,63 @@ public class CLI {
      * @throws Exception if any error occur
      **/
     public static void main(String[] args) throws Exception {
-        if (args != null && args.length != 0) {
+        if (args != null && args.length != 0 //
+                && (IndexCLI.INDEX_COMMAND.equals(args[0]) || IndexCLI.QUERY_COMMAND.equals(args[0]))) {
+            IndexCLI.run(args[0], Arrays.copyOfRange(args, 1, args.length));
+        } else if (args != null && args.length != 0) {
             LogManager lm = LogManager.getLogManager();
             try (InputStream is = CLI.class.getResourceAsStream("/log.properties")) {
                 lm.readConfiguration(is);
             }
 
             RepoSettingsInfo repoInfo = parseOptions(args);
-            new RepoSettingsConfigurator(repoInfo).exec();
+            if (repoInfo.isJsonLog()) {
+                for (Handler handler : Logger.getLogger("").getHandlers()) {
+                    handler.setFormatter(new JsonLinesFormatter());
+                }
+            }
+            try (Closeable recording = startRecording(repoInfo)) {
+                if (repoInfo.isOffline()) {
+                    plan(repoInfo);
+                } else if (repoInfo.isValidateOnly()) {
+                    new RepoSettingsConfigurator(repoInfo).validate();
+                } else if (repoInfo.getExportSnapshot() != null) {
+                    new RepoSettingsConfigurator(repoInfo).exportSnapshot(Paths.get(repoInfo.getExportSnapshot()));
+                } else {
+                    new RepoSettingsConfigurator(repoInfo).exec();
+                }
+            }
         } else { // if no arguments, print help
             printHelp();
         }
     }
 
+    /*
+     * Starts a flight recording dumped to the configured file when closed.
+     */
+    private static Closeable startRecording(RepoSettingsInfo repoInfo) throws IOException {
+        if (repoInfo.getFlightRecording() == null) {
+            return () -> {
+            };
+        }
+        return FlightRecorder.load().startRecording(Paths.get(repoInfo.getFlightRecording()));
+    }
+
+    /*
+     * Computes the changes against a workspace snapshot without access to
+     * Bitbucket.
+     */
+    private static void plan(RepoSettingsInfo repoInfo) throws IOException {
+        WorkspaceSnapshot snapshot = WorkspaceSnapshot.read(Paths.get(repoInfo.getOfflineSnapshot()));
+        SnapshotBitbucketService service = new SnapshotBitbucketService(snapshot);
+
+        new RepoSettingsConfigurator(repoInfo, service).exec();
+
+        List<String> changes = service.getPlannedChanges();
+        changes.forEach(System.out::println);
+        System.out.println(changes.size() + " changes planned on " + snapshot.getRepositories().size() + " repositories");
+    }
+
     public static void printHelp() {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("reposettings", createOptions());
@@ -113,15 +193,83 @@ public class CLI {
                 repoInfo.setOAuth2(false);
                 repoInfo.setUsername(line.getOptionValue(USER_OPT));
                 repoInfo.setPassword(line.getOptionValue(PWD_OPT));
-            } else {
+            } else if (!line.hasOption(OFFLINE_LONG_OPT)) {
                 throw new IllegalArgumentException("Reason: Missing required option: username/username or clientId/clientSecret");
             }
             repoInfo.setWebHookHostname(line.getOptionValue(REPOSITORY_WEBHOOK_URL_OPT));
             repoInfo.setAccessRules(line.getOptionValue(ACCESS_RULE_OPT));
             repoInfo.setBranchRules(line.getOptionValue(BRANCH_RULE_OPT));
-            repoInfo.setWorkspace(line.getOptionValue(REPOSITORY_WORKSPACE_OPT));
+            repoInfo.setWorkspaces(Arrays.asList(line.getOptionValues(REPOSITORY_WORKSPACE_OPT)));
             repoInfo.setDryRun(line.hasOption(DRY_RUN_OPT));
-        } catch (ParseException exp) {
+            repoInfo.setValidateOnly(line.hasOption(VALIDATE_LONG_OPT));
+            if (line.hasOption(RETRY_ATTEMPTS_LONG_OPT)) {
+                repoInfo.setRetryAttempts(Integer.parseInt(line.getOptionValue(RETRY_ATTEMPTS_LONG_OPT)));
+            }
+            if (line.hasOption(PARALLELISM_LONG_OPT)) {
+                repoInfo.setParallelism(Integer.parseInt(line.getOptionValue(PARALLELISM_LONG_OPT)));
+            }
+            if (line.hasOption(READ_CONCURRENCY_LONG_OPT)) {
+                repoInfo.setReadConcurrency(Integer.parseInt(line.getOptionValue(READ_CONCURRENCY_LONG_OPT)));
+            }
+            if (line.hasOption(WRITE_CONCURRENCY_LONG_OPT)) {
+                repoInfo.setWriteConcurrency(Integer.parseInt(line.getOptionValue(WRITE_CONCURRENCY_LONG_OPT)));
+            }
+            if (line.hasOption(READ_RATE_LONG_OPT)) {
+                repoInfo.setReadRate(Double.parseDouble(line.getOptionValue(READ_RATE_LONG_OPT)));
+            }
+            if (line.hasOption(WRITE_RATE_LONG_OPT)) {
+                repoInfo.setWriteRate(Double.parseDouble(line.getOptionValue(WRITE_RATE_LONG_OPT)));
+            }
+            repoInfo.setAdaptiveConcurrency(line.hasOption(ADAPTIVE_LONG_OPT));
+            if (line.hasOption(MAX_CONCURRENCY_LONG_OPT)) {
+                repoInfo.setMaxConcurrency(Integer.parseInt(line.getOptionValue(MAX_CONCURRENCY_LONG_OPT)));
+            }
+            if (line.hasOption(REPOSITORY_TIMEOUT_LONG_OPT)) {
+                repoInfo.setRepositoryTimeout(Integer.parseInt(line.getOptionValue(REPOSITORY_TIMEOUT_LONG_OPT)));
+            }
+            if (line.hasOption(TIMEOUT_LONG_OPT)) {
+                repoInfo.setRunTimeout(Integer.parseInt(line.getOptionValue(TIMEOUT_LONG_OPT)));
+            }
+            if (line.hasOption(REPOSITORY_WRITE_CONCURRENCY_LONG_OPT)) {
+                repoInfo.setRepositoryWriteConcurrency(Integer.parseInt(line.getOptionValue(REPOSITORY_WRITE_CONCURRENCY_LONG_OPT)));
+            }
+            if (line.hasOption(ROLLOUT_BATCH_LONG_OPT)) {
+                repoInfo.setRolloutBatchSize(Integer.parseInt(line.getOptionValue(ROLLOUT_BATCH_LONG_OPT)));
+            }
+            if (line.hasOption(ROLLOUT_PAUSE_LONG_OPT)) {
+                repoInfo.setRolloutPause(Integer.parseInt(line.getOptionValue(ROLLOUT_PAUSE_LONG_OPT)));
+            }
+            if (line.hasOption(ROLLOUT_MAX_ERRORS_LONG_OPT)) {
+                repoInfo.setRolloutMaxErrorRate(Double.parseDouble(line.getOptionValue(ROLLOUT_MAX_ERRORS_LONG_OPT)));
+            }
+            if (line.hasOption(ROLLOUT_MAX_THROTTLED_LONG_OPT)) {
+                repoInfo.setRolloutMaxThrottledRate(Double.parseDouble(line.getOptionValue(ROLLOUT_MAX_THROTTLED_LONG_OPT)));
+            }
+            if (line.hasOption(CANARY_LONG_OPT)) {
+                repoInfo.setCanaries(Arrays.asList(line.getOptionValues(CANARY_LONG_OPT)));
+            }
+            repoInfo.setTimingHistory(line.getOptionValue(TIMING_HISTORY_LONG_OPT));
+            repoInfo.setRuleProfile(line.getOptionValue(RULE_PROFILE_LONG_OPT));
+            repoInfo.setExportSnapshot(line.getOptionValue(EXPORT_SNAPSHOT_LONG_OPT));
+            repoInfo.setFlightRecording(line.getOptionValue(JFR_LONG_OPT));
+            repoInfo.setJsonLog(line.hasOption(JSON_LOG_LONG_OPT));
+            if (line.hasOption(PROGRESS_LONG_OPT)) {
+                repoInfo.setProgressInterval(Integer.parseInt(line.getOptionValue(PROGRESS_LONG_OPT, String.valueOf(DEFAULT_PROGRESS_INTERVAL))));
+            }
+            if (line.hasOption(STATUS_FILE_LONG_OPT)) {
+                repoInfo.setStatusFile(line.getOptionValue(STATUS_FILE_LONG_OPT));
+                if (repoInfo.getProgressInterval() <= 0) {
+                    repoInfo.setProgressInterval(DEFAULT_PROGRESS_INTERVAL);
+                }
+            }
+            if (line.hasOption(OFFLINE_LONG_OPT)) {
+                repoInfo.setOfflineSnapshot(line.getOptionValue(OFFLINE_LONG_OPT));
+                // changes are computed locally, CPU is the only limit
+                if (!line.hasOption(PARALLELISM_LONG_OPT)) {
+                    repoInfo.setParallelism(Runtime.getRuntime().availableProcessors());
+                }
+            }
+        } catch (ParseException | NumberFormatException exp) {
             throw new IllegalArgumentException("Parsing failed.  Reason: " + exp.getMessage());
         }
 
@@ -159,8 +307,10 @@ public class CLI {
         options.addOption(optBuilder.build());
 
         optBuilder = Option.builder(REPOSITORY_WORKSPACE_OPT);
+        optBuilder.valueSeparator(',');
         optBuilder.argName("bitbucket workspace");
-        optBuilder.desc("the bitbucket workspace (called also owner)");
+        optBuilder.desc("the bitbucket workspaces (called also owner) processed in the same run, seperated by ','. "
+                + "A repository slug must not be in more of them");
         optBuilder.hasArgs();
         optBuilder.required(true);
         options.addOption(optBuilder.build());
@@ -208,14 +358,14 @@ public class CLI {
         options.addOption(optBuilder.build());
 
         optBuilder = Option.builder(ACCESS_RULE_OPT);
-        optBuilder.desc("JSON file or URL with repository access rules");
+        optBuilder.desc("JSON file, directory, glob of JSON files or URL with repository access rules");
         optBuilder.hasArg();
         optBuilder.type(File.class);
         optBuilder.required(true);
         options.addOption(optBuilder.build());
 
         optBuilder = Option.builder(BRANCH_RULE_OPT);
-        optBuilder.desc("JSON file or URL with branch permission rules");
+        optBuilder.desc("JSON file, directory, glob of JSON files or URL with branch permission rules");
         optBuilder.hasArg();
         optBuilder.type(File.class);
         optBuilder.required(true);
@@ -242,6 +392,202 @@ public class CLI {
         optBuilder.hasArg(false);
         options.addOption(optBuilder.build());
 
+        optBuilder = Option.builder();
+        optBuilder.desc("Check that rules could be applied to all matching repositories without change them");
+        optBuilder.longOpt(VALIDATE_LONG_OPT);
+        optBuilder.hasArg(false);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The max number of attempts for a write operation that fails with a transient error");
+        optBuilder.longOpt(RETRY_ATTEMPTS_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("attempts");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The default of readConcurrency and writeConcurrency, zero or less for unlimited requests");
+        optBuilder.longOpt(PARALLELISM_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("workers");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The max number of concurrent read requests (default the parallelism)");
+        optBuilder.longOpt(READ_CONCURRENCY_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("requests");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The max number of concurrent write requests (default the parallelism)");
+        optBuilder.longOpt(WRITE_CONCURRENCY_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("requests");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The max number of read requests per second (default unlimited)");
+        optBuilder.longOpt(READ_RATE_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("requests/s");
+        optBuilder.type(Double.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The max number of write requests per second (default unlimited)");
+        optBuilder.longOpt(WRITE_RATE_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("requests/s");
+        optBuilder.type(Double.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Adapt read and write concurrency to the server: grow while latency is flat, halve when throttled");
+        optBuilder.longOpt(ADAPTIVE_LONG_OPT);
+        optBuilder.hasArg(false);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The highest read or write concurrency reachable with adaptive concurrency (default 32)");
+        optBuilder.longOpt(MAX_CONCURRENCY_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("requests");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Time budget of each repository, not counting the time it waits for a worker, a repository that takes longer is reported as timed out");
+        optBuilder.longOpt(REPOSITORY_TIMEOUT_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("seconds");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Time budget of the whole run, repositories not completed in time are reported as timed out");
+        optBuilder.longOpt(TIMEOUT_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("seconds");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("The number of independent writes of a repository, like branch restrictions, sent concurrently (default 4)");
+        optBuilder.longOpt(REPOSITORY_WRITE_CONCURRENCY_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("requests");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Apply the changes in batches of the given number of repositories, halting when a batch fails too many requests");
+        optBuilder.longOpt(ROLLOUT_BATCH_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("repositories");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Seconds to wait between two rollout batches");
+        optBuilder.longOpt(ROLLOUT_PAUSE_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("seconds");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Highest ratio of failed write requests in a rollout batch, 0.1 by default");
+        optBuilder.longOpt(ROLLOUT_MAX_ERRORS_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("ratio");
+        optBuilder.type(Double.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Highest ratio of requests throttled with HTTP 429 in a rollout batch, 0.2 by default");
+        optBuilder.longOpt(ROLLOUT_MAX_THROTTLED_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("ratio");
+        optBuilder.type(Double.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Repositories processed in the first rollout batch, seperated by ','. Patterns match the slug in every workspace, or workspace/slug");
+        optBuilder.longOpt(CANARY_LONG_OPT);
+        optBuilder.valueSeparator(',');
+        optBuilder.hasArgs();
+        optBuilder.argName("repositories");
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("File where store the time spent on each repository, used to process the most expensive repositories first");
+        optBuilder.longOpt(TIMING_HISTORY_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("file");
+        optBuilder.type(File.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("File where store the evaluations, matches and time of each rule and the rules that fired for each repository");
+        optBuilder.longOpt(RULE_PROFILE_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("file");
+        optBuilder.type(File.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Export all workspace data needed to configure the repositories to a file instead to configure them");
+        optBuilder.longOpt(EXPORT_SNAPSHOT_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("file");
+        optBuilder.type(File.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Print the changes computed against a workspace snapshot, Bitbucket is not accessed");
+        optBuilder.longOpt(OFFLINE_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("snapshot file");
+        optBuilder.type(File.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Print log messages as JSON lines, each with the repository it refers to");
+        optBuilder.longOpt(JSON_LOG_LONG_OPT);
+        optBuilder.hasArg(false);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Periodically print repositories done, throughput, request rate, throttled requests and ETA (default every "
+                + DEFAULT_PROGRESS_INTERVAL + " seconds)");
+        optBuilder.longOpt(PROGRESS_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.optionalArg(true);
+        optBuilder.argName("seconds");
+        optBuilder.type(Integer.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("File where write the progress figures at each report, enables the progress report");
+        optBuilder.longOpt(STATUS_FILE_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("file");
+        optBuilder.type(File.class);
+        options.addOption(optBuilder.build());
+
+        optBuilder = Option.builder();
+        optBuilder.desc("Record the run with Java Flight Recorder, including events for each repository, phase and Bitbucket request. Requires Java 11 or later");
+        optBuilder.longOpt(JFR_LONG_OPT);
+        optBuilder.hasArg();
+        optBuilder.argName("jfr file");
+        optBuilder.type(File.class);
+        options.addOption(optBuilder.build());
+
         return options;
     }
 
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Option.Builder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.index.PermissionIndex;
+import com.github.nfalco79.bitbucket.reposettings.index.PermissionIndexWriter;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.WorkspaceSnapshot;
+
+/**
+ * Command line for the {@code index} and {@code query} sub commands that
+ * answer "who can access what" questions using a permission index.
+ */
+public class IndexCLI {
+
+    public static final String INDEX_COMMAND = "index";
+    public static final String QUERY_COMMAND = "query";
+
+    private static final String SNAPSHOT_OPT = "snapshot";
+    private static final String INDEX_OPT = "index";
+    private static final String GROUP_OPT = "group";
+    private static final String USER_OPT = "user";
+    private static final String PERMISSION_OPT = "permission";
+    private static final String BRANCH_OPT = "branch";
+
+    private IndexCLI() {
+    }
+
+    /**
+     * Executes the given sub command.
+     *
+     * @param command the sub command
+     * @param args the sub command arguments
+     * @throws IOException if fails to read or write files
+     */
+    public static void run(String command, String[] args) throws IOException {
+        Options options = createOptions(command);
+        if (args.length == 0) {
+            new HelpFormatter().printHelp("reposettings " + command, options);
+            return;
+        }
+
+        CommandLine line;
+        Permission permission;
+        try {
+            line = new DefaultParser().parse(options, args);
+            permission = QUERY_COMMAND.equals(command) ? parsePermission(line.getOptionValue(PERMISSION_OPT, "read")) : null;
+        } catch (ParseException exp) {
+            throw new IllegalArgumentException("Parsing failed.  Reason: " + exp.getMessage());
+        }
+
+        Path index = Paths.get(line.getOptionValue(INDEX_OPT));
+        if (INDEX_COMMAND.equals(command)) {
+            WorkspaceSnapshot snapshot = WorkspaceSnapshot.read(Paths.get(line.getOptionValue(SNAPSHOT_OPT)));
+            new PermissionIndexWriter().write(snapshot, index);
+            System.out.println("Indexed " + snapshot.getRepositories().size() + " repositories to " + index);
+        } else {
+            query(line, index, permission);
+        }
+    }
+
+    private static Permission parsePermission(String value) throws ParseException {
+        try {
+            Permission permission = Permission.valueOf(value.toUpperCase(Locale.ROOT));
+            if (permission != Permission.NONE) {
+                return permission;
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below with the allowed values
+        }
+        throw new ParseException("Invalid " + PERMISSION_OPT + " " + value + ", allowed values are read, write, admin");
+    }
+
+    private static void query(CommandLine line, Path file, Permission permission) throws IOException {
+        String principal;
+        if (line.hasOption(GROUP_OPT)) {
+            principal = PermissionIndexWriter.groupKey(line.getOptionValue(GROUP_OPT));
+        } else if (line.hasOption(USER_OPT)) {
+            principal = PermissionIndexWriter.userKey(line.getOptionValue(USER_OPT));
+        } else {
+            throw new IllegalArgumentException("Reason: Missing required option: " + GROUP_OPT + " or " + USER_OPT);
+        }
+
+        long start = System.nanoTime();
+        try (PermissionIndex index = new PermissionIndex(file)) {
+            List<String> repositories;
+            if (line.hasOption(BRANCH_OPT)) {
+                repositories = index.getPushableRepositories(principal, line.getOptionValue(BRANCH_OPT));
+            } else {
+                repositories = index.getRepositories(principal, permission);
+            }
+            repositories.forEach(System.out::println);
+            System.err.println(String.format("%d of %d repositories in %.3f ms", repositories.size(), index.size(), (System.nanoTime() - start) / 1e6));
+        }
+    }
+
+    private static Options createOptions(String command) {
+        Options options = new Options();
+
+        Builder optBuilder = Option.builder(INDEX_OPT);
+        optBuilder.desc("the permission index file");
+        optBuilder.hasArg();
+        optBuilder.type(File.class);
+        optBuilder.required(true);
+        options.addOption(optBuilder.build());
+
+        if (INDEX_COMMAND.equals(command)) {
+            optBuilder = Option.builder(SNAPSHOT_OPT);
+            optBuilder.desc("the workspace snapshot to index, see exportSnapshot option");
+            optBuilder.hasArg();
+            optBuilder.type(File.class);
+            optBuilder.required(true);
+            options.addOption(optBuilder.build());
+        } else {
+            optBuilder = Option.builder(GROUP_OPT);
+            optBuilder.argName("group slug");
+            optBuilder.desc("the group to query");
+            optBuilder.hasArg();
+            options.addOption(optBuilder.build());
+
+            optBuilder = Option.builder(USER_OPT);
+            optBuilder.argName("username");
+            optBuilder.desc("the user to query, only users that appear in the access rules are indexed");
+            optBuilder.hasArg();
+            options.addOption(optBuilder.build());
+
+            optBuilder = Option.builder(PERMISSION_OPT);
+            optBuilder.argName("read|write|admin");
+            optBuilder.desc("the minimal privilege on repositories, default is read");
+            optBuilder.hasArg();
+            options.addOption(optBuilder.build());
+
+            optBuilder = Option.builder(BRANCH_OPT);
+            optBuilder.argName("branch");
+            optBuilder.desc("list repositories where the principal could push to this branch");
+            optBuilder.hasArg();
+            options.addOption(optBuilder.build());
+        }
+        return options;
+    }
+}
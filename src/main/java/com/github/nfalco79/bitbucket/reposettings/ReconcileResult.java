@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.nfalco79.bitbucket.reposettings.exec.RetryQueue.Operation;
+
+/**
+ * The outcome of the reconciliation of a single repository.
+ */
+public class ReconcileResult {
+
+    /**
+     * The final state of a reconciled repository.
+     */
+    public enum Status {
+        /**
+         * All settings has been applied.
+         */
+        CONFIGURED,
+        /**
+         * Some write operations are failed, the repository is partially
+         * configured.
+         */
+        PARTIAL,
+        /**
+         * The current user is not administrator of the repository.
+         */
+        NOT_ADMIN,
+        /**
+         * The reconciliation was aborted by an error.
+         */
+        FAILED,
+        /**
+         * The time budget of the repository expired before all settings
+         * were applied.
+         */
+        TIMED_OUT
+    }
+
+    private final String repository;
+    private final Status status;
+    private final List<Operation> failures;
+    private final Exception error;
+    private final long elapsed;
+
+    /*package*/ ReconcileResult(String repository, Status status, List<Operation> failures, Exception error, long elapsed) {
+        this.repository = repository;
+        this.status = status;
+        this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+        this.error = error;
+        this.elapsed = elapsed;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the write operations that are failed permanently.
+     *
+     * @return the list of failed operations
+     */
+    public List<Operation> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the error that aborted the reconciliation.
+     *
+     * @return the error if status is {@link Status#FAILED} or
+     *         {@link Status#TIMED_OUT}, else {@code null}
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Returns the time spent to reconcile the repository.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public boolean isSuccessful() {
+        return status == Status.CONFIGURED;
+    }
+
+    @Override
+    public String toString() {
+        return repository + ' ' + status;
+    }
+}
@@ -16,19 +16,40 @@
 package com.github.nfalco79.bitbucket.reposettings;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import com.github.nfalco79.bitbucket.client.BitbucketCloudClient;
 import com.github.nfalco79.bitbucket.client.ClientException;
@@ -36,32 +57,139 @@ import com.github.nfalco79.bitbucket.client.Credentials;
 import com.github.nfalco79.bitbucket.client.Credentials.CredentialsBuilder;
 import com.github.nfalco79.bitbucket.client.model.BitbucketObject;
 import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
-import com.github.nfalco79.bitbucket.client.model.BranchRestriction.Builder;
 import com.github.nfalco79.bitbucket.client.model.GroupInfo;
 import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
 import com.github.nfalco79.bitbucket.client.model.UserInfo;
 import com.github.nfalco79.bitbucket.client.model.UserPermission;
 import com.github.nfalco79.bitbucket.client.model.Webhook;
+import com.github.nfalco79.bitbucket.reposettings.ReconcileResult.Status;
+import com.github.nfalco79.bitbucket.reposettings.exec.CostEstimator;
+import com.github.nfalco79.bitbucket.reposettings.exec.Deadline;
+import com.github.nfalco79.bitbucket.reposettings.exec.DeadlineExceededException;
+import com.github.nfalco79.bitbucket.reposettings.exec.FlightRecorder;
+import com.github.nfalco79.bitbucket.reposettings.exec.Lane;
+import com.github.nfalco79.bitbucket.reposettings.exec.Pipeline;
+import com.github.nfalco79.bitbucket.reposettings.exec.ProgressReporter;
+import com.github.nfalco79.bitbucket.reposettings.exec.ReconcileTracer;
+import com.github.nfalco79.bitbucket.reposettings.exec.ReconcileTracer.Span;
+import com.github.nfalco79.bitbucket.reposettings.exec.RepositoryScheduler;
+import com.github.nfalco79.bitbucket.reposettings.exec.RetryQueue;
+import com.github.nfalco79.bitbucket.reposettings.exec.RetryQueue.Operation;
+import com.github.nfalco79.bitbucket.reposettings.exec.Rollout;
+import com.github.nfalco79.bitbucket.reposettings.exec.RolloutHaltedException;
+import com.github.nfalco79.bitbucket.reposettings.exec.SingleFlight;
+import com.github.nfalco79.bitbucket.reposettings.exec.TimingHistory;
 import com.github.nfalco79.bitbucket.reposettings.filter.UpdatePermission;
 import com.github.nfalco79.bitbucket.reposettings.filter.UpdatePermissionIfNotExists;
 import com.github.nfalco79.bitbucket.reposettings.rule.AccessRule;
+import com.github.nfalco79.bitbucket.reposettings.log.RepositoryLogger;
 import com.github.nfalco79.bitbucket.reposettings.rule.BranchPermissionRule;
+import com.github.nfalco79.bitbucket.reposettings.rule.CompiledRules;
+import com.github.nfalco79.bitbucket.reposettings.rule.DesiredRestrictions;
+import com.github.nfalco79.bitbucket.reposettings.rule.DesiredRestrictions.BranchRestrictions;
 import com.github.nfalco79.bitbucket.reposettings.rule.RepositoryAccessRule;
+import com.github.nfalco79.bitbucket.reposettings.rule.RuleProfiler;
+import com.github.nfalco79.bitbucket.reposettings.rule.RuleProfiler.Explanation;
+import com.github.nfalco79.bitbucket.reposettings.rule.RuleProfiler.RuleStats;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.CloudBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.DeadlineBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.InterningBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.LaneBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.PlanningBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.PlanningBitbucketService.PlannedChange;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.SnapshotExporter;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.WorkspaceSnapshot;
+import com.github.nfalco79.bitbucket.reposettings.util.PatternIndex;
+import com.github.nfalco79.bitbucket.reposettings.util.PrincipalRegistry;
 import com.github.nfalco79.bitbucket.reposettings.util.RulesReader;
 import com.github.nfalco79.bitbucket.reposettings.util.SelectorUtils;
 import com.github.nfalco79.bitbucket.reposettings.util.WebhookUtil;
 
 /**
  * Configurator for every supported settings of any BB repository.
+ * <p>
+ * Instances are thread safe, the same configurator could be used to reconcile
+ * many repositories concurrently sharing the client and the caches. When
+ * more workspaces are configured, {@link #exec()} processes all of them in
+ * the same run, sharing the client, the rules and the users lookups.
  */
 public class RepoSettingsConfigurator {
 
-    private RepoSettingsInfo configuration;
-    private BitbucketCloudClient client;
-    private RulesReader rulesReader;
+    // a repository that flows through the pipeline stages
+    private static class PlannedRepository {
+        // the name used in reports, qualified by workspace when more are processed
+        private final String name;
+        private final String repository;
+        private final RepoSettingsConfigurator owner;
+        private final Deadline runDeadline;
+        // the time budget in nanoseconds, zero when there is no limit
+        private final long budget;
+        // nanoseconds spent working on the repository, time queued between stages is not counted
+        private long worked;
+        private long stageStart;
+        // the deadline of the current stage, from the budget left
+        private Deadline deadline = Deadline.NONE;
+        private List<PlannedChange> changes;
+        private boolean timedOut;
 
-    private Logger log;
-    private String workspace;
+        PlannedRepository(String name, String repository, RepoSettingsConfigurator owner, Deadline runDeadline, long budget) {
+            this.name = name;
+            this.repository = repository;
+            this.owner = owner;
+            this.runDeadline = runDeadline;
+            this.budget = budget;
+        }
+
+        Deadline startStage() {
+            stageStart = System.nanoTime();
+            Deadline left = budget > 0 ? Deadline.after("Time budget of repository " + name, Math.max(1, budget - worked), TimeUnit.NANOSECONDS) : Deadline.NONE;
+            deadline = runDeadline.min(left);
+            return deadline;
+        }
+
+        void endStage() {
+            if (stageStart != 0) {
+                worked += System.nanoTime() - stageStart;
+                stageStart = 0;
+            }
+        }
+    }
+
+    private static final int BRANCH_RESTRICTIONS_PER_PATTERN = 9;
+    // distinct rules and principals combinations memoized before start over
+    private static final int MAX_CACHED_RESTRICTIONS = 1024;
+    // reconcile calls look for changed rule files at most once in this interval
+    private static final long RULES_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final RepoSettingsInfo configuration;
+    private final BitbucketService client;
+    private final RulesReader rulesReader;
+    private final String workspace;
+    private final ReconcileTracer tracer;
+    private final ProgressReporter progress;
+    private final Rollout rollout;
+    private final PlanningBitbucketService planning;
+    // workers of the pipeline stages bound by the lanes
+    private final int readers;
+    private final int writers;
+
+    // caches shared between repositories and workspaces, groups are cached by workspace
+    private final Map<String, Collection<GroupInfo>> groupsCache;
+    private final Map<String, Optional<UserInfo>> usersCache;
+    // workers asking the same data at the same time share one request
+    private final SingleFlight<String, Collection<GroupInfo>> groupsFlight;
+    private final SingleFlight<String, Optional<UserInfo>> usersFlight;
+    private final AtomicReference<CompiledRules> rules;
+    private final PrincipalRegistry principals;
+    private final RuleProfiler ruleProfiler;
+    // the branch restrictions wanted for the same rules and granted principals,
+    // bounded and discarded at the end of each run
+    private final Map<List<Object>, DesiredRestrictions> restrictionsCache;
+    // credentials are verified once, rule files checked once per interval by reconcile
+    private volatile boolean credentialsChecked;
+    private final AtomicLong rulesCheckedAt = new AtomicLong(System.nanoTime() - RULES_CHECK_INTERVAL);
 
     /**
      * RepoSettingsConfigurator constructor which requires repo settings info.
@@ -69,89 +197,763 @@ public class RepoSettingsConfigurator {
      * @param repoInfo the object containing the settings
      */
     public RepoSettingsConfigurator(RepoSettingsInfo repoInfo) {
-        this.configuration = repoInfo;
-        this.workspace = repoInfo.getWorkspace();
-        this.rulesReader = new RulesReader(repoInfo.getAccessRules(), repoInfo.getBranchRules());
+        this(repoInfo, newClient(repoInfo));
     }
 
     /**
-     * For test purpose only
+     * RepoSettingsConfigurator constructor which share an existing client.
+     *
      * @param repoInfo the object containing the settings
      * @param client a bitbucket client instance
      */
-    /*package*/ RepoSettingsConfigurator(RepoSettingsInfo repoInfo, BitbucketCloudClient client) {
-        this(repoInfo);
-        this.client = client;
+    public RepoSettingsConfigurator(RepoSettingsInfo repoInfo, BitbucketCloudClient client) {
+        this(repoInfo, new CloudBitbucketService(client));
+    }
+
+    /**
+     * RepoSettingsConfigurator constructor which works on the given service.
+     *
+     * @param repoInfo the object containing the settings
+     * @param service the source of bitbucket data and target of all changes
+     */
+    public RepoSettingsConfigurator(RepoSettingsInfo repoInfo, BitbucketService service) {
+        this.configuration = repoInfo;
+        this.workspace = repoInfo.getWorkspace();
+        this.rulesReader = new RulesReader(repoInfo.getAccessRules(), repoInfo.getBranchRules());
+        this.ruleProfiler = repoInfo.getRuleProfile() != null ? new RuleProfiler() : RuleProfiler.NONE;
+        if (repoInfo.getFlightRecording() != null) {
+            FlightRecorder recorder = FlightRecorder.load();
+            service = recorder.record(service);
+            this.tracer = recorder.tracer();
+        } else {
+            this.tracer = ReconcileTracer.NONE;
+        }
+        if (repoInfo.getProgressInterval() > 0) {
+            Path statusFile = repoInfo.getStatusFile() != null ? Paths.get(repoInfo.getStatusFile()) : null;
+            this.progress = new ProgressReporter(TimeUnit.SECONDS.toMillis(repoInfo.getProgressInterval()), statusFile);
+            service = progress.meter(service);
+        } else {
+            this.progress = null;
+        }
+        if (repoInfo.isRollout()) {
+            this.rollout = new Rollout(repoInfo.getRolloutBatchSize(), TimeUnit.SECONDS.toMillis(repoInfo.getRolloutPause()), //
+                    repoInfo.getRolloutMaxErrorRate(), repoInfo.getRolloutMaxThrottledRate(), repoInfo.getCanaries());
+            service = rollout.meter(service);
+        } else {
+            this.rollout = null;
+        }
+        Lane reads;
+        Lane writes;
+        if (repoInfo.isAdaptiveConcurrency()) {
+            reads = Lane.adaptive("read", repoInfo.getReadConcurrency(), repoInfo.getMaxConcurrency(), repoInfo.getReadRate());
+            writes = Lane.adaptive("write", repoInfo.getWriteConcurrency(), repoInfo.getMaxConcurrency(), repoInfo.getWriteRate());
+            if (progress != null) {
+                progress.addGauge("read limit", reads::getLimit);
+                progress.addGauge("write limit", writes::getLimit);
+            }
+        } else {
+            reads = new Lane("read", repoInfo.getReadConcurrency(), repoInfo.getReadRate());
+            writes = new Lane("write", repoInfo.getWriteConcurrency(), repoInfo.getWriteRate());
+        }
+        // adaptive lanes need enough workers to use the highest limit
+        int maxLimit = repoInfo.isAdaptiveConcurrency() ? repoInfo.getMaxConcurrency() : -1;
+        this.readers = workers(Math.max(maxLimit, reads.getLimit()), repoInfo.getParallelism());
+        this.writers = workers(Math.max(maxLimit, writes.getLimit()), repoInfo.getParallelism());
+        // gives up calls that outlast the deadline of their repository
+        service = new DeadlineBitbucketService(service);
+        // outside the deadline so that the lane is released as soon as the
+        // caller gives up, an abandoned call may still hang on its socket
+        service = new LaneBitbucketService(service, reads, writes);
+        // repositories share one instance of each group and user
+        this.principals = new PrincipalRegistry();
+        service = new InterningBitbucketService(service, principals);
+        this.planning = new PlanningBitbucketService(service);
+        this.client = planning;
+        this.groupsCache = new ConcurrentHashMap<>();
+        this.usersCache = new ConcurrentHashMap<>();
+        this.groupsFlight = new SingleFlight<>();
+        this.usersFlight = new SingleFlight<>();
+        this.rules = new AtomicReference<>();
+        this.restrictionsCache = new ConcurrentHashMap<>();
+    }
+
+    /*
+     * Creates the configurator of another workspace that shares the client,
+     * the rules and the caches of the given one.
+     */
+    private RepoSettingsConfigurator(RepoSettingsConfigurator shared, String workspace) {
+        this.configuration = shared.configuration;
+        this.workspace = workspace;
+        this.rulesReader = shared.rulesReader;
+        this.ruleProfiler = shared.ruleProfiler;
+        this.tracer = shared.tracer;
+        this.progress = shared.progress;
+        this.rollout = shared.rollout;
+        this.readers = shared.readers;
+        this.writers = shared.writers;
+        this.planning = shared.planning;
+        this.client = shared.client;
+        this.groupsCache = shared.groupsCache;
+        this.usersCache = shared.usersCache;
+        this.groupsFlight = shared.groupsFlight;
+        this.usersFlight = shared.usersFlight;
+        this.rules = shared.rules;
+        this.principals = shared.principals;
+        this.restrictionsCache = shared.restrictionsCache;
+    }
+
+    /*
+     * Returns a configurator for each configured workspace, this one for the
+     * first.
+     */
+    private List<RepoSettingsConfigurator> workspaces() {
+        List<RepoSettingsConfigurator> workspaces = new ArrayList<>();
+        workspaces.add(this);
+        configuration.getWorkspaces().stream() //
+                .filter(other -> !other.equals(workspace)) //
+                .distinct() //
+                .forEach(other -> workspaces.add(new RepoSettingsConfigurator(this, other)));
+        return workspaces;
+    }
+
+    private static BitbucketCloudClient newClient(RepoSettingsInfo repoInfo) {
+        BitbucketCloudClient client = new BitbucketCloudClient(buildCredentials(repoInfo));
+        client.setDryRun(repoInfo.isDryRun());
+        return client;
     }
 
     /**
      * RepoSettingsConfigurator main execution method.
+     * <p>
+     * Repositories flow through a pipeline of stages connected by bounded
+     * queues: fetch reads all settings of a repository, plan computes the
+     * changes in memory and apply performs the writes. Fetch and apply use
+     * the read and write concurrency, plan uses a worker per CPU, so
+     * throttled writes slow down the reads instead of accumulating fetched
+     * data. Repositories of all configured workspaces go through the same
+     * pipeline.
      *
      * @throws IOException error occurs when resource read issue
      */
     public void exec() throws IOException, IllegalArgumentException {
-        // Get all the FX BB repositories
-        if (client == null) {
-            client = new BitbucketCloudClient(buildCredentials());
-            client.setDryRun(configuration.isDryRun());
+        Logger log = Logger.getLogger("app");
+
+        checkCredentials();
+        reloadModifiedRules();
+
+        // repositories by name, qualified by workspace when there are more
+        List<RepoSettingsConfigurator> workspaces = workspaces();
+        Map<String, RepoSettingsConfigurator> owners = new HashMap<>();
+        Map<String, String> slugs = new HashMap<>();
+        Map<String, Set<String>> slugWorkspaces = new TreeMap<>();
+        for (RepoSettingsConfigurator owner : workspaces) {
+            for (Repository repo : owner.listRepositories()) {
+                String name = workspaces.size() > 1 ? owner.workspace + '/' + repo.getSlug() : repo.getSlug();
+                owners.put(name, owner);
+                slugs.put(name, repo.getSlug());
+                slugWorkspaces.computeIfAbsent(repo.getSlug(), k -> new TreeSet<>()).add(owner.workspace);
+            }
         }
+        Collection<String> repositories = owners.keySet();
 
-        log = Logger.getLogger("app");
+        if (repositories.isEmpty()) {
+            log.severe("No repository matches filter & project");
+        }
 
-        if (client.getUser() == null) {
-            throw new IllegalArgumentException("Bad credentials for user " + configuration.getUsername());
+        // fail before any write rather than halfway through the run
+        validate(slugWorkspaces);
+
+        // most expensive repositories first, using the timings of previous run when available
+        Path historyFile = configuration.getTimingHistory() != null ? Paths.get(configuration.getTimingHistory()) : null;
+        TimingHistory history = TimingHistory.load(historyFile);
+        // the history is always keyed by workspace/slug, so the runs over one or more workspaces share it
+        Map<String, String> historyKeys = new HashMap<>();
+        for (String name : repositories) {
+            historyKeys.put(historyKey(owners.get(name).workspace, slugs.get(name)), name);
         }
+        CostEstimator historyEstimator = history.withFallback(historyKeys.keySet(), key -> estimateCost(slugs.get(historyKeys.get(key))));
+        RepositoryScheduler scheduler = new RepositoryScheduler(name -> historyEstimator.estimate(historyKey(owners.get(name).workspace, slugs.get(name))));
 
-        Collection<String> repositories = client.getRepositories(workspace).stream() //
+        RetryQueue retryQueue = newRetryQueue();
+        Map<String, Long> timings = new ConcurrentHashMap<>();
+        if (progress != null) {
+            progress.start(repositories.size());
+        }
+        Deadline runDeadline = Deadline.after("Run time budget", configuration.getRunTimeout(), TimeUnit.SECONDS);
+        Set<String> timedOut = new ConcurrentSkipListSet<>();
+        Consumer<PlannedRepository> done = planned -> {
+            if (planned.timedOut) {
+                timedOut.add(planned.name);
+            }
+            timings.put(historyKey(planned.owner.workspace, planned.repository), TimeUnit.NANOSECONDS.toMillis(planned.worked));
+            if (progress != null) {
+                progress.repositoryDone();
+            }
+        };
+        // reads and writes are bound by the network, planning by the CPU
+        int planners = Runtime.getRuntime().availableProcessors();
+        ExecutorService batchExecutor = newBatchExecutor();
+        // a staged rollout processes the repositories in batches, canaries first
+        List<String> ordered = scheduler.order(repositories);
+        List<List<String>> batches = rollout != null ? rollout.batches(ordered) : Collections.singletonList(ordered);
+        String halted = null;
+        int processed = 0;
+        try {
+            for (int batch = 0; batch < batches.size() && halted == null; batch++) {
+                if (batch > 0) {
+                    rollout.pause(runDeadline);
+                }
+                if (rollout != null) {
+                    rollout.startBatch();
+                }
+                Pipeline.from(batches.get(batch)) //
+                        .then("fetch", readers, readers, name -> owners.get(name).fetch(name, slugs.get(name), runDeadline, done)) //
+                        .then("plan", planners, 2 * planners, planned -> planned.owner.plan(planned, done)) //
+                        .run("apply", writers, 2 * writers, planned -> {
+                            planned.owner.apply(planned, retryQueue, batchExecutor);
+                            done.accept(planned);
+                        });
+                processed += batches.get(batch).size();
+                if (rollout != null) {
+                    halted = rollout.endBatch(batch + 1, batches.size());
+                }
+                if (halted != null) {
+                    log.log(Level.SEVERE, "Rollout halted: {0}", halted);
+                }
+            }
+        } finally {
+            batchExecutor.shutdownNow();
+            // an aborted run leaves fetched repositories never planned
+            planning.clear();
+            restrictionsCache.clear();
+            if (progress != null) {
+                progress.close();
+            }
+            if (historyFile != null) {
+                // timings of repositories not in this run are kept for the next full run
+                history.putAll(timings);
+                history.store(historyFile);
+            }
+        }
+
+        if (!retryQueue.isEmpty()) {
+            log.info("Retrying failed operations");
+        }
+        try (Deadline.Scope scope = runDeadline.enter()) {
+            reportFailures(drain(retryQueue));
+        } catch (DeadlineExceededException e) {
+            log.log(Level.SEVERE, "Retries of failed operations stopped: {0}", e.getMessage());
+        }
+        if (!timedOut.isEmpty()) {
+            log.log(Level.SEVERE, "{0} repositories timed out: {1}", new Object[] { timedOut.size(), timedOut });
+        }
+        if (configuration.getRuleProfile() != null) {
+            reportRuleProfile(Paths.get(configuration.getRuleProfile()));
+        }
+        if (halted != null) {
+            throw new RolloutHaltedException("Rollout halted, " + (ordered.size() - processed) + " repositories not processed: " + halted);
+        }
+    }
+
+    /*
+     * Stores the rule statistics and explanations and logs the rules that
+     * deserve a look.
+     */
+    private void reportRuleProfile(Path file) throws IOException {
+        Logger log = Logger.getLogger("app");
+        List<RuleStats> stats = ruleProfiler.getStats();
+        stats.stream().limit(5).forEach(rule -> log.log(Level.INFO, "Expensive rule {0}", rule));
+        stats.stream() //
+                .filter(rule -> rule.getEvaluations() > 1 && rule.getMatches() == rule.getEvaluations()) //
+                .forEach(rule -> log.log(Level.INFO, "Rule matches everything {0}", rule));
+        ruleProfiler.write(file);
+        log.log(Level.INFO, "Rule profile written to {0}", file);
+    }
+
+    /**
+     * Checks that the rules could be applied to all repositories that match
+     * filters and projects, without perform any change.
+     *
+     * @throws IOException if fails to read rules or repositories
+     * @throws IllegalArgumentException if some repository matches multiple
+     *         independent access rules or the same slug is in more
+     *         configured workspaces
+     */
+    public void validate() throws IOException, IllegalArgumentException {
+        checkCredentials();
+
+        Map<String, Set<String>> slugWorkspaces = new TreeMap<>();
+        for (RepoSettingsConfigurator owner : workspaces()) {
+            owner.listRepositories().forEach(repo -> slugWorkspaces.computeIfAbsent(repo.getSlug(), k -> new TreeSet<>()).add(owner.workspace));
+        }
+        validate(slugWorkspaces);
+    }
+
+    /*
+     * Validates the repositories given as the workspaces of each slug.
+     */
+    private void validate(Map<String, Set<String>> slugWorkspaces) throws IOException {
+        // the client looks up the permission of the current user by slug only,
+        // a slug in more workspaces could be checked on the wrong repository
+        Map<String, Set<String>> ambiguous = new TreeMap<>();
+        slugWorkspaces.forEach((slug, owners) -> {
+            if (owners.size() > 1) {
+                ambiguous.put(slug, owners);
+            }
+        });
+        if (!ambiguous.isEmpty()) {
+            throw new IllegalArgumentException("Repositories with the same slug in more workspaces can not be processed in the same run, "
+                    + "the permission of the current user is looked up by slug: " + ambiguous);
+        }
+
+        Collection<String> repositories = slugWorkspaces.keySet();
+        CompiledRules rules = getRules();
+        if (rules.getConflicts().isEmpty()) {
+            return;
+        }
+
+        Map<String, List<RepositoryAccessRule>> conflicts = new TreeMap<>();
+        for (String repo : repositories) {
+            List<RepositoryAccessRule> conflictingRules = rules.getConflictingRules(repo);
+            if (!conflictingRules.isEmpty()) {
+                conflicts.put(repo, conflictingRules);
+            }
+        }
+        if (!conflicts.isEmpty()) {
+            StringBuilder message = new StringBuilder("Repositories match multiple independent access rules:");
+            conflicts.forEach((repo, conflictingRules) -> message.append(System.lineSeparator()) //
+                    .append("  ").append(repo).append(": ").append(conflictingRules));
+            throw new IllegalArgumentException(message.toString());
+        }
+    }
+
+    /**
+     * Exports all data read to configure the repositories that match filters
+     * and projects to a file, that could be used later to compute the changes
+     * offline. A snapshot covers only the first configured workspace.
+     *
+     * @param file the destination file
+     * @throws IOException if fails to read from bitbucket or write the file
+     */
+    public void exportSnapshot(Path file) throws IOException {
+        checkCredentials();
+
+        CompiledRules rules = getRules();
+        WorkspaceSnapshot snapshot = new SnapshotExporter(client).export(workspace, listRepositories(), repo -> rules.getRepositoryRules(repo).stream() //
+                .flatMap(rule -> rule.getUsers().stream()) //
+                .map(AccessRule::getPattern) //
+                .collect(Collectors.toSet()));
+        snapshot.write(file);
+
+        Logger.getLogger("app").log(Level.INFO, "Exported {0} repositories to {1}", new Object[] { snapshot.getRepositories().size(), file });
+    }
+
+    /*
+     * Get all the BB repositories that match filters and projects.
+     */
+    private Collection<Repository> listRepositories() throws ClientException {
+        PatternIndex<String> filters = PatternIndex.compile(configuration.getFilter(), //
+                filter -> new String[] { filter }, //
+                (filter, slug) -> SelectorUtils.match(filter, slug));
+
+        return client.getRepositories(workspace).stream() //
                 // keep repository that at least one matches one filter
-                .filter(repo -> configuration.getFilter().stream() //
-                        .anyMatch(f -> SelectorUtils.match(f, repo.getSlug()))) //
+                .filter(repo -> filters.anyMatch(repo.getSlug())) //
                 // keep repository that at least matches one project filter
                 .filter(repo -> configuration.getProjects().isEmpty() || configuration.getProjects().contains(repo.getProject().getKey())) //
-                .map(repo -> repo.getSlug()) //
-                .collect(Collectors.toSet());
+                .collect(Collectors.toList());
+    }
 
-        if (repositories.isEmpty()) {
-            log.severe("No repository matches filter & project");
+    /**
+     * Applies all settings to the given repository.
+     * <p>
+     * Failed write operations are retried before return, the method never
+     * throws an exception, any error is reported in the result. Credentials
+     * are verified by the first call only and rule files are checked for
+     * changes at most every few seconds, so a call costs only the requests of
+     * the repository.
+     *
+     * @param repoSlug the repository slug in the first configured workspace
+     * @return the outcome of the reconciliation
+     */
+    public ReconcileResult reconcile(String repoSlug) {
+        long start = System.currentTimeMillis();
+        RetryQueue retryQueue = newRetryQueue();
+        Deadline deadline = Deadline.after("Time budget of repository " + repoSlug, configuration.getRepositoryTimeout(), TimeUnit.SECONDS);
+        try (Deadline.Scope scope = deadline.enter()) {
+            checkCredentials();
+            long checkedAt = rulesCheckedAt.get();
+            long now = System.nanoTime();
+            if (now - checkedAt >= RULES_CHECK_INTERVAL && rulesCheckedAt.compareAndSet(checkedAt, now)) {
+                reloadModifiedRules();
+            }
+
+            boolean configured = process(repoSlug, retryQueue);
+            List<Operation> failures = drain(retryQueue);
+            reportFailures(failures);
+
+            Status status = !configured ? Status.NOT_ADMIN : failures.isEmpty() ? Status.CONFIGURED : Status.PARTIAL;
+            return new ReconcileResult(repoSlug, status, failures, null, System.currentTimeMillis() - start);
+        } catch (DeadlineExceededException e) {
+            RepositoryLogger.get(repoSlug).log(Level.SEVERE, "Repository {0} timed out: {1}", new Object[] { repoSlug, e.getMessage() });
+            return new ReconcileResult(repoSlug, Status.TIMED_OUT, retryQueue.getFailures(), e, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            RepositoryLogger.get(repoSlug).log(Level.SEVERE, "Failed to configure repository " + repoSlug, e);
+            return new ReconcileResult(repoSlug, Status.FAILED, retryQueue.getFailures(), e, System.currentTimeMillis() - start);
         }
+    }
 
-        for (String repo : repositories) {
-            log = Logger.getLogger(repo);
-            log.log(Level.INFO, "Processing repository {0}", repo);
+    /**
+     * Discards all cached groups, users and rules so they will be read again,
+     * and the credentials verified again, at the next reconciliation.
+     */
+    public void invalidateCaches() {
+        groupsCache.clear();
+        usersCache.clear();
+        rules.set(null);
+        principals.clear();
+        restrictionsCache.clear();
+        credentialsChecked = false;
+    }
+
+    private void checkCredentials() throws ClientException {
+        if (credentialsChecked) {
+            return;
+        }
+        if (client.getUser() == null) {
+            throw new IllegalArgumentException("Bad credentials for user " + configuration.getUsername());
+        }
+        credentialsChecked = true;
+    }
 
-            boolean canSetup = checkSettingsPermission(repo);
+    /*
+     * Applies all settings to the repository, failed writes are collected in
+     * the given queue.
+     */
+    private boolean process(String repo, RetryQueue retryQueue) throws IOException {
+        RepositoryLogger log = RepositoryLogger.get(repo);
+        log.log(Level.INFO, "Processing repository {0}", repo);
+        ruleProfiler.reset(workspace + '/' + repo);
+
+        try (Span repositorySpan = tracer.repository(repo)) {
+            repositorySpan.outcome("failed");
+
+            boolean canSetup;
+            try (Span span = tracer.phase(repo, "checkSettingsPermission")) {
+                canSetup = checkSettingsPermission(workspace, repo);
+            }
             if (canSetup) {
                 // Setup user and group access
-                Collection<BitbucketObject> usersAndGroups = processRepositoryPermission(repo);
+                Collection<BitbucketObject> usersAndGroups;
+                try (Span span = tracer.phase(repo, "processRepositoryPermission")) {
+                    usersAndGroups = processRepositoryPermission(repo);
+                }
 
                 // Set Branch permissions section (error if any already exist)
-                processBranchPermissions(repo, usersAndGroups);
+                try (Span span = tracer.phase(repo, "processBranchPermissions")) {
+                    processBranchPermissions(repo, usersAndGroups, retryQueue);
+                }
 
                 // Set Jenkins webhook
-                processWebhook(repo);
+                try (Span span = tracer.phase(repo, "processWebhook")) {
+                    processWebhook(repo, retryQueue);
+                }
+                repositorySpan.outcome("configured");
             } else {
                 log.log(Level.SEVERE, "Cannot setup repository {0}. Missing admin permission", repo);
+                repositorySpan.outcome("not admin");
+            }
+            return canSetup;
+        }
+    }
+
+    /*
+     * Reads all settings of the repository, so that planning does not wait
+     * for the network.
+     */
+    private PlannedRepository fetch(String name, String repo, Deadline runDeadline, Consumer<PlannedRepository> done) throws IOException {
+        long budget = TimeUnit.SECONDS.toNanos(configuration.getRepositoryTimeout());
+        PlannedRepository planned = new PlannedRepository(name, repo, this, runDeadline, budget);
+        try (Deadline.Scope scope = planned.startStage().enter(); Span span = tracer.phase(repo, "fetch")) {
+            planned.deadline.check();
+            List<String> usernames = new ArrayList<>();
+            if (!configuration.isOnlyBranches()) {
+                // the groups of the workspace are read once, not by a planner
+                getGroups(workspace);
+                for (RepositoryAccessRule rule : getAccessRules(repo, false)) {
+                    for (AccessRule userRule : rule.getUsers()) {
+                        if (getUser(userRule.getPattern()) != null) {
+                            usernames.add(userRule.getPattern());
+                        }
+                    }
+                }
             }
+            planning.fetch(workspace, repo, usernames);
+            span.outcome("fetched");
+        } catch (DeadlineExceededException e) {
+            timedOut(planned, e, done);
+            return null;
+        } finally {
+            planned.endStage();
         }
+        return planned;
     }
 
-    private boolean checkSettingsPermission(String repo) throws ClientException {
-        Permission privilege = client.getPermission(repo);
+    /*
+     * Computes the changes of a fetched repository without any network
+     * access.
+     */
+    private PlannedRepository plan(PlannedRepository planned, Consumer<PlannedRepository> done) throws IOException {
+        try (Deadline.Scope scope = planned.startStage().enter()) {
+            planned.deadline.check();
+            // planned writes never fail, no retry is needed
+            process(planned.repository, new RetryQueue(1, 0));
+        } catch (DeadlineExceededException e) {
+            timedOut(planned, e, done);
+            return null;
+        } finally {
+            planned.changes = planning.complete(workspace, planned.repository);
+            planned.endStage();
+        }
+        return planned;
+    }
+
+    /*
+     * Performs the planned writes of a repository.
+     */
+    private void apply(PlannedRepository planned, RetryQueue retryQueue, ExecutorService batchExecutor) throws InterruptedException {
+        int applied = 0;
+        try (Deadline.Scope scope = planned.startStage().enter(); Span span = tracer.phase(planned.repository, "apply")) {
+            int i = 0;
+            while (i < planned.changes.size()) {
+                planned.deadline.check();
+                // adjacent changes of the same batch are applied together
+                int end = i + 1;
+                String batch = planned.changes.get(i).getBatch();
+                while (batch != null && end < planned.changes.size() && batch.equals(planned.changes.get(end).getBatch())) {
+                    end++;
+                }
+                applyBatch(planned, planned.changes.subList(i, end), retryQueue, batchExecutor);
+                applied += end - i;
+                i = end;
+            }
+            span.outcome("applied");
+        } catch (DeadlineExceededException e) {
+            planned.timedOut = true;
+            RepositoryLogger.get(planned.repository).log(Level.SEVERE, "Repository {0} timed out with {1} of {2} changes applied: {3}", //
+                    new Object[] { planned.repository, applied, planned.changes.size(), e.getMessage() });
+        } finally {
+            planned.endStage();
+        }
+    }
+
+    /*
+     * Applies independent changes of a repository concurrently, at most the
+     * configured number for each repository. The calling worker is one of
+     * them. Each failed change is collected by the retry queue.
+     */
+    private void applyBatch(PlannedRepository planned, List<PlannedChange> batch, RetryQueue retryQueue, ExecutorService batchExecutor) throws InterruptedException {
+        Queue<PlannedChange> changes = new ConcurrentLinkedQueue<>(batch);
+        Callable<Void> worker = () -> {
+            try (Deadline.Scope scope = planned.deadline.enter()) {
+                PlannedChange change;
+                while ((change = changes.poll()) != null) {
+                    planned.deadline.check();
+                    if (retryQueue.submit(planned.repository, change.getDescription(), change.getOperation())) {
+                        change.applied();
+                    }
+                }
+            }
+            return null;
+        };
+
+        int helpers = Math.min(configuration.getRepositoryWriteConcurrency(), batch.size()) - 1;
+        List<Future<Void>> futures = new ArrayList<>(Math.max(0, helpers));
+        for (int i = 0; i < helpers; i++) {
+            futures.add(batchExecutor.submit(worker));
+        }
+        boolean completed = false;
+        try {
+            worker.call();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            completed = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        } catch (RuntimeException | InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // the worker throws only unchecked exceptions
+            throw new IllegalStateException(e);
+        } finally {
+            if (!completed) {
+                // stop the helpers before leave the batch
+                changes.clear();
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+    }
+
+    /*
+     * Workers of a stage bound by a lane, an unlimited lane does not bound the
+     * stage so the workers come from the parallelism, or from the CPUs when
+     * that is unlimited too.
+     */
+    private static int workers(int limit, int parallelism) {
+        if (limit > 0) {
+            return limit;
+        }
+        return parallelism > 0 ? parallelism : 4 * Runtime.getRuntime().availableProcessors();
+    }
+
+    private static ExecutorService newBatchExecutor() {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "apply-batch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+     * Reports a repository whose deadline expired before apply, workers move
+     * on to the next one.
+     */
+    private void timedOut(PlannedRepository planned, DeadlineExceededException e, Consumer<PlannedRepository> done) {
+        planned.endStage();
+        RepositoryLogger.get(planned.repository).log(Level.SEVERE, "Repository {0} timed out: {1}", new Object[] { planned.repository, e.getMessage() });
+        planned.timedOut = true;
+        done.accept(planned);
+    }
+
+    /*
+     * Estimates the cost of a repository by the number of branch restrictions
+     * and users that the matching rules involve.
+     */
+    private static String historyKey(String workspace, String repo) {
+        return workspace + '/' + repo;
+    }
+
+    private long estimateCost(String repo) {
+        long cost = 1;
+        try {
+            CompiledRules rules = getRules();
+            for (BranchPermissionRule rule : rules.getBranchRules(repo)) {
+                cost += BRANCH_RESTRICTIONS_PER_PATTERN * rule.getBranchPatterns().split(",").length;
+            }
+            for (RepositoryAccessRule rule : rules.getRepositoryRules(repo)) {
+                cost += rule.getUsers().size() + rule.getGroups().size();
+            }
+        } catch (IOException e) {
+            // rules will be read again when processing the repository
+        }
+        return cost;
+    }
+
+    private RetryQueue newRetryQueue() {
+        return new RetryQueue(configuration.getRetryAttempts(), configuration.getRetryBackoff());
+    }
+
+    /*
+     * Retry all deferred writes and returns the ones that are failed
+     * permanently.
+     */
+    private List<Operation> drain(RetryQueue retryQueue) throws IOException {
+        try {
+            return retryQueue.drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrying failed operations", e);
+        }
+    }
+
+    private void reportFailures(List<Operation> failures) {
+        for (Operation failure : failures) {
+            RepositoryLogger.get(failure.getRepository()).log(Level.SEVERE, "Failed {0} for repository {1} after {2} attempts: {3}", new Object[] { //
+                    failure.getDescription(), //
+                    failure.getRepository(), //
+                    failure.getAttempts(), //
+                    failure.getLastError().getMessage() //
+            });
+        }
+        if (!failures.isEmpty()) {
+            Logger.getLogger("app").log(Level.SEVERE, "{0} operations are failed, the involved repositories are not fully configured", failures.size());
+        }
+    }
+
+    private boolean checkSettingsPermission(String workspace, String repo) throws ClientException {
+        Permission privilege = client.getPermission(workspace, repo);
         return privilege.equals(Permission.ADMIN);
     }
 
     /**
      * Creates a ServerInfo object containing the user credentials declared.
      *
+     * @param configuration the settings with user credentials
      * @return the created ServerInfo
      */
-    private Credentials buildCredentials() {
+    private static Credentials buildCredentials(RepoSettingsInfo configuration) {
         return configuration.isOAuth2() ?
                 CredentialsBuilder.oauth2(configuration.getUsername(), configuration.getPassword())
                 :
                 CredentialsBuilder.appPassword(configuration.getUsername(), configuration.getPassword());
     }
 
+    private Collection<GroupInfo> getGroups(String workspace) throws ClientException {
+        Collection<GroupInfo> groups = groupsCache.get(workspace);
+        if (groups == null) {
+            groups = groupsFlight.get(workspace, () -> {
+                Collection<GroupInfo> loaded = client.getGroups(workspace);
+                // cached before the flight ends so late callers find it
+                groupsCache.putIfAbsent(workspace, loaded);
+                return loaded;
+            });
+        }
+        return groups;
+    }
+
+    private UserInfo getUser(String username) throws ClientException {
+        Optional<UserInfo> user = usersCache.get(username);
+        if (user == null) {
+            user = usersFlight.get(username, () -> {
+                Optional<UserInfo> loaded = Optional.ofNullable(client.getUser(username));
+                usersCache.putIfAbsent(username, loaded);
+                return loaded;
+            });
+        }
+        return user.orElse(null);
+    }
+
+    /*
+     * Discards the compiled rules when a rule file changed since they were
+     * read, the reader parses again only the changed files.
+     */
+    private void reloadModifiedRules() throws IOException {
+        if (rules.get() != null && rulesReader.isModified()) {
+            Logger.getLogger("app").info("Rule files changed, reloading rules");
+            rules.set(null);
+            // restrictions resolved from the old rules
+            restrictionsCache.clear();
+        }
+    }
+
+    private CompiledRules getRules() throws IOException {
+        CompiledRules compiled = rules.get();
+        if (compiled == null) {
+            compiled = new CompiledRules(rulesReader.getRepositoryRules(), rulesReader.getBranchPermissions(), ruleProfiler);
+            for (List<RepositoryAccessRule> pair : compiled.getConflicts().getPairs()) {
+                Logger.getLogger("app").log(Level.WARNING, "Independent access rules {0} and {1} could match the same repository", pair.toArray());
+            }
+            rules.set(compiled);
+        }
+        return compiled;
+    }
+
     /**
      * Update the User and Group Access settings of a Bitbucket repository and
      * get the groups with access right.
@@ -164,6 +966,8 @@ public class RepoSettingsConfigurator {
      * @throws ClientException if any error communicating to bitbucket occurs
      */
     protected Collection<BitbucketObject> processRepositoryPermission(String repoName) throws IOException {
+        RepositoryLogger log = RepositoryLogger.get(repoName);
+
         // Do not update
         if (configuration.isOnlyBranches()) {
             if (configuration.isDebug()) {
@@ -175,48 +979,69 @@ public class RepoSettingsConfigurator {
             return new ArrayList<>(groupsPermission.keySet());
         }
 
-        // Read repository permission rules
-        List<RepositoryAccessRule> repoRules = rulesReader.getRepositoryRules();
-
         // Groups and Users that will be the present with access right
         List<BitbucketObject> allowed = new ArrayList<>();
 
         // Check if there is at least an access rule that is satisfied for this repository
-        List<RepositoryAccessRule> accessRules = repoRules.stream() //
-                .filter(rule -> rule.accept(repoName)) //
-                .collect(Collectors.toList());
+        List<RepositoryAccessRule> accessRules = getAccessRules(repoName, true);
+        if (ruleProfiler.isEnabled()) {
+            Explanation explanation = ruleProfiler.explain(workspace + '/' + repoName);
+            for (RepositoryAccessRule rule : accessRules) {
+                explanation.fired(rule, rule.isInherited() ? "repository matches {0}" : "repository matches {0}, the only not inherited rule", //
+                        matchingPattern(rule.getRepositoryPatterns(), repoName));
+            }
+        }
+        if (!accessRules.isEmpty()) {
+            allowed.addAll(usersPermission(repoName, accessRules, log));
+            allowed.addAll(groupsPermission(repoName, accessRules, log));
+        }
+
+        return allowed;
+    }
+
+    /*
+     * Returns the access rules that apply to the repository, profiling the
+     * lookup only when the repository permissions are planned.
+     */
+    private List<RepositoryAccessRule> getAccessRules(String repoName, boolean profile) throws IOException {
+        CompiledRules rules = getRules();
+        List<RepositoryAccessRule> accessRules = profile ? rules.profileRepositoryRules(repoName) : rules.getRepositoryRules(repoName);
         if (!accessRules.isEmpty()) {
-            List<RepositoryAccessRule> notInheritedRules = accessRules.stream() //+
+            // Cannot have more than one matching rules without inheritance
+            List<RepositoryAccessRule> conflictingRules = rules.getConflicts().getConflicting(accessRules);
+            if (!conflictingRules.isEmpty()) {
+                throw new IllegalArgumentException("Repository pattern matches multiple independent access rules: " + conflictingRules);
+            }
+            List<RepositoryAccessRule> notInheritedRules = accessRules.stream() //
                     .filter(rule -> !rule.isInherited()) //
                     .collect(Collectors.toList());
-            // Cannot have more than one matching rules without inheritance
-            if (notInheritedRules.size() > 1) {
-                throw new IllegalArgumentException("Repository pattern matches multiple independent access rules: " + notInheritedRules);
-            } else if (notInheritedRules.size() == 1) { // Between all, consider only the most specific rule
+            if (notInheritedRules.size() == 1) { // Between all, consider only the most specific rule
                 accessRules.retainAll(notInheritedRules);
             }
-            allowed.addAll(usersPermission(repoName, accessRules));
-            allowed.addAll(groupsPermission(repoName, accessRules));
         }
-
-        return allowed;
+        return accessRules;
     }
 
     // Update groups permissions for this repository based on its matching rules
-    private Collection<GroupInfo> groupsPermission(String repoName, List<RepositoryAccessRule> accessRules) throws IOException {
+    private Collection<GroupInfo> groupsPermission(String repoName, List<RepositoryAccessRule> accessRules, RepositoryLogger log) throws IOException {
         List<GroupInfo> allowed = new LinkedList<>();
 
         // Groups that already have access (slug and actual privilege)
         Map<GroupInfo, Permission> groupsPermission = client.getGroupsPermissions(workspace, repoName);
-        Collection<GroupInfo> allGroups = client.getGroups(workspace);
+        Collection<GroupInfo> allGroups = getGroups(workspace);
 
+        Explanation explanation = ruleProfiler.explain(workspace + '/' + repoName);
         Map<GroupInfo, Permission> newPermissions = new HashMap<>();
         for (GroupInfo group : allGroups) {
             // Compare every group rule with every pattern from matching rules
             for (RepositoryAccessRule accessRule : accessRules) {
                 for (AccessRule groupRule : accessRule.getGroups()) {
-                    if (groupRule.accept(group.getName())) { // grant access
+                    long start = ruleProfiler.start();
+                    boolean accepted = groupRule.accept(group.getName());
+                    ruleProfiler.record(groupRule, start, accepted);
+                    if (accepted) { // grant access
                         Permission permission = groupRule.getPrivilege();
+                        explanation.fired(groupRule, "group {0} matches, privilege {1}", group.getName(), permission);
                         Permission currentPermission = newPermissions.get(group);
                         if (currentPermission == null || currentPermission.compareTo(permission) < 0) {
                             newPermissions.put(group, permission);
@@ -255,22 +1080,26 @@ public class RepoSettingsConfigurator {
         return allowed;
     }
 
-    private List<UserInfo> usersPermission(String repoName, List<RepositoryAccessRule> accessRules) throws IOException {
+    private List<UserInfo> usersPermission(String repoName, List<RepositoryAccessRule> accessRules, RepositoryLogger log) throws IOException {
         List<UserInfo> allowed = new LinkedList<>();
 
         // permission map that contains user name to change with
         // greater right that comes from all matching accessRules
         Map<String, Permission> userPermissions = new HashMap<>();
+        Explanation explanation = ruleProfiler.explain(workspace + '/' + repoName);
         for (RepositoryAccessRule accessRule : accessRules) {
             for (AccessRule r : accessRule.getUsers()) {
                 Permission rulePrivilege = r.getPrivilege();
                 String username = r.getPattern();
 
-                UserInfo user = client.getUser(username);
+                long start = ruleProfiler.start();
+                UserInfo user = getUser(username);
+                ruleProfiler.record(r, start, user != null);
                 if (user == null) {
                     log.log(Level.WARNING, "User {0} not found", username);
                     continue;
                 }
+                explanation.fired(r, "user {0} exists, privilege {1}", username, rulePrivilege);
 
                 UserPermission userPermission = client.getUserPermission(workspace, repoName, username);
 
@@ -307,94 +1136,76 @@ public class RepoSettingsConfigurator {
      * @param granted
      *      the BB groups and users list that have access to the repository
      *
+     * @param retryQueue
+     *      the queue where collect the failed write operations
+     *
      * @throws IOException error occurs when resource read issue
      * @throws ClientException if any error communicating to bitbucket occurs
      */
-    protected void processBranchPermissions(String repo, Collection<BitbucketObject> granted) throws ClientException, IOException {
+    protected void processBranchPermissions(String repo, Collection<BitbucketObject> granted, RetryQueue retryQueue) throws ClientException, IOException {
+        RepositoryLogger log = RepositoryLogger.get(repo);
         List<BranchRestriction> toApply = new LinkedList<>();
 
         // Read branch-permissions.json
-        List<BranchPermissionRule> branchRules = rulesReader.getBranchPermissions().stream() //
-                .filter(r -> r.accept(repo)) //
-                .collect(Collectors.toList());
+        List<BranchPermissionRule> branchRules = getRules().profileBranchRules(repo);
+        Explanation explanation = ruleProfiler.explain(workspace + '/' + repo);
+        if (ruleProfiler.isEnabled()) {
+            for (BranchPermissionRule rule : branchRules) {
+                // branch rules match the whole pattern, it is not a list
+                explanation.fired(rule, "repository matches {0}, restricts {1}", rule.getRepositoryPatterns(), rule.getBranchPatterns());
+            }
+        }
 
         List<BranchRestriction> branchPermissions = client.getBranchRestrictions(workspace, repo);
 
-        for (BranchPermissionRule branchRule : branchRules) {
-            for (String branchPattern : branchRule.getBranchPatterns().split(",")) {
-                UpdatePermission ifNotExists = new UpdatePermissionIfNotExists(branchPermissions, branchPattern, toApply);
-
-                // Write access
-                Set<UserInfo> users = filterUsers.apply(granted) //
-                        .filter(grantedUser -> branchRule.getUsers().stream() //
-                                    .filter(rule -> rule.isWriteAccess()) //
-                                    .anyMatch(rule -> rule.accept(grantedUser.getUUID()))) //
-                        .collect(Collectors.toSet());
-                Set<GroupInfo> groups = filterGroups.apply(granted) //
-                        .filter(grantedGroup -> branchRule.getGroups().stream() //
-                                .filter(rule -> rule.isWriteAccess()) //
-                                .anyMatch(rule -> rule.accept(grantedGroup.getName()))) //
-                        .collect(Collectors.toSet());
-                ifNotExists.apply(Builder.newPushPermission(branchPattern, users, groups));
-
-                // Merge via pull request
-                users = filterUsers.apply(granted) //
-                        .filter(grantedUser -> branchRule.getUsers().stream() //
-                                .anyMatch(rule -> rule.accept(grantedUser.getUUID()))) //
-                        .collect(Collectors.toSet());
-                groups = filterGroups.apply(granted) //
-                        .filter(grantedGroup -> branchRule.getGroups().stream() //
-                                .anyMatch(rule -> rule.accept(grantedGroup.getName()))) //
-                        .collect(Collectors.toSet());
-                ifNotExists.apply(Builder.newMergePermission(branchPattern, users, groups));
-
-                // Deleting this branch is not allowed
-                ifNotExists.apply(Builder.newDeletePermission(branchPattern));
-
-                // Rewriting branch history is not allowed
-                ifNotExists.apply(Builder.newForcePushPermission(branchPattern));
-
-                // Check the last commit for at least N successful build and no failed builds
-                int successBuilds = branchRule.getSuccessBuilds() != null ? branchRule.getSuccessBuilds() : configuration.getSuccessBuilds();
-                ifNotExists.apply(Builder.newSucessBuildsPermission(branchPattern, successBuilds));
-
-                // Check for at least N approvals
-                int minApprovals = branchRule.getMinApprovals() != null ? branchRule.getMinApprovals() : configuration.getMinApprovals();
-                ifNotExists.apply(Builder.newMinApprovalsPermission(branchPattern, minApprovals));
-
-                //  Check that no changes are requested
-                ifNotExists.apply(Builder.newRequireNoChanges(branchPattern));
-
-                // Reset requested changes when the source branch is modified
-                ifNotExists.apply(Builder.newResetPROnChange(branchPattern));
-
-                // Check for unresolved pull request tasks
-                ifNotExists.apply(Builder.newRequireTasksCompletion(branchPattern));
+        DesiredRestrictions desired;
+        if (ruleProfiler.isEnabled()) {
+            // the evaluations and the explanations belong to this repository
+            desired = DesiredRestrictions.resolve(branchRules, granted, //
+                    configuration.getSuccessBuilds(), configuration.getMinApprovals(), ruleProfiler, explanation);
+        } else {
+            // repositories with the same rules and principals want the same restrictions
+            List<Object> key = Arrays.asList(branchRules, new HashSet<>(granted));
+            if (restrictionsCache.size() >= MAX_CACHED_RESTRICTIONS) {
+                // a long lived configurator serving reconcile calls starts over
+                restrictionsCache.clear();
+            }
+            desired = restrictionsCache.computeIfAbsent(key, k -> DesiredRestrictions.resolve(branchRules, granted, //
+                    configuration.getSuccessBuilds(), configuration.getMinApprovals()));
+        }
+        for (BranchRestrictions branch : desired.getBranches()) {
+            UpdatePermission ifNotExists = new UpdatePermissionIfNotExists(branchPermissions, branch.getPattern(), toApply);
+            for (BranchRestriction restriction : branch.newRestrictions()) {
+                ifNotExists.apply(restriction);
             }
         }
 
+        // updates by id go before the additions
+        toApply.sort(Comparator.comparing(p -> p.getId() == null));
         toApply.forEach(p -> {
             if (configuration.isDebug()) {
                 log.log(Level.INFO, "Adding permission {0} for branch: {1}", new String[] {p.getKind(), p.getPattern()});
             }
-            try {
-                client.updateBranchRestriction(workspace, repo, p);
-            } catch (ClientException e) {
-            }
+            retryQueue.submit(repo, "update branch restriction " + p.getKind() + " for " + p.getPattern(), //
+                    () -> client.updateBranchRestriction(workspace, repo, p));
         });
     }
 
-    private Function<Collection<BitbucketObject>, Stream<GroupInfo>> filterGroups = (credentials) ->
-        credentials.stream() //
-            .filter(c -> "group".equals(c.getType())) //
-            .map(GroupInfo.class::cast);
-
-    private Function<Collection<BitbucketObject>, Stream<UserInfo>> filterUsers = (credentials) ->
-        credentials.stream() //
-            .filter(c -> "user".equals(c.getType()))//
-            .map(UserInfo.class::cast);
+    /*
+     * Returns the first pattern that includes the value, to explain why an
+     * access rule matched.
+     */
+    private static String matchingPattern(String patterns, String value) {
+        for (String pattern : patterns.split(",")) {
+            if (!pattern.startsWith("!") && SelectorUtils.match(pattern, value)) {
+                return pattern;
+            }
+        }
+        return patterns;
+    }
 
-    protected void processWebhook(String repo) throws ClientException {
+    protected void processWebhook(String repo, RetryQueue retryQueue) throws ClientException {
+        RepositoryLogger log = RepositoryLogger.get(repo);
         Webhook webhook = WebhookUtil.getDefault(configuration.getWebHookHostname());
         webhook.setUrl(String.format(webhook.getUrl(), configuration.getWebHookHostname()));
 
@@ -402,24 +1213,24 @@ public class RepoSettingsConfigurator {
         if (webhooks.stream().noneMatch(webhook::equals)) {
             if (webhooks.size() > 0) {
                 webhook.setUUID(webhooks.get(0).getUUID());
-                client.updateWebhook(workspace, repo, webhook);
-                if (configuration.isDebug()) {
-                    log.log(Level.INFO, "Update webhook {0} id {1}", new String[] {webhook.getDescription(), webhook.getUUID()});
+                // planned writes are logged when applied
+                if (retryQueue.submit(repo, "update webhook " + webhook.getDescription(), //
+                        () -> client.updateWebhook(workspace, repo, webhook)) && configuration.isDebug()) {
+                    planning.whenApplied(workspace, repo, () -> log.log(Level.INFO, "Update webhook {0} id {1}", new String[] {webhook.getDescription(), webhook.getUUID()}));
                 }
             } else {
-                client.addWebHook(workspace, repo, webhook);
-                if (configuration.isDebug()) {
-                    log.log(Level.INFO, "Set webhook {0}", webhook.getDescription());
+                if (retryQueue.submit(repo, "add webhook " + webhook.getDescription(), //
+                        () -> client.addWebHook(workspace, repo, webhook)) && configuration.isDebug()) {
+                    planning.whenApplied(workspace, repo, () -> log.log(Level.INFO, "Set webhook {0}", webhook.getDescription()));
                 }
             }
         }
 
         // remove duplicates
         webhooks.stream().skip(1).forEach(hook -> {
-            try {
-                client.deleteWebhook(workspace, repo, hook.getUUID());
-                log.log(Level.INFO, "Deleted webhook {0}", webhook.getDescription());
-            } catch (ClientException e) {
+            if (retryQueue.submit(repo, "delete webhook " + hook.getUUID(), //
+                    () -> client.deleteWebhook(workspace, repo, hook.getUUID()))) {
+                planning.whenApplied(workspace, repo, () -> log.log(Level.INFO, "Deleted webhook {0}", hook.getUUID()));
             }
         });
     }
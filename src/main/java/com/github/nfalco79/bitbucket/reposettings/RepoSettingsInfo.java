@@ -27,7 +27,7 @@ public class RepoSettingsInfo {
 
     private List<String> filter = Arrays.asList("*");
     private List<String> projects = Collections.emptyList();
-    private String workspace;
+    private List<String> workspaces = Collections.emptyList();
     private boolean onlyBranches;
     private boolean debug;
     private boolean oauth2;
@@ -35,10 +35,36 @@ public class RepoSettingsInfo {
     private String password;
     private String webHookHostname;
     private boolean dryRun;
+    private boolean validateOnly;
     private String accessRules = "/repository-permissions.json";
     private String branchRules = "/branch-permissions.json";
     private int successBuilds = 1;
     private int minApprovals = 2;
+    private int retryAttempts = 3;
+    private long retryBackoff = 2000;
+    private int parallelism = 1;
+    private String timingHistory;
+    private String ruleProfile;
+    private String exportSnapshot;
+    private String offlineSnapshot;
+    private String flightRecording;
+    private boolean jsonLog;
+    private int progressInterval;
+    private String statusFile;
+    private int readConcurrency;
+    private int writeConcurrency;
+    private double readRate;
+    private double writeRate;
+    private boolean adaptiveConcurrency;
+    private int maxConcurrency = 32;
+    private int repositoryTimeout;
+    private int runTimeout;
+    private int repositoryWriteConcurrency = 4;
+    private int rolloutBatchSize;
+    private int rolloutPause;
+    private double rolloutMaxErrorRate = 0.1;
+    private double rolloutMaxThrottledRate = 0.2;
+    private List<String> canaries = Collections.emptyList();
 
     public List<String> getFilter() {
         return filter;
@@ -112,12 +138,40 @@ public class RepoSettingsInfo {
         this.dryRun = dryRun;
     }
 
+    public boolean isValidateOnly() {
+        return validateOnly;
+    }
+
+    public void setValidateOnly(boolean validateOnly) {
+        this.validateOnly = validateOnly;
+    }
+
+    /**
+     * Returns the first configured workspace.
+     *
+     * @return the workspace name, {@code null} if not configured
+     */
     public String getWorkspace() {
-        return workspace;
+        return workspaces.isEmpty() ? null : workspaces.get(0);
     }
 
     public void setWorkspace(String workspace) {
-        this.workspace = workspace;
+        this.workspaces = workspace != null ? Collections.singletonList(workspace) : Collections.emptyList();
+    }
+
+    /**
+     * Returns all workspaces to process in the same run. A repository slug
+     * must not be in more of them, the permission of the current user is
+     * looked up by slug.
+     *
+     * @return the list of workspace names
+     */
+    public List<String> getWorkspaces() {
+        return workspaces;
+    }
+
+    public void setWorkspaces(List<String> workspaces) {
+        this.workspaces = new ArrayList<>(workspaces);
     }
 
     public String getWebHookHostname() {
@@ -151,4 +205,340 @@ public class RepoSettingsInfo {
     public void setMinApprovals(int minApprovals) {
         this.minApprovals = minApprovals;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the max number of attempts, including the first one, for a
+     * write operation that fails with a transient error.
+     *
+     * @return the max number of attempts
+     */
+    public int getRetryAttempts() {
+        return retryAttempts;
+    }
+
+    public void setRetryAttempts(int retryAttempts) {
+        this.retryAttempts = retryAttempts;
+    }
+
+    /**
+     * Returns the milliseconds to wait before retry the failed operations, it
+     * doubles at each retry.
+     *
+     * @return the initial backoff in milliseconds
+     */
+    public long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public void setRetryBackoff(long retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * Returns the default number of concurrent read and write requests, that
+     * also sizes the fetch and apply stages.
+     *
+     * @return the number of concurrent requests, zero or less if unlimited
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the file where are stored the time spent on each repository,
+     * used to process the most expensive repositories first.
+     *
+     * @return the file path, {@code null} if not configured
+     */
+    public String getTimingHistory() {
+        return timingHistory;
+    }
+
+    public void setTimingHistory(String timingHistory) {
+        this.timingHistory = timingHistory;
+    }
+
+    /**
+     * Returns the file where store how often each rule is evaluated and
+     * matches, with the time spent, and the rules that fired for each
+     * repository.
+     *
+     * @return the file path, {@code null} if rules are not profiled
+     */
+    public String getRuleProfile() {
+        return ruleProfile;
+    }
+
+    public void setRuleProfile(String ruleProfile) {
+        this.ruleProfile = ruleProfile;
+    }
+
+    /**
+     * Returns the file where export the workspace snapshot instead of
+     * configure repositories.
+     *
+     * @return the file path, {@code null} if not configured
+     */
+    public String getExportSnapshot() {
+        return exportSnapshot;
+    }
+
+    public void setExportSnapshot(String exportSnapshot) {
+        this.exportSnapshot = exportSnapshot;
+    }
+
+    /**
+     * Returns the workspace snapshot used to compute changes without access
+     * to Bitbucket.
+     *
+     * @return the file path, {@code null} if not configured
+     */
+    public String getOfflineSnapshot() {
+        return offlineSnapshot;
+    }
+
+    public void setOfflineSnapshot(String offlineSnapshot) {
+        this.offlineSnapshot = offlineSnapshot;
+    }
+
+    public boolean isOffline() {
+        return offlineSnapshot != null;
+    }
+
+    public String getFlightRecording() {
+        return flightRecording;
+    }
+
+    public void setFlightRecording(String flightRecording) {
+        this.flightRecording = flightRecording;
+    }
+
+    public boolean isJsonLog() {
+        return jsonLog;
+    }
+
+    public void setJsonLog(boolean jsonLog) {
+        this.jsonLog = jsonLog;
+    }
+
+    public int getProgressInterval() {
+        return progressInterval;
+    }
+
+    public void setProgressInterval(int progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    public String getStatusFile() {
+        return statusFile;
+    }
+
+    public void setStatusFile(String statusFile) {
+        this.statusFile = statusFile;
+    }
+
+    /**
+     * Returns the max number of concurrent read requests.
+     *
+     * @return the read concurrency, if not set the parallelism
+     */
+    public int getReadConcurrency() {
+        return readConcurrency > 0 ? readConcurrency : parallelism;
+    }
+
+    public void setReadConcurrency(int readConcurrency) {
+        this.readConcurrency = readConcurrency;
+    }
+
+    /**
+     * Returns the max number of concurrent write requests.
+     *
+     * @return the write concurrency, if not set the parallelism
+     */
+    public int getWriteConcurrency() {
+        return writeConcurrency > 0 ? writeConcurrency : parallelism;
+    }
+
+    public void setWriteConcurrency(int writeConcurrency) {
+        this.writeConcurrency = writeConcurrency;
+    }
+
+    /**
+     * Returns the max number of read requests per second.
+     *
+     * @return the read rate, zero if unlimited
+     */
+    public double getReadRate() {
+        return readRate;
+    }
+
+    public void setReadRate(double readRate) {
+        this.readRate = readRate;
+    }
+
+    /**
+     * Returns the max number of write requests per second.
+     *
+     * @return the write rate, zero if unlimited
+     */
+    public double getWriteRate() {
+        return writeRate;
+    }
+
+    public void setWriteRate(double writeRate) {
+        this.writeRate = writeRate;
+    }
+
+    /**
+     * Returns if read and write concurrency adapt to the server throttling
+     * and latency, starting from the configured values.
+     *
+     * @return {@code true} if concurrency is adaptive
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * Returns the highest concurrency reachable by adaptive limits.
+     *
+     * @return the max number of concurrent requests of each lane
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Returns the time budget of each repository, once expired the work in
+     * progress is cancelled and the repository is reported as timed out. Only
+     * the time spent working on the repository counts, not the time it waits
+     * for a free worker between the pipeline stages.
+     *
+     * @return the timeout in seconds, zero if repositories have no time limit
+     */
+    public int getRepositoryTimeout() {
+        return repositoryTimeout;
+    }
+
+    public void setRepositoryTimeout(int repositoryTimeout) {
+        this.repositoryTimeout = repositoryTimeout;
+    }
+
+    /**
+     * Returns the time budget of the whole run, once expired the remaining
+     * repositories are reported as timed out.
+     *
+     * @return the timeout in seconds, zero if the run has no time limit
+     */
+    public int getRunTimeout() {
+        return runTimeout;
+    }
+
+    public void setRunTimeout(int runTimeout) {
+        this.runTimeout = runTimeout;
+    }
+
+    /**
+     * Returns how many independent writes of the same repository, like
+     * branch restrictions, are sent concurrently.
+     *
+     * @return the max number of concurrent writes for each repository
+     */
+    public int getRepositoryWriteConcurrency() {
+        return Math.max(1, repositoryWriteConcurrency);
+    }
+
+    public void setRepositoryWriteConcurrency(int repositoryWriteConcurrency) {
+        this.repositoryWriteConcurrency = repositoryWriteConcurrency;
+    }
+
+    /**
+     * Returns if the changes are applied in batches, see
+     * {@link #getRolloutBatchSize()} and {@link #getCanaries()}.
+     *
+     * @return {@code true} if the run is a staged rollout
+     */
+    public boolean isRollout() {
+        return rolloutBatchSize > 0 || !canaries.isEmpty();
+    }
+
+    /**
+     * Returns the number of repositories of each rollout batch.
+     *
+     * @return the batch size, zero to process all repositories together
+     */
+    public int getRolloutBatchSize() {
+        return rolloutBatchSize;
+    }
+
+    public void setRolloutBatchSize(int rolloutBatchSize) {
+        this.rolloutBatchSize = rolloutBatchSize;
+    }
+
+    /**
+     * Returns the seconds to wait between two rollout batches.
+     *
+     * @return the pause in seconds
+     */
+    public int getRolloutPause() {
+        return rolloutPause;
+    }
+
+    public void setRolloutPause(int rolloutPause) {
+        this.rolloutPause = rolloutPause;
+    }
+
+    /**
+     * Returns the highest ratio of failed write requests in a batch before
+     * the rollout halts.
+     *
+     * @return a value between 0 and 1
+     */
+    public double getRolloutMaxErrorRate() {
+        return rolloutMaxErrorRate;
+    }
+
+    public void setRolloutMaxErrorRate(double rolloutMaxErrorRate) {
+        this.rolloutMaxErrorRate = rolloutMaxErrorRate;
+    }
+
+    /**
+     * Returns the highest ratio of requests throttled with HTTP 429 in a
+     * batch before the rollout halts.
+     *
+     * @return a value between 0 and 1
+     */
+    public double getRolloutMaxThrottledRate() {
+        return rolloutMaxThrottledRate;
+    }
+
+    public void setRolloutMaxThrottledRate(double rolloutMaxThrottledRate) {
+        this.rolloutMaxThrottledRate = rolloutMaxThrottledRate;
+    }
+
+    /**
+     * Returns the patterns of the repositories processed in the first
+     * rollout batch.
+     *
+     * @return the canary patterns
+     */
+    public List<String> getCanaries() {
+        return canaries;
+    }
+
+    public void setCanaries(List<String> canaries) {
+        this.canaries = new ArrayList<>(canaries);
+    }
+}
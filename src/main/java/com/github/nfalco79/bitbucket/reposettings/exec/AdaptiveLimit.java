@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+/**
+ * A concurrency limit that adapts to the capacity of the server with an
+ * additive increase, multiplicative decrease policy.
+ * <p>
+ * While the latency of requests stays close to the lowest observed latency
+ * and the limit is in use, the limit grows by one every limit successful
+ * requests. A throttled request halves the limit, requests started before the
+ * last decrease do not decrease it again, and a latency much higher than the
+ * lowest observed slowly lowers it.
+ */
+public class AdaptiveLimit {
+
+    // latency ratio to the baseline considered as not loaded
+    private static final double TOLERANCE = 2;
+    // latency ratio to the baseline considered as overloaded
+    private static final double OVERLOAD = 4;
+    private static final double BACKOFF = 0.5;
+    private static final double OVERLOAD_BACKOFF = 0.95;
+    // how fast the baseline follows latencies higher than it
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final int min;
+    private final int max;
+    private double limit;
+    private int inFlight;
+    private double baseline = -1;
+    private long lastDecrease = Long.MIN_VALUE;
+
+    /**
+     * AdaptiveLimit constructor.
+     *
+     * @param initial the starting limit
+     * @param min the lowest limit
+     * @param max the highest limit
+     */
+    public AdaptiveLimit(int initial, int min, int max) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.limit = Math.min(this.max, Math.max(this.min, initial));
+    }
+
+    /**
+     * Waits until the number of requests in flight is under the limit.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Records a request completed successfully.
+     *
+     * @param start the time in nanoseconds when the request was sent
+     */
+    public void onSuccess(long start) {
+        onSuccess(start, System.nanoTime());
+    }
+
+    synchronized void onSuccess(long start, long now) {
+        double latency = now - start;
+        if (baseline < 0 || latency < baseline) {
+            baseline = latency;
+        } else {
+            baseline += (latency - baseline) * BASELINE_DRIFT;
+        }
+
+        if (latency <= baseline * TOLERANCE) {
+            // grow only when the limit is really used
+            if (inFlight >= limit / 2) {
+                limit = Math.min(max, limit + 1 / limit);
+            }
+        } else if (latency > baseline * OVERLOAD) {
+            limit = Math.max(min, limit * OVERLOAD_BACKOFF);
+        }
+        release();
+    }
+
+    /**
+     * Records a request rejected because of throttling.
+     *
+     * @param start the time in nanoseconds when the request was sent
+     */
+    public void onThrottled(long start) {
+        onThrottled(start, System.nanoTime());
+    }
+
+    synchronized void onThrottled(long start, long now) {
+        if (start > lastDecrease) {
+            limit = Math.max(min, limit * BACKOFF);
+            lastDecrease = now;
+        }
+        release();
+    }
+
+    /**
+     * Records a request that failed for reasons not related to the load.
+     */
+    public synchronized void onIgnore() {
+        release();
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return the max number of concurrent requests
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+
+/**
+ * Helper to classify errors returned by the Bitbucket REST client.
+ */
+public final class ClientErrors {
+
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    private ClientErrors() {
+    }
+
+    /**
+     * Returns if the given error is caused by the API throttling.
+     *
+     * @param e the client error
+     * @return {@code true} if the server answer with HTTP 429
+     */
+    public static boolean isThrottled(ClientException e) {
+        return e.getStatusCode() == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Returns if the given error could disappear retrying the same request
+     * later, like throttling, server errors or connection failures without an
+     * HTTP status.
+     *
+     * @param e the client error
+     * @return {@code true} if the request could be retried
+     */
+    public static boolean isTransient(ClientException e) {
+        int status = e.getStatusCode();
+        return status <= 0 || status == TOO_MANY_REQUESTS || status >= 500;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time after which the work in progress must stop.
+ * <p>
+ * A deadline is bound to the current thread with {@link #enter()}, so that
+ * the calls made on behalf of a repository can find the time left with
+ * {@link #current()} without pass it through every method.
+ */
+public final class Deadline {
+
+    /**
+     * Binds a deadline to the current thread until closed.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * A deadline that never expires.
+     */
+    public static final Deadline NONE = new Deadline(null, 0);
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final String name;
+    private final long expiry;
+
+    private Deadline(String name, long expiry) {
+        this.name = name;
+        this.expiry = expiry;
+    }
+
+    /**
+     * Creates a deadline that expires after the given time.
+     *
+     * @param name what the deadline bounds, used in error messages
+     * @param timeout the time budget, zero or negative means no deadline
+     * @param unit the time unit of the timeout
+     * @return a new deadline
+     */
+    public static Deadline after(String name, long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            return NONE;
+        }
+        return new Deadline(name, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Returns the deadline bound to the current thread.
+     *
+     * @return the current deadline or {@link #NONE}
+     */
+    public static Deadline current() {
+        Deadline deadline = CURRENT.get();
+        return deadline != null ? deadline : NONE;
+    }
+
+    /**
+     * Returns the deadline that expires first between this and the given
+     * one.
+     *
+     * @param other another deadline
+     * @return the earliest deadline
+     */
+    public Deadline min(Deadline other) {
+        if (this == NONE) {
+            return other;
+        } else if (other == NONE) {
+            return this;
+        }
+        return other.expiry - expiry < 0 ? other : this;
+    }
+
+    /**
+     * Returns the time left.
+     *
+     * @return the nanoseconds before the expiry, {@link Long#MAX_VALUE} if
+     *         this deadline never expires
+     */
+    public long remaining() {
+        return this == NONE ? Long.MAX_VALUE : Math.max(0, expiry - System.nanoTime());
+    }
+
+    public boolean isExpired() {
+        return remaining() == 0;
+    }
+
+    /**
+     * Fails if this deadline is expired.
+     *
+     * @throws DeadlineExceededException if no time is left
+     */
+    public void check() {
+        if (isExpired()) {
+            throw new DeadlineExceededException(name + " expired");
+        }
+    }
+
+    /**
+     * Binds this deadline to the current thread.
+     *
+     * @return the scope to close to restore the previous deadline
+     */
+    public Scope enter() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return this == NONE ? "no deadline" : name;
+    }
+}
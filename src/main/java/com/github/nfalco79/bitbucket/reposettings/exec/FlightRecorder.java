@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+
+/**
+ * Java Flight Recorder support.
+ * <p>
+ * The implementation depends on {@code jdk.jfr}, it is compiled for Java 11
+ * and loaded only when a recording is requested, so the rest of the
+ * application still runs on Java 8.
+ */
+public interface FlightRecorder {
+
+    /**
+     * Loads the flight recorder support.
+     *
+     * @return the flight recorder
+     * @throws UnsupportedOperationException if the running JVM has no flight
+     *         recorder
+     */
+    static FlightRecorder load() {
+        try {
+            Class<?> type = Class.forName("com.github.nfalco79.bitbucket.reposettings.jfr.JfrTracing");
+            return (FlightRecorder) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new UnsupportedOperationException("Flight recording requires Java 11 or later", e);
+        }
+    }
+
+    /**
+     * Returns a tracer that emits repository and phase events.
+     *
+     * @return the JFR tracer
+     */
+    ReconcileTracer tracer();
+
+    /**
+     * Returns a service that emits an event for each call to the given
+     * service.
+     *
+     * @param service the service to record
+     * @return the recording service
+     */
+    BitbucketService record(BitbucketService service);
+
+    /**
+     * Starts a flight recording with the "profile" settings.
+     *
+     * @param file where the recording is dumped when closed
+     * @return the running recording, close it to stop and dump
+     * @throws IOException if the recording could not be started
+     */
+    Closeable startRecording(Path file) throws IOException;
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.concurrent.Semaphore;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+
+/**
+ * Limits the concurrency and the rate of a kind of requests.
+ * <p>
+ * The concurrency limit is fixed or adapts to the throttling and the latency
+ * of the server.
+ */
+public class Lane {
+
+    private final String name;
+    private final int limit;
+    private final Semaphore concurrency;
+    private final AdaptiveLimit adaptive;
+    private final RateLimiter rate;
+
+    /**
+     * Lane constructor.
+     *
+     * @param name the lane name
+     * @param concurrency the max number of concurrent requests, zero or
+     *        negative for unlimited
+     * @param rate the max number of requests per second, zero or negative
+     *        for unlimited
+     */
+    public Lane(String name, int concurrency, double rate) {
+        this(name, concurrency, concurrency > 0 ? new Semaphore(concurrency, true) : null, null, rate);
+    }
+
+    private Lane(String name, int limit, Semaphore concurrency, AdaptiveLimit adaptive, double rate) {
+        this.name = name;
+        this.limit = limit > 0 ? limit : -1;
+        this.concurrency = concurrency;
+        this.adaptive = adaptive;
+        this.rate = rate > 0 ? new RateLimiter(rate) : null;
+    }
+
+    /**
+     * Creates a lane with a concurrency limit that adapts to the server.
+     *
+     * @param name the lane name
+     * @param initial the starting concurrency
+     * @param max the highest concurrency
+     * @param rate the max number of requests per second, zero or negative
+     *        for unlimited
+     * @return the lane
+     */
+    public static Lane adaptive(String name, int initial, int max, double rate) {
+        return new Lane(name, max, null, new AdaptiveLimit(initial, 1, max), rate);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the current concurrency limit.
+     *
+     * @return the max number of concurrent requests, -1 if unlimited
+     */
+    public int getLimit() {
+        return adaptive != null ? adaptive.getLimit() : limit;
+    }
+
+    /**
+     * Waits until a request could be sent in this lane, the caller must
+     * {@link #release(long, Throwable)} the lane once the request
+     * completes.
+     *
+     * @return the start time of the request in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire() throws InterruptedException {
+        if (adaptive != null) {
+            adaptive.acquire();
+        } else if (concurrency != null) {
+            concurrency.acquire();
+        }
+        if (rate != null) {
+            try {
+                rate.acquire();
+            } catch (InterruptedException e) {
+                if (adaptive != null) {
+                    adaptive.onIgnore();
+                } else if (concurrency != null) {
+                    concurrency.release();
+                }
+                throw e;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Releases the lane after a request.
+     *
+     * @param start the value returned by {@link #acquire()}
+     * @param error the request error, {@code null} if the request succeed
+     */
+    public void release(long start, Throwable error) {
+        if (adaptive != null) {
+            if (error == null) {
+                adaptive.onSuccess(start);
+            } else if (error instanceof ClientException && ClientErrors.isThrottled((ClientException) error)) {
+                adaptive.onThrottled(start);
+            } else {
+                adaptive.onIgnore();
+            }
+        } else if (concurrency != null) {
+            concurrency.release();
+        }
+    }
+}
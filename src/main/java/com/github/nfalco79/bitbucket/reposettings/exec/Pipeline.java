@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A chain of stages, each one with its own workers, connected by bounded
+ * queues.
+ * <p>
+ * A stage that produces faster than the next one consumes blocks when the
+ * queue between them is full, so the number of items in flight is bounded
+ * by the capacity of the queues whatever is the speed of each stage. The
+ * first error of any stage stops the whole pipeline and is rethrown by
+ * {@link #run(String, int, int, Sink)}.
+ *
+ * @param <T> the type of items produced by the last stage
+ */
+public final class Pipeline<T> {
+
+    /**
+     * Transforms an item, a {@code null} result discards the item.
+     *
+     * @param <I> the input type
+     * @param <O> the output type
+     */
+    @FunctionalInterface
+    public interface Stage<I, O> {
+        O apply(I item) throws Exception;
+    }
+
+    /**
+     * Consumes the items of the last stage.
+     *
+     * @param <I> the input type
+     */
+    @FunctionalInterface
+    public interface Sink<I> {
+        void accept(I item) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private static class StageDefinition {
+        private final String name;
+        private final int workers;
+        private final int capacity;
+        private final Stage<Object, Object> function;
+
+        @SuppressWarnings("unchecked")
+        StageDefinition(String name, int workers, int capacity, Stage<?, ?> function) {
+            this.name = name;
+            this.workers = Math.max(1, workers);
+            this.capacity = Math.max(1, capacity);
+            this.function = (Stage<Object, Object>) function;
+        }
+    }
+
+    private final Collection<?> source;
+    private final List<StageDefinition> stages;
+
+    private Pipeline(Collection<?> source, List<StageDefinition> stages) {
+        this.source = source;
+        this.stages = stages;
+    }
+
+    /**
+     * Starts a pipeline that emits the given items in iteration order.
+     *
+     * @param items the items to process
+     * @param <T> the type of items
+     * @return a pipeline without stages
+     */
+    public static <T> Pipeline<T> from(Collection<? extends T> items) {
+        return new Pipeline<>(items, new ArrayList<>());
+    }
+
+    /**
+     * Appends a stage.
+     *
+     * @param name the stage name, used for worker threads
+     * @param workers the number of items processed concurrently by the stage
+     * @param capacity the max number of items waiting for the stage
+     * @param stage the transformation
+     * @param <R> the type of items produced by the stage
+     * @return a new pipeline that ends with the given stage
+     */
+    public <R> Pipeline<R> then(String name, int workers, int capacity, Stage<? super T, ? extends R> stage) {
+        List<StageDefinition> next = new ArrayList<>(stages);
+        next.add(new StageDefinition(name, workers, capacity, stage));
+        return new Pipeline<>(source, next);
+    }
+
+    /**
+     * Runs the pipeline until all items are consumed by the given sink.
+     *
+     * @param name the sink name, used for worker threads
+     * @param workers the number of items consumed concurrently
+     * @param capacity the max number of items waiting for the sink
+     * @param sink the consumer of the items
+     * @throws IOException if any stage fails with an I/O error or is
+     *         interrupted
+     */
+    public void run(String name, int workers, int capacity, Sink<? super T> sink) throws IOException {
+        List<StageDefinition> all = new ArrayList<>(stages);
+        all.add(new StageDefinition(name, workers, capacity, item -> {
+            @SuppressWarnings("unchecked")
+            T value = (T) item;
+            sink.accept(value);
+            return null;
+        }));
+        new Execution(all).run();
+    }
+
+    private class Execution {
+        private final List<StageDefinition> stages;
+        private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+        private final List<AtomicInteger> running = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Execution(List<StageDefinition> stages) {
+            this.stages = stages;
+            for (StageDefinition stage : stages) {
+                queues.add(new ArrayBlockingQueue<>(stage.capacity));
+                running.add(new AtomicInteger(stage.workers));
+            }
+        }
+
+        void run() throws IOException {
+            threads.add(newThread("reposettings-discover", this::emit));
+            for (int i = 0; i < stages.size(); i++) {
+                StageDefinition stage = stages.get(i);
+                int index = i;
+                for (int w = 1; w <= stage.workers; w++) {
+                    threads.add(newThread("reposettings-" + stage.name + "-" + w, () -> work(index)));
+                }
+            }
+            threads.forEach(Thread::start);
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                cancel(e);
+                Thread.currentThread().interrupt();
+            }
+            rethrow(failure.get());
+        }
+
+        private Thread newThread(String name, Runnable task) {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private void emit() {
+            try {
+                for (Object item : source) {
+                    queues.get(0).put(item);
+                }
+                end(0);
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+        }
+
+        // notifies all workers of the given stage that no more item will come
+        private void end(int stage) throws InterruptedException {
+            for (int i = 0; i < stages.get(stage).workers; i++) {
+                queues.get(stage).put(END);
+            }
+        }
+
+        private void work(int index) {
+            StageDefinition stage = stages.get(index);
+            BlockingQueue<Object> input = queues.get(index);
+            BlockingQueue<Object> output = index + 1 < stages.size() ? queues.get(index + 1) : null;
+            try {
+                Object item;
+                while ((item = input.take()) != END) {
+                    Object result = stage.function.apply(item);
+                    if (result != null && output != null) {
+                        output.put(result);
+                    }
+                }
+                if (running.get(index).decrementAndGet() == 0 && output != null) {
+                    end(index + 1);
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+            } catch (Exception | Error e) {
+                cancel(e);
+            }
+        }
+
+        private void cancel(Throwable cause) {
+            if (failure.compareAndSet(null, cause)) {
+                threads.forEach(Thread::interrupt);
+            }
+        }
+
+        private void rethrow(Throwable cause) throws IOException {
+            if (cause == null) {
+                return;
+            } else if (cause instanceof InterruptedException) {
+                throw new IOException("Interrupted while processing repositories", cause);
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
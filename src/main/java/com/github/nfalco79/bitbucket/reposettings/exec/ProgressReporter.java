@@ -0,0 +1,292 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.InterceptingBitbucketService;
+
+/**
+ * Periodically reports the progress of a run: repositories done, throughput,
+ * request rate, throttled requests and the estimated time to complete.
+ * <p>
+ * Workers only increment counters, the figures are computed and printed by a
+ * background thread and optionally written to a status file.
+ */
+public class ProgressReporter implements Closeable {
+
+    /**
+     * The figures of the run at a given time.
+     */
+    public static class Progress {
+        private final int done;
+        private final int total;
+        private final long elapsed;
+        private final double repositoriesPerMinute;
+        private final double requestsPerSecond;
+        private final double throttledRate;
+        private final long eta;
+        private final Map<String, Integer> gauges;
+
+        Progress(int done, int total, long elapsed, double requestsPerSecond, double throttledRate, Map<String, Integer> gauges) {
+            this.done = done;
+            this.total = total;
+            this.elapsed = elapsed;
+            this.repositoriesPerMinute = elapsed > 0 ? done * 60000d / elapsed : 0;
+            this.requestsPerSecond = requestsPerSecond;
+            this.throttledRate = throttledRate;
+            this.eta = done > 0 ? (total - done) * elapsed / done : -1;
+            this.gauges = gauges;
+        }
+
+        public int getDone() {
+            return done;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public double getRepositoriesPerMinute() {
+            return repositoriesPerMinute;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        /**
+         * Returns the ratio of requests answered with HTTP 429 since the
+         * previous report.
+         *
+         * @return a value between 0 and 1
+         */
+        public double getThrottledRate() {
+            return throttledRate;
+        }
+
+        /**
+         * Returns the estimated milliseconds to complete the run.
+         *
+         * @return the remaining time, -1 when unknown
+         */
+        public long getEta() {
+            return eta;
+        }
+
+        /**
+         * Returns the values of the registered gauges.
+         *
+         * @return the gauge values by name
+         */
+        public Map<String, Integer> getGauges() {
+            return gauges;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%d/%d repositories, %.1f repos/min, %.1f req/s, 429 rate %.1f%%, ETA %s", //
+                    done, total, repositoriesPerMinute, requestsPerSecond, throttledRate * 100, eta >= 0 ? formatTime(eta) : "unknown"));
+            gauges.forEach((name, value) -> sb.append(", ").append(name).append(' ').append(value));
+            return sb.toString();
+        }
+
+        private static String formatTime(long millis) {
+            long seconds = millis / 1000;
+            return String.format(Locale.ROOT, "%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+    }
+
+    private final long interval;
+    private final Path statusFile;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final AtomicInteger done = new AtomicInteger();
+    private final Map<String, IntSupplier> gauges = new ConcurrentSkipListMap<>();
+    private volatile int total;
+    private volatile long start;
+    private ScheduledExecutorService timer;
+
+    // state of the previous report
+    private long lastTime;
+    private long lastRequests;
+    private long lastThrottled;
+
+    /**
+     * Creates a reporter.
+     *
+     * @param interval milliseconds between two reports
+     * @param statusFile the file where write the figures at each report, if
+     *        {@code null} figures are only logged
+     */
+    public ProgressReporter(long interval, Path statusFile) {
+        this.interval = interval;
+        this.statusFile = statusFile;
+    }
+
+    /**
+     * Returns a service that counts the requests and the throttled ones.
+     *
+     * @param service the service to meter
+     * @return the metered service
+     */
+    public BitbucketService meter(BitbucketService service) {
+        return new InterceptingBitbucketService(service) {
+            @Override
+            protected <T> T intercept(String endpoint, String repository, boolean write, Call<T> call) throws ClientException {
+                requests.increment();
+                try {
+                    return call.call();
+                } catch (ClientException e) {
+                    if (ClientErrors.isThrottled(e)) {
+                        throttled.increment();
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a value to report, like a current limit.
+     *
+     * @param name the gauge name
+     * @param gauge supplies the current value
+     */
+    public void addGauge(String name, IntSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Starts to report periodically.
+     *
+     * @param total the number of repositories of the run
+     */
+    public synchronized void start(int total) {
+        this.total = total;
+        this.start = System.currentTimeMillis();
+        done.set(0);
+        lastTime = start;
+        lastRequests = requests.sum();
+        lastThrottled = throttled.sum();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "reposettings-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the completion of a repository.
+     */
+    public void repositoryDone() {
+        done.incrementAndGet();
+    }
+
+    /**
+     * Computes the figures since the previous call.
+     *
+     * @param now the current time in milliseconds
+     * @return the current progress
+     */
+    synchronized Progress progress(long now) {
+        long requestCount = requests.sum();
+        long throttledCount = throttled.sum();
+        long deltaRequests = requestCount - lastRequests;
+        long deltaTime = now - lastTime;
+
+        Map<String, Integer> values = new LinkedHashMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsInt()));
+
+        Progress progress = new Progress(done.get(), total, now - start, //
+                deltaTime > 0 ? deltaRequests * 1000d / deltaTime : 0, //
+                deltaRequests > 0 ? (double) (throttledCount - lastThrottled) / deltaRequests : 0, //
+                values);
+
+        lastTime = now;
+        lastRequests = requestCount;
+        lastThrottled = throttledCount;
+        return progress;
+    }
+
+    private void report() {
+        Progress progress = progress(System.currentTimeMillis());
+        Logger.getLogger("app").log(Level.INFO, "Progress {0}", progress);
+        if (statusFile != null) {
+            try {
+                writeStatus(progress);
+            } catch (IOException e) {
+                Logger.getLogger("app").log(Level.WARNING, "Failed to write status file " + statusFile, e);
+            }
+        }
+    }
+
+    private void writeStatus(Progress progress) throws IOException {
+        Properties status = new Properties();
+        status.setProperty("done", String.valueOf(progress.getDone()));
+        status.setProperty("total", String.valueOf(progress.getTotal()));
+        status.setProperty("elapsed", String.valueOf(progress.getElapsed()));
+        status.setProperty("repositoriesPerMinute", String.format(Locale.ROOT, "%.2f", progress.getRepositoriesPerMinute()));
+        status.setProperty("requestsPerSecond", String.format(Locale.ROOT, "%.2f", progress.getRequestsPerSecond()));
+        status.setProperty("throttledRate", String.format(Locale.ROOT, "%.4f", progress.getThrottledRate()));
+        status.setProperty("eta", String.valueOf(progress.getEta()));
+        progress.getGauges().forEach((name, value) -> status.setProperty(name.replace(' ', '.'), String.valueOf(value)));
+
+        // readers never see a partial file
+        Path tmp = statusFile.resolveSibling(statusFile.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            status.store(os, "reposettings progress");
+        }
+        Files.move(tmp, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stops the periodic report and reports the final figures.
+     */
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+            report();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads permits evenly over time, at most the configured number of permits
+ * per second are granted.
+ */
+public class RateLimiter {
+
+    private final long interval;
+    private long next;
+
+    /**
+     * RateLimiter constructor.
+     *
+     * @param permitsPerSecond the max rate, must be positive
+     */
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+        }
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.next = Long.MIN_VALUE;
+    }
+
+    /**
+     * Waits until a permit is available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve(System.nanoTime());
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Reserves the next permit.
+     *
+     * @param now the current time in nanoseconds
+     * @return the nanoseconds to wait before use the permit
+     */
+    synchronized long reserve(long now) {
+        // an idle limiter does not accumulate permits
+        long slot = Math.max(next, now);
+        next = slot + interval;
+        return slot - now;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+/**
+ * Receives the boundaries of the reconciliation of each repository and of
+ * its phases.
+ */
+public interface ReconcileTracer {
+
+    /**
+     * A traced interval, closed when the repository or phase completes.
+     */
+    interface Span extends AutoCloseable {
+
+        Span NONE = new Span() {
+            @Override
+            public void outcome(String outcome) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        /**
+         * Sets how the traced interval ended.
+         *
+         * @param outcome a short description of the result
+         */
+        void outcome(String outcome);
+
+        @Override
+        void close();
+    }
+
+    ReconcileTracer NONE = new ReconcileTracer() {
+        @Override
+        public Span repository(String repository) {
+            return Span.NONE;
+        }
+
+        @Override
+        public Span phase(String repository, String phase) {
+            return Span.NONE;
+        }
+    };
+
+    /**
+     * Starts the reconciliation of a repository.
+     *
+     * @param repository the repository slug
+     * @return the span to close when the repository is done
+     */
+    Span repository(String repository);
+
+    /**
+     * Starts a phase of the reconciliation of a repository.
+     *
+     * @param repository the repository slug
+     * @param phase the phase name
+     * @return the span to close when the phase is done
+     */
+    Span phase(String repository, String phase);
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Orders repositories starting from the most expensive ones (longest job
+ * first), so that a big repository does not remain alone at the end of the
+ * run.
+ */
+public class RepositoryScheduler {
+
+    private final CostEstimator estimator;
+
+    /**
+     * RepositoryScheduler constructor.
+     *
+     * @param estimator the estimator of the cost of each repository
+     */
+    public RepositoryScheduler(CostEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Sorts the repositories from the most to the less expensive.
+     *
+     * @param repositories the repositories to sort
+     * @return the sorted list of repositories
+     */
+    public List<String> order(Collection<String> repositories) {
+        Map<String, Long> costs = new HashMap<>();
+        for (String repository : repositories) {
+            costs.put(repository, estimator.estimate(repository));
+        }
+
+        List<String> ordered = new ArrayList<>(repositories);
+        ordered.sort(Comparator.comparing((String repo) -> costs.get(repo)).reversed() //
+                .thenComparing(Comparator.naturalOrder()));
+        return ordered;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.reposettings.log.RepositoryLogger;
+
+/**
+ * Collects the write operations that failed with a transient error to retry
+ * them later, at the end of the run, instead of discard them.
+ * <p>
+ * Every drain round waits an exponential backoff before retry all pending
+ * operations. Operations that fail with a not transient error or that still
+ * fail after the max number of attempts are reported as permanent failures.
+ */
+public class RetryQueue {
+
+    /**
+     * A deferred operation for a repository.
+     */
+    public static class Operation {
+        private final String repository;
+        private final String description;
+        private final ClientOperation operation;
+        private ClientException lastError;
+        private int attempts;
+
+        private Operation(String repository, String description, ClientOperation operation, ClientException error) {
+            this.repository = repository;
+            this.description = description;
+            this.operation = operation;
+            this.lastError = error;
+            this.attempts = 1;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public ClientException getLastError() {
+            return lastError;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            return repository + ": " + description;
+        }
+    }
+
+    private final Queue<Operation> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Operation> failed = new ConcurrentLinkedQueue<>();
+    private final int maxAttempts;
+    private final long backoff;
+
+    /**
+     * RetryQueue constructor.
+     *
+     * @param maxAttempts the max number of attempts for each operation,
+     *        including the first one
+     * @param backoff the milliseconds to wait before the first retry, it
+     *        doubles at each round
+     */
+    public RetryQueue(int maxAttempts, long backoff) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoff = Math.max(0, backoff);
+    }
+
+    /**
+     * Executes the given operation, if fails it will be deferred or reported
+     * as failure depending on the error.
+     *
+     * @param repository the repository slug the operation belongs to
+     * @param description a human readable description of the operation
+     * @param operation the operation to perform
+     * @return {@code true} if the operation succeed at first attempt
+     */
+    public boolean submit(String repository, String description, ClientOperation operation) {
+        try {
+            operation.run();
+            return true;
+        } catch (ClientException e) {
+            add(repository, description, operation, e);
+            return false;
+        }
+    }
+
+    /**
+     * Collects a failed operation.
+     *
+     * @param repository the repository slug the operation belongs to
+     * @param description a human readable description of the operation
+     * @param operation the operation to retry
+     * @param error the error of the first attempt
+     */
+    public void add(String repository, String description, ClientOperation operation, ClientException error) {
+        Operation op = new Operation(repository, description, operation, error);
+        if (ClientErrors.isTransient(error) && maxAttempts > 1) {
+            RepositoryLogger.get(repository).log(Level.WARNING, "Deferred {0} for repository {1}: {2}", new Object[] { description, repository, error.getMessage() });
+            pending.add(op);
+        } else {
+            failed.add(op);
+        }
+    }
+
+    /**
+     * Returns if there are operations waiting to be retried.
+     *
+     * @return {@code true} if no operation are pending
+     */
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Retries all pending operations until they succeed or the max number of
+     * attempts is reached.
+     *
+     * @return the list of operations that are failed permanently
+     * @throws InterruptedException if interrupted while waiting the backoff
+     */
+    public List<Operation> drain() throws InterruptedException {
+        long delay = backoff;
+        while (!pending.isEmpty()) {
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            delay *= 2;
+
+            List<Operation> round = new LinkedList<>();
+            Operation op;
+            while ((op = pending.poll()) != null) {
+                round.add(op);
+            }
+
+            for (Operation retry : round) {
+                retry.attempts++;
+                try {
+                    retry.operation.run();
+                    RepositoryLogger.get(retry.repository).log(Level.INFO, "Retry of {0} for repository {1} succeed", new Object[] { retry.description, retry.repository });
+                } catch (ClientException e) {
+                    retry.lastError = e;
+                    if (ClientErrors.isTransient(e) && retry.attempts < maxAttempts) {
+                        pending.add(retry);
+                    } else {
+                        failed.add(retry);
+                    }
+                }
+            }
+        }
+        return getFailures();
+    }
+
+    /**
+     * Returns the operations failed permanently until now.
+     *
+     * @return an unmodifiable list of failed operations
+     */
+    public List<Operation> getFailures() {
+        return Collections.unmodifiableList(new ArrayList<>(failed));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.InterceptingBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.util.SelectorUtils;
+
+/**
+ * Applies the changes of a run in batches of repositories, canaries first,
+ * with a pause between two batches.
+ * <p>
+ * After each batch the ratio of failed write requests and the ratio of
+ * requests throttled with HTTP 429 are compared with their thresholds, the
+ * rollout halts when one of them is exceeded so the remaining repositories are
+ * not touched.
+ */
+public class Rollout {
+
+    private final int batchSize;
+    private final long pause;
+    private final double maxErrorRate;
+    private final double maxThrottledRate;
+    private final String[] canaries;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+
+    /**
+     * Rollout constructor.
+     *
+     * @param batchSize the repositories of each batch, zero or less to run
+     *        all repositories after the canaries in one batch
+     * @param pause the milliseconds to wait between two batches
+     * @param maxErrorRate the highest ratio of failed writes of a batch
+     * @param maxThrottledRate the highest ratio of throttled requests of a
+     *        batch
+     * @param canaries the patterns of the repositories processed in the first
+     *        batch, a pattern with a workspace like {@code ws/repo*} matches
+     *        the name qualified by the workspace, any other the slug
+     */
+    public Rollout(int batchSize, long pause, double maxErrorRate, double maxThrottledRate, List<String> canaries) {
+        this.batchSize = batchSize;
+        this.pause = pause;
+        this.maxErrorRate = maxErrorRate;
+        this.maxThrottledRate = maxThrottledRate;
+        this.canaries = canaries.toArray(new String[0]);
+    }
+
+    /**
+     * Returns a service that counts the requests of the current batch.
+     *
+     * @param service the service to meter
+     * @return the metered service
+     */
+    public BitbucketService meter(BitbucketService service) {
+        return new InterceptingBitbucketService(service) {
+            @Override
+            protected <T> T intercept(String endpoint, String repository, boolean write, Call<T> call) throws ClientException {
+                requests.increment();
+                if (write) {
+                    writes.increment();
+                }
+                try {
+                    return call.call();
+                } catch (ClientException e) {
+                    if (ClientErrors.isThrottled(e)) {
+                        throttled.increment();
+                    }
+                    if (write) {
+                        failedWrites.increment();
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Splits the repositories in batches, keeping their order. The
+     * repositories that match a canary pattern form the first batch.
+     *
+     * @param repositories the repositories of the run, qualified as
+     *        {@code workspace/slug} when the run spans more workspaces
+     * @return the batches to process in turn
+     */
+    public List<List<String>> batches(List<String> repositories) {
+        List<String> canaryBatch = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        for (String repository : repositories) {
+            if (isCanary(repository)) {
+                canaryBatch.add(repository);
+            } else {
+                others.add(repository);
+            }
+        }
+
+        List<List<String>> batches = new ArrayList<>();
+        if (!canaryBatch.isEmpty()) {
+            batches.add(canaryBatch);
+        }
+        int size = batchSize > 0 ? batchSize : Math.max(1, others.size());
+        for (int from = 0; from < others.size(); from += size) {
+            batches.add(others.subList(from, Math.min(others.size(), from + size)));
+        }
+        return batches.isEmpty() ? Collections.singletonList(Collections.emptyList()) : batches;
+    }
+
+    private boolean isCanary(String repository) {
+        String slug = repository.substring(repository.lastIndexOf('/') + 1);
+        boolean canary = false;
+        for (String pattern : canaries) {
+            boolean matches = SelectorUtils.match(pattern, pattern.indexOf('/') != -1 ? repository : slug);
+            // same semantic of SelectorUtils.match(String[], String)
+            canary = pattern.startsWith("!") ? canary && matches : canary || matches;
+        }
+        return canary;
+    }
+
+    /**
+     * Starts counting the requests of a new batch.
+     */
+    public void startBatch() {
+        requests.reset();
+        throttled.reset();
+        writes.reset();
+        failedWrites.reset();
+    }
+
+    /**
+     * Ends the current batch and decides if the rollout can go on.
+     *
+     * @param batch the batch number, starting from 1
+     * @param total the number of batches
+     * @return the reason to halt, {@code null} if the next batch can start
+     */
+    public String endBatch(int batch, int total) {
+        double errorRate = rate(failedWrites.sum(), writes.sum());
+        double throttledRate = rate(throttled.sum(), requests.sum());
+        Logger.getLogger("app").log(Level.INFO, "Rollout batch {0}/{1} done: {2} failed writes, {3} throttled requests", new Object[] { //
+                batch, total, percent(errorRate), percent(throttledRate) });
+
+        if (errorRate > maxErrorRate) {
+            return "failed writes of batch " + batch + " are " + percent(errorRate) + ", more than " + percent(maxErrorRate);
+        }
+        if (throttledRate > maxThrottledRate) {
+            return "throttled requests of batch " + batch + " are " + percent(throttledRate) + ", more than " + percent(maxThrottledRate);
+        }
+        return null;
+    }
+
+    /**
+     * Waits the pause between two batches, without outlast the given deadline.
+     *
+     * @param deadline the deadline of the run
+     * @throws IOException if interrupted while waiting
+     */
+    public void pause(Deadline deadline) throws IOException {
+        long millis = Math.min(pause, TimeUnit.NANOSECONDS.toMillis(deadline.remaining()));
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while pausing the rollout", e);
+            }
+        }
+    }
+
+    private static double rate(long count, long total) {
+        return total > 0 ? (double) count / total : 0;
+    }
+
+    private static String percent(double rate) {
+        return String.format(Locale.ROOT, "%.1f%%", rate * 100);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+
+/**
+ * Coalesces concurrent loads of the same key, the first caller performs the
+ * request while the others wait and share its result or failure.
+ * <p>
+ * A load cancelled in the leader, for example because its own deadline
+ * expired, is not shared: waiters load the key again under their deadline.
+ * Waiters give up when their own deadline expires or they are interrupted.
+ * <p>
+ * Results are not kept once the load completes, callers cache them where
+ * needed.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Loads the value of a key.
+     *
+     * @param <V> the value type
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws ClientException;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the value of the given key, loading it unless a load of the same
+     * key is already in progress.
+     *
+     * @param key the key to load
+     * @param loader performs the load
+     * @return the loaded value
+     * @throws ClientException if the load fails
+     * @throws DeadlineExceededException if the deadline of the caller
+     *         expires while it waits another load
+     */
+    public V get(K key, Loader<V> loader) throws ClientException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> leader;
+        while ((leader = inFlight.putIfAbsent(key, flight)) != null) {
+            try {
+                return await(leader);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ClientException) {
+                    throw (ClientException) cause;
+                } else if (cause instanceof CancellationException) {
+                    // the cancellation belongs to the leader, retry on our own
+                    Deadline.current().check();
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw (Error) cause;
+                }
+            }
+        }
+
+        try {
+            V value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (ClientException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /*
+     * Waits the leader no longer than the deadline of the caller, any failure
+     * of the leader, cancellation included, is an ExecutionException.
+     */
+    private V await(CompletableFuture<V> flight) throws ExecutionException {
+        Deadline deadline = Deadline.current();
+        try {
+            return flight.get(deadline.remaining(), TimeUnit.NANOSECONDS);
+        } catch (CancellationException e) {
+            // get throws the cancellation of the leader as is
+            throw new ExecutionException(e);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(deadline + " expired waiting a shared load");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting a shared load");
+        }
+    }
+
+    /**
+     * Returns if a load of the given key is in progress.
+     *
+     * @param key the key
+     * @return {@code true} if a caller is loading the key
+     */
+    public boolean isLoading(K key) {
+        return inFlight.containsKey(key);
+    }
+}
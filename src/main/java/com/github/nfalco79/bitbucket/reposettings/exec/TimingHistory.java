@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+/**
+ * Keeps the time spent to reconcile each repository in the previous runs.
+ * <p>
+ * The history is stored as a properties file where the key is the repository
+ * as {@code workspace/slug} and the value the elapsed milliseconds.
+ */
+public class TimingHistory {
+
+    private static final long DEFAULT_UNIT_COST = 1000;
+
+    private final Properties timings = new Properties();
+
+    /**
+     * Reads the history from the given file, if the file does not exists the
+     * history will be empty.
+     *
+     * @param file the history file
+     * @return the timing history
+     * @throws IOException if fails to read the file
+     */
+    public static TimingHistory load(Path file) throws IOException {
+        TimingHistory history = new TimingHistory();
+        if (file != null && Files.isRegularFile(file)) {
+            try (InputStream is = Files.newInputStream(file)) {
+                history.timings.load(is);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Writes the history to the given file.
+     *
+     * @param file the history file
+     * @throws IOException if fails to write the file
+     */
+    public void store(Path file) throws IOException {
+        try (OutputStream os = Files.newOutputStream(file)) {
+            timings.store(os, "Elapsed milliseconds to reconcile a repository");
+        }
+    }
+
+    /**
+     * Returns the time spent in the last run for the given repository.
+     *
+     * @param repository the repository slug
+     * @return the elapsed milliseconds, {@code null} if unknown
+     */
+    public Long get(String repository) {
+        String value = timings.getProperty(repository);
+        try {
+            return value != null ? Long.valueOf(value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public void put(String repository, long elapsed) {
+        timings.setProperty(repository, String.valueOf(elapsed));
+    }
+
+    public void putAll(Map<String, Long> elapsed) {
+        for (Entry<String, Long> entry : elapsed.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns an estimator that use the historical timings when available,
+     * else the given fallback scaled to milliseconds using the average cost
+     * per unit of the given repositories already in history.
+     *
+     * @param repositories the repositories to estimate, timings of other
+     *        repositories are not used to calibrate the fallback
+     * @param fallback the estimator used for repositories not yet in history
+     * @return a cost estimator expressed in milliseconds
+     */
+    public CostEstimator withFallback(Collection<String> repositories, CostEstimator fallback) {
+        long totalTime = 0;
+        long totalUnits = 0;
+        for (String repository : repositories) {
+            Long elapsed = get(repository);
+            if (elapsed != null) {
+                totalTime += elapsed;
+                totalUnits += Math.max(1, fallback.estimate(repository));
+            }
+        }
+        long unitCost = totalUnits > 0 ? Math.max(1, totalTime / totalUnits) : DEFAULT_UNIT_COST;
+
+        return repository -> {
+            Long elapsed = get(repository);
+            return elapsed != null ? elapsed : fallback.estimate(repository) * unitCost;
+        };
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.util.SelectorUtils;
+
+/**
+ * Read only view of a permission index written by
+ * {@link PermissionIndexWriter}.
+ * <p>
+ * The file is memory mapped and records are read on demand, so a query only
+ * touches the pages of the involved principal and repositories.
+ */
+public class PermissionIndex implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final StringTable repositories;
+    private final StringTable principals;
+    private final StringTable patterns;
+    private final RecordTable permissions;
+    private final RecordTable restrictions;
+    private final RecordTable pushPatterns;
+
+    /**
+     * Opens the index file.
+     *
+     * @param file the index file
+     * @throws IOException if the file could not be read or is not a valid
+     *         index
+     */
+    public PermissionIndex(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            buffer = mapped;
+            if (buffer.getInt(0) != PermissionIndexWriter.MAGIC || buffer.getInt(4) != PermissionIndexWriter.VERSION) {
+                throw new IOException("File " + file + " is not a permission index or was written by a different version");
+            }
+            repositories = new StringTable(8);
+            principals = new StringTable(repositories.end);
+            patterns = new StringTable(principals.end);
+            permissions = new RecordTable(patterns.end, 5);
+            restrictions = new RecordTable(permissions.end, 9);
+            pushPatterns = new RecordTable(restrictions.end, 9);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the repositories where the principal has at least the given
+     * privilege.
+     *
+     * @param principal the principal key, see
+     *        {@link PermissionIndexWriter#groupKey(String)} and
+     *        {@link PermissionIndexWriter#userKey(String)}
+     * @param min the minimal privilege
+     * @return the list of repository slugs
+     */
+    public List<String> getRepositories(String principal, Permission min) {
+        List<String> result = new LinkedList<>();
+        int id = principals.indexOf(principal);
+        if (id < 0) {
+            return result;
+        }
+        for (int i = permissions.from(id); i < permissions.to(id); i++) {
+            int record = permissions.record(i);
+            if (buffer.get(record + 4) >= min.ordinal()) {
+                result.add(repositories.get(buffer.getInt(record)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the repositories where the principal could push to the given
+     * branch.
+     * <p>
+     * The principal must have write access and, if the branch matches any push
+     * restriction, it must be directly listed in the restriction. Membership
+     * of users in groups is not part of the index.
+     *
+     * @param principal the principal key
+     * @param branch the branch name
+     * @return the list of repository slugs
+     */
+    public List<String> getPushableRepositories(String principal, String branch) {
+        List<String> result = new LinkedList<>();
+        int id = principals.indexOf(principal);
+        if (id < 0) {
+            return result;
+        }
+
+        // branch patterns where the principal is listed in push restriction, by repository
+        Map<Integer, List<Integer>> allowed = new HashMap<>();
+        for (int i = restrictions.from(id); i < restrictions.to(id); i++) {
+            int record = restrictions.record(i);
+            if (buffer.get(record + 8) == PermissionIndexWriter.KIND_PUSH) {
+                allowed.computeIfAbsent(buffer.getInt(record), k -> new ArrayList<>()).add(buffer.getInt(record + 4));
+            }
+        }
+
+        for (int i = permissions.from(id); i < permissions.to(id); i++) {
+            int record = permissions.record(i);
+            if (buffer.get(record + 4) < Permission.WRITE.ordinal()) {
+                continue;
+            }
+            int repo = buffer.getInt(record);
+            List<Integer> allowedPatterns = allowed.get(repo);
+            boolean restricted = false;
+            boolean listed = false;
+            for (int j = pushPatterns.from(repo); j < pushPatterns.to(repo); j++) {
+                int pattern = buffer.getInt(pushPatterns.record(j) + 4);
+                if (SelectorUtils.match(patterns.get(pattern), branch)) {
+                    restricted = true;
+                    listed |= allowedPatterns != null && allowedPatterns.contains(pattern);
+                }
+            }
+            if (!restricted || listed) {
+                result.add(repositories.get(repo));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of repositories in the index.
+     *
+     * @return the repositories count
+     */
+    public int size() {
+        return repositories.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /*
+     * Sorted strings: count, count + 1 offsets and UTF-8 bytes.
+     */
+    private class StringTable {
+        private final int count;
+        private final int offsets;
+        private final int data;
+        private final int end;
+
+        StringTable(int position) {
+            count = buffer.getInt(position);
+            offsets = position + 4;
+            data = offsets + 4 * (count + 1);
+            end = data + buffer.getInt(offsets + 4 * count);
+        }
+
+        String get(int index) {
+            int start = buffer.getInt(offsets + 4 * index);
+            byte[] value = new byte[buffer.getInt(offsets + 4 * (index + 1)) - start];
+            for (int i = 0; i < value.length; i++) {
+                value[i] = buffer.get(data + start + i);
+            }
+            return new String(value, StandardCharsets.UTF_8);
+        }
+
+        int indexOf(String value) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = get(mid).compareTo(value);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /*
+     * Fixed size records grouped in buckets: buckets count, records count,
+     * buckets + 1 offsets and the records.
+     */
+    private class RecordTable {
+        private final int buckets;
+        private final int offsets;
+        private final int records;
+        private final int recordSize;
+        private final int end;
+
+        RecordTable(int position, int recordSize) {
+            this.recordSize = recordSize;
+            buckets = buffer.getInt(position);
+            int total = buffer.getInt(position + 4);
+            offsets = position + 8;
+            records = offsets + 4 * (buckets + 1);
+            end = records + total * recordSize;
+        }
+
+        int from(int bucket) {
+            return bucket < buckets ? buffer.getInt(offsets + 4 * bucket) : 0;
+        }
+
+        int to(int bucket) {
+            return bucket < buckets ? buffer.getInt(offsets + 4 * (bucket + 1)) : 0;
+        }
+
+        int record(int index) {
+            return records + index * recordSize;
+        }
+    }
+}
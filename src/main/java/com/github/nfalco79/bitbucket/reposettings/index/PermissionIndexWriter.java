@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.UserPermission;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.RepositorySnapshot;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.WorkspaceSnapshot;
+
+/**
+ * Writes the permission index of a workspace snapshot.
+ * <p>
+ * The file layout is:
+ * <ul>
+ * <li>header: magic number and version</li>
+ * <li>three sorted string tables: repositories, principals and branch
+ * patterns</li>
+ * <li>permissions: repository and privilege records grouped by
+ * principal</li>
+ * <li>restrictions: repository, branch pattern and kind records grouped by
+ * principal</li>
+ * <li>push patterns: branch patterns with a push restriction grouped by
+ * repository</li>
+ * </ul>
+ * Each group of records is preceded by a table of offsets, so that the records
+ * of a principal or repository are found without scan the file.
+ */
+public class PermissionIndexWriter {
+
+    /*package*/ static final int MAGIC = 0x52535049; // RSPI
+    /*package*/ static final int VERSION = 1;
+    /*package*/ static final byte KIND_PUSH = 1;
+    /*package*/ static final byte KIND_MERGE = 2;
+
+    private static final String PUSH = "push";
+    private static final String MERGE = "restrict_merges";
+
+    private static class Record {
+        private final int repository;
+        private final int value;
+        private final byte kind;
+
+        Record(int repository, int value, byte kind) {
+            this.repository = repository;
+            this.value = value;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Returns the principal key of a group.
+     *
+     * @param groupSlug the group slug
+     * @return the key used in the index
+     */
+    public static String groupKey(String groupSlug) {
+        return "g:" + groupSlug;
+    }
+
+    /**
+     * Returns the principal key of a user.
+     *
+     * @param username the username, or the UUID if username is unknown
+     * @return the key used in the index
+     */
+    public static String userKey(String username) {
+        return "u:" + username;
+    }
+
+    /**
+     * Writes the index of the given snapshot.
+     *
+     * @param snapshot the workspace snapshot
+     * @param file the index file
+     * @throws IOException if fails to write the file
+     */
+    public void write(WorkspaceSnapshot snapshot, Path file) throws IOException {
+        Map<String, String> usernames = new HashMap<>();
+        for (Entry<String, UserInfo> user : snapshot.getUsers().entrySet()) {
+            usernames.put(user.getValue().getUUID(), user.getKey());
+        }
+
+        TreeSet<String> repositories = new TreeSet<>();
+        TreeSet<String> principals = new TreeSet<>();
+        TreeSet<String> patterns = new TreeSet<>();
+        for (RepositorySnapshot repository : snapshot.getRepositories()) {
+            repositories.add(repository.getRepository().getSlug());
+            repository.getGroupsPermissions().keySet().forEach(group -> principals.add(groupKey(group)));
+            repository.getUsersPermissions().keySet().forEach(user -> principals.add(userKey(user)));
+            for (BranchRestriction restriction : repository.getBranchRestrictions()) {
+                patterns.add(restriction.getPattern());
+                for (GroupInfo group : restriction.getGroups()) {
+                    principals.add(groupKey(group.getSlug()));
+                }
+                for (UserInfo user : restriction.getUsers()) {
+                    principals.add(userKey(usernames.getOrDefault(user.getUUID(), user.getUUID())));
+                }
+            }
+        }
+
+        Map<String, Integer> repoIds = ids(repositories);
+        Map<String, Integer> principalIds = ids(principals);
+        Map<String, Integer> patternIds = ids(patterns);
+
+        List<List<Record>> permissions = buckets(principals.size());
+        List<List<Record>> restrictions = buckets(principals.size());
+        List<List<Record>> pushPatterns = buckets(repositories.size());
+        for (RepositorySnapshot repository : snapshot.getRepositories()) {
+            int repo = repoIds.get(repository.getRepository().getSlug());
+            for (Entry<String, Permission> entry : repository.getGroupsPermissions().entrySet()) {
+                permissions.get(principalIds.get(groupKey(entry.getKey()))).add(new Record(repo, 0, (byte) entry.getValue().ordinal()));
+            }
+            for (Entry<String, UserPermission> entry : repository.getUsersPermissions().entrySet()) {
+                Permission permission = entry.getValue().getPermission();
+                if (permission != null) {
+                    permissions.get(principalIds.get(userKey(entry.getKey()))).add(new Record(repo, 0, (byte) permission.ordinal()));
+                }
+            }
+            for (BranchRestriction restriction : repository.getBranchRestrictions()) {
+                byte kind;
+                if (PUSH.equals(restriction.getKind())) {
+                    kind = KIND_PUSH;
+                } else if (MERGE.equals(restriction.getKind())) {
+                    kind = KIND_MERGE;
+                } else {
+                    continue;
+                }
+                int pattern = patternIds.get(restriction.getPattern());
+                if (kind == KIND_PUSH) {
+                    pushPatterns.get(repo).add(new Record(repo, pattern, kind));
+                }
+                for (GroupInfo group : restriction.getGroups()) {
+                    restrictions.get(principalIds.get(groupKey(group.getSlug()))).add(new Record(repo, pattern, kind));
+                }
+                for (UserInfo user : restriction.getUsers()) {
+                    String username = usernames.getOrDefault(user.getUUID(), user.getUUID());
+                    restrictions.get(principalIds.get(userKey(username))).add(new Record(repo, pattern, kind));
+                }
+            }
+        }
+
+        try (OutputStream os = Files.newOutputStream(file); //
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeStrings(out, repositories);
+            writeStrings(out, principals);
+            writeStrings(out, patterns);
+            writeRecords(out, permissions, false);
+            writeRecords(out, restrictions, true);
+            writeRecords(out, pushPatterns, true);
+        }
+    }
+
+    private static Map<String, Integer> ids(Collection<String> sorted) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (String value : sorted) {
+            ids.put(value, ids.size());
+        }
+        return ids;
+    }
+
+    private static List<List<Record>> buckets(int size) {
+        List<List<Record>> buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        return buckets;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(values.size());
+        for (String value : values) {
+            encoded.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        out.writeInt(encoded.size());
+        int offset = 0;
+        for (byte[] value : encoded) {
+            out.writeInt(offset);
+            offset += value.length;
+        }
+        out.writeInt(offset);
+        for (byte[] value : encoded) {
+            out.write(value);
+        }
+    }
+
+    /*
+     * Writes an offset table with the first record of each bucket followed by
+     * the records sorted by repository.
+     */
+    private static void writeRecords(DataOutputStream out, List<List<Record>> buckets, boolean withValue) throws IOException {
+        int total = buckets.stream().mapToInt(List::size).sum();
+        out.writeInt(buckets.size());
+        out.writeInt(total);
+        int offset = 0;
+        for (List<Record> bucket : buckets) {
+            out.writeInt(offset);
+            offset += bucket.size();
+        }
+        out.writeInt(offset);
+        for (List<Record> bucket : buckets) {
+            bucket.sort(Comparator.comparingInt((Record r) -> r.repository).thenComparingInt(r -> r.value));
+            for (Record record : bucket) {
+                out.writeInt(record.repository);
+                if (withValue) {
+                    out.writeInt(record.value);
+                }
+                out.writeByte(record.kind);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("reposettings.ClientRequest")
+@Label("Bitbucket Request")
+@Description("A call to the Bitbucket REST API, its size is the number of items returned because the client does not expose the bytes read, "
+        + "the socket events of the recording carry them")
+@Category({ "Bitbucket", "Client" })
+class ClientRequestEvent extends jdk.jfr.Event {
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Status")
+    @Description("The HTTP status code of a failed call, 0 when the server is not reached or the call succeeded, "
+            + "the client does not expose the status of a successful call")
+    int status;
+
+    @Label("Items")
+    @Description("The number of elements returned by the call")
+    int items;
+}
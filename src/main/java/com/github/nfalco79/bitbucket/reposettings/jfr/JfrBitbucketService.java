@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.jfr;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.InterceptingBitbucketService;
+
+/**
+ * Emits a {@link ClientRequestEvent} for each call to the delegate service.
+ */
+class JfrBitbucketService extends InterceptingBitbucketService {
+
+    JfrBitbucketService(BitbucketService delegate) {
+        super(delegate);
+    }
+
+    @Override
+    protected <T> T intercept(String endpoint, String repository, boolean write, Call<T> call) throws ClientException {
+        ClientRequestEvent event = new ClientRequestEvent();
+        event.begin();
+        try {
+            T result = call.call();
+            event.succeeded = true;
+            if (result instanceof Collection) {
+                event.items = ((Collection<?>) result).size();
+            } else if (result instanceof Map) {
+                event.items = ((Map<?, ?>) result).size();
+            } else if (result != null) {
+                event.items = 1;
+            }
+            return result;
+        } catch (ClientException e) {
+            event.status = e.getStatusCode();
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.endpoint = endpoint;
+                event.repository = repository;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.jfr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import com.github.nfalco79.bitbucket.reposettings.exec.FlightRecorder;
+import com.github.nfalco79.bitbucket.reposettings.exec.ReconcileTracer;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Java Flight Recorder support.
+ * <p>
+ * Custom events are emitted for each repository, each reconciliation phase
+ * and each call to Bitbucket. The recording uses the JDK "profile" settings so
+ * allocation, lock and socket events (which carry the bytes read and written
+ * by each request thread) are available in JMC next to the custom ones.
+ * <p>
+ * Only the classes of this package depend on {@code jdk.jfr}, they are
+ * compiled for Java 11 and loaded through {@link FlightRecorder#load()} only
+ * when a recording is requested.
+ */
+public final class JfrTracing implements FlightRecorder {
+
+    private static final ReconcileTracer TRACER = new ReconcileTracer() {
+        @Override
+        public Span repository(String repository) {
+            RepositoryEvent event = new RepositoryEvent();
+            event.begin();
+            return new Span() {
+                @Override
+                public void outcome(String outcome) {
+                    event.outcome = outcome;
+                }
+
+                @Override
+                public void close() {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.repository = repository;
+                        event.commit();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public Span phase(String repository, String phase) {
+            PhaseEvent event = new PhaseEvent();
+            event.begin();
+            return new Span() {
+                @Override
+                public void outcome(String outcome) {
+                    event.outcome = outcome;
+                }
+
+                @Override
+                public void close() {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.repository = repository;
+                        event.phase = phase;
+                        event.commit();
+                    }
+                }
+            };
+        }
+    };
+
+    @Override
+    public ReconcileTracer tracer() {
+        return TRACER;
+    }
+
+    @Override
+    public BitbucketService record(BitbucketService service) {
+        return new JfrBitbucketService(service);
+    }
+
+    @Override
+    public Closeable startRecording(Path file) throws IOException {
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("profile"));
+        } catch (ParseException e) {
+            throw new IOException("Invalid JFR profile configuration", e);
+        }
+        recording.setName("reposettings");
+        recording.setToDisk(true);
+        recording.setDestination(file);
+        recording.start();
+        return () -> {
+            recording.stop();
+            recording.close();
+        };
+    }
+}
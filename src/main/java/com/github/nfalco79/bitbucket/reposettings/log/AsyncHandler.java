@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * Publishes records to a target handler on a background thread.
+ * <p>
+ * Records are buffered in a bounded queue, when the queue is full records
+ * below {@link Level#WARNING} are dropped (and counted) while the others wait
+ * for room, so a slow console never stalls the workers for informational
+ * messages.
+ * <p>
+ * {@link #flush()} returns once the records queued before the call are
+ * published. Records published after {@link #close()} are ignored, like any
+ * closed handler does.
+ * <p>
+ * Configuration properties in the logging configuration:
+ * <ul>
+ * <li>&lt;handler-name&gt;.capacity the queue size (default 8192)</li>
+ * <li>&lt;handler-name&gt;.target the class of the target handler (default
+ * {@link ConsoleHandler})</li>
+ * <li>&lt;handler-name&gt;.level the level of the handler (default
+ * {@link Level#ALL})</li>
+ * </ul>
+ */
+public class AsyncHandler extends Handler {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    // marks the end of the queue
+    private static final LogRecord CLOSE = new LogRecord(Level.OFF, null);
+
+    // marks the records to publish before a flush returns
+    private static class FlushRecord extends LogRecord {
+        private static final long serialVersionUID = 1L;
+
+        private final transient CountDownLatch flushed = new CountDownLatch(1);
+
+        FlushRecord() {
+            super(Level.OFF, null);
+        }
+    }
+
+    private final Handler target;
+    private final BlockingQueue<LogRecord> queue;
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+    // records are queued under the read lock, the end of the queue under the write lock
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+    /**
+     * Creates a handler configured from the {@link LogManager} properties.
+     */
+    public AsyncHandler() {
+        this(newTarget(property("target", ConsoleHandler.class.getName())), //
+                Integer.parseInt(property("capacity", String.valueOf(DEFAULT_CAPACITY))));
+        setLevel(Level.parse(property("level", Level.ALL.getName())));
+    }
+
+    public AsyncHandler(Handler target, int capacity) {
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::write, "reposettings-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static String property(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(AsyncHandler.class.getName() + "." + name);
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    private static Handler newTarget(String className) {
+        try {
+            return (Handler) ClassLoader.getSystemClassLoader().loadClass(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Invalid target handler " + className, e);
+        }
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (!queue.offer(record)) {
+                if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                queue.put(record);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    private void write() {
+        try {
+            LogRecord record;
+            while ((record = queue.take()) != CLOSE) {
+                try {
+                    if (record instanceof FlushRecord) {
+                        target.flush();
+                    } else {
+                        target.publish(record);
+                    }
+                } catch (RuntimeException e) {
+                    reportError(null, e, ErrorManager.WRITE_FAILURE);
+                } finally {
+                    if (record instanceof FlushRecord) {
+                        ((FlushRecord) record).flushed.countDown();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of records dropped because the queue was full.
+     *
+     * @return the number of dropped records
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void setFormatter(Formatter formatter) {
+        target.setFormatter(formatter);
+    }
+
+    @Override
+    public Formatter getFormatter() {
+        return target.getFormatter();
+    }
+
+    /**
+     * Waits until the records queued until now are published, then flushes
+     * the target handler.
+     */
+    @Override
+    public void flush() {
+        if (Thread.currentThread() == writer) {
+            target.flush();
+            return;
+        }
+        FlushRecord marker = new FlushRecord();
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                // close already published all records
+                return;
+            }
+            queue.put(marker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            closing.readLock().unlock();
+        }
+        try {
+            while (!marker.flushed.await(100, TimeUnit.MILLISECONDS) && writer.isAlive()) {
+                // the writer is still publishing the records before the marker
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Publishes all queued records and closes the target handler. Records
+     * published concurrently are either queued before the end of the queue
+     * or ignored.
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.put(CLOSE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped.get() > 0) {
+            target.publish(new LogRecord(Level.WARNING, dropped.get() + " log records dropped because the log queue was full"));
+        }
+        target.flush();
+        target.close();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.log;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Formats each record as a JSON object on a single line, with the
+ * repository as a field when the record is about a repository.
+ */
+public class JsonLinesFormatter extends Formatter {
+
+    private final JsonFactory factory = new JsonFactory();
+
+    @Override
+    public String format(LogRecord record) {
+        StringWriter out = new StringWriter(128);
+        try (JsonGenerator json = factory.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("time", Instant.ofEpochMilli(record.getMillis()).toString());
+            json.writeStringField("level", record.getLevel().getName());
+            if (record instanceof RepositoryLogRecord) {
+                json.writeStringField("repository", ((RepositoryLogRecord) record).getRepository());
+            } else {
+                json.writeStringField("logger", record.getLoggerName());
+            }
+            json.writeNumberField("thread", record.getThreadID());
+            json.writeStringField("message", formatMessage(record));
+            if (record.getThrown() != null) {
+                StringWriter stackTrace = new StringWriter();
+                record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+                json.writeStringField("thrown", stackTrace.toString());
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            // writing to a string never fails
+            throw new IllegalStateException(e);
+        }
+        return out.append(System.lineSeparator()).toString();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.log;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A log record about a repository.
+ * <p>
+ * The logger name of the record is the repository slug, so formatters that
+ * print the logger name keep showing the repository without a logger
+ * registered for each of them.
+ */
+public class RepositoryLogRecord extends LogRecord {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String repository;
+
+    public RepositoryLogRecord(Level level, String msg, String repository) {
+        super(level, msg);
+        this.repository = repository;
+        setLoggerName(repository);
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+}
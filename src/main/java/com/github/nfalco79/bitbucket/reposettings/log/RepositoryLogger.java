@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.log;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs messages about a repository through the single application logger.
+ * <p>
+ * Instances are cheap and not registered anywhere, each record carries the
+ * repository as context.
+ */
+public final class RepositoryLogger {
+
+    private static final Logger LOGGER = Logger.getLogger("app");
+
+    private final String repository;
+
+    private RepositoryLogger(String repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Returns a logger for the given repository.
+     *
+     * @param repository the repository slug
+     * @return the logger
+     */
+    public static RepositoryLogger get(String repository) {
+        return new RepositoryLogger(repository);
+    }
+
+    public boolean isLoggable(Level level) {
+        return LOGGER.isLoggable(level);
+    }
+
+    public void log(Level level, String msg) {
+        log(level, msg, null, null);
+    }
+
+    public void log(Level level, String msg, Object param) {
+        log(level, msg, new Object[] { param }, null);
+    }
+
+    public void log(Level level, String msg, Object[] params) {
+        log(level, msg, params, null);
+    }
+
+    public void log(Level level, String msg, Throwable thrown) {
+        log(level, msg, null, thrown);
+    }
+
+    public void info(String msg) {
+        log(Level.INFO, msg);
+    }
+
+    public void warning(String msg) {
+        log(Level.WARNING, msg);
+    }
+
+    public void severe(String msg) {
+        log(Level.SEVERE, msg);
+    }
+
+    private void log(Level level, String msg, Object[] params, Throwable thrown) {
+        if (!LOGGER.isLoggable(level)) {
+            return;
+        }
+        RepositoryLogRecord record = new RepositoryLogRecord(level, msg, repository);
+        record.setParameters(params);
+        record.setThrown(thrown);
+        // the caller would be inferred later on the logging thread
+        record.setSourceClassName(null);
+        LOGGER.log(record);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.github.nfalco79.bitbucket.reposettings.util.PatternIndex;
+
+/**
+ * The repository access rules and branch permission rules compiled to find
+ * the rules of a repository in a single pass.
+ */
+public class CompiledRules {
+
+    private final List<RepositoryAccessRule> repositoryRules;
+    private final List<BranchPermissionRule> branchRules;
+    private final PatternIndex<RepositoryAccessRule> repositoryIndex;
+    private final PatternIndex<BranchPermissionRule> branchIndex;
+    private final RuleConflicts conflicts;
+    private final RuleProfiler profiler;
+
+    public CompiledRules(List<RepositoryAccessRule> repositoryRules, List<BranchPermissionRule> branchRules) {
+        this(repositoryRules, branchRules, RuleProfiler.NONE);
+    }
+
+    /**
+     * CompiledRules constructor.
+     * <p>
+     * The profiler is used only by the {@code profile} lookups, that test the
+     * rules one by one instead of through the index so that each one is
+     * measured on its own.
+     *
+     * @param repositoryRules the repository access rules
+     * @param branchRules the branch permission rules
+     * @param profiler the profiler of rule matches
+     */
+    public CompiledRules(List<RepositoryAccessRule> repositoryRules, List<BranchPermissionRule> branchRules, RuleProfiler profiler) {
+        this.profiler = profiler;
+        this.repositoryRules = Collections.unmodifiableList(repositoryRules);
+        this.branchRules = Collections.unmodifiableList(branchRules);
+        this.repositoryIndex = PatternIndex.compile(repositoryRules, //
+                rule -> rule.getRepositoryPatterns().split(","), //
+                RepositoryAccessRule::accept);
+        this.branchIndex = PatternIndex.compile(branchRules, //
+                rule -> new String[] { rule.getRepositoryPatterns() }, //
+                BranchPermissionRule::accept);
+        this.conflicts = RuleConflicts.analyze(repositoryRules);
+    }
+
+    public List<RepositoryAccessRule> getRepositoryRules() {
+        return repositoryRules;
+    }
+
+    public List<BranchPermissionRule> getBranchRules() {
+        return branchRules;
+    }
+
+    public RuleConflicts getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Returns the access rules that accept the given repository.
+     *
+     * @param repository the repository slug
+     * @return the matching rules in declaration order
+     */
+    public List<RepositoryAccessRule> getRepositoryRules(String repository) {
+        return repositoryIndex.match(repository);
+    }
+
+    /**
+     * Returns the access rules that accept the given repository, recording
+     * each evaluation in the profiler when it is enabled.
+     * <p>
+     * Call it once for each processed repository, the other lookups use
+     * {@link #getRepositoryRules(String)} to keep the counts exact.
+     *
+     * @param repository the repository slug
+     * @return the matching rules in declaration order
+     */
+    public List<RepositoryAccessRule> profileRepositoryRules(String repository) {
+        if (profiler.isEnabled()) {
+            return profile(repositoryRules, rule -> rule.accept(repository));
+        }
+        return repositoryIndex.match(repository);
+    }
+
+    /**
+     * Returns the branch permission rules that accept the given repository.
+     *
+     * @param repository the repository slug
+     * @return the matching rules in declaration order
+     */
+    public List<BranchPermissionRule> getBranchRules(String repository) {
+        return branchIndex.match(repository);
+    }
+
+    /**
+     * Returns the branch permission rules that accept the given repository,
+     * recording each evaluation in the profiler when it is enabled.
+     *
+     * @param repository the repository slug
+     * @return the matching rules in declaration order
+     * @see #profileRepositoryRules(String)
+     */
+    public List<BranchPermissionRule> profileBranchRules(String repository) {
+        if (profiler.isEnabled()) {
+            return profile(branchRules, rule -> rule.accept(repository));
+        }
+        return branchIndex.match(repository);
+    }
+
+    private <T> List<T> profile(List<T> rules, Predicate<T> accept) {
+        List<T> result = new ArrayList<>();
+        for (T rule : rules) {
+            if (profiler.test(rule, accept)) {
+                result.add(rule);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the not inherited access rules that all accept the given
+     * repository, so that is not possible to decide which one apply.
+     *
+     * @param repository the repository slug
+     * @return the conflicting rules, an empty list when the repository has
+     *         at most one independent rule
+     */
+    public List<RepositoryAccessRule> getConflictingRules(String repository) {
+        if (conflicts.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return conflicts.getConflicting(getRepositoryRules(repository));
+    }
+}
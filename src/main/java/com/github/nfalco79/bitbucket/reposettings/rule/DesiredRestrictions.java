@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.github.nfalco79.bitbucket.client.model.BitbucketObject;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction.Builder;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.reposettings.rule.RuleProfiler.Explanation;
+
+/**
+ * The branch restrictions that a list of branch permission rules requires
+ * for the given granted users and groups.
+ * <p>
+ * The users and groups of each restriction are resolved once, repositories
+ * with the same rules and the same granted principals share the instance and
+ * ask it for new restrictions to compare with their own. A profiled instance
+ * belongs to a single repository.
+ */
+public final class DesiredRestrictions {
+
+    private final List<BranchRestrictions> branches;
+
+    private DesiredRestrictions(List<BranchRestrictions> branches) {
+        this.branches = Collections.unmodifiableList(branches);
+    }
+
+    /**
+     * Resolves the restrictions of the given rules without profiling them.
+     *
+     * @param branchRules the branch permission rules of a repository
+     * @param granted the users and groups that have access to the repository
+     * @param defaultSuccessBuilds the successful builds required when a rule
+     *        does not specify them
+     * @param defaultMinApprovals the approvals required when a rule does not
+     *        specify them
+     * @return the desired restrictions
+     */
+    public static DesiredRestrictions resolve(List<BranchPermissionRule> branchRules, Collection<BitbucketObject> granted, //
+                                              int defaultSuccessBuilds, int defaultMinApprovals) {
+        return resolve(branchRules, granted, defaultSuccessBuilds, defaultMinApprovals, RuleProfiler.NONE, Explanation.NONE);
+    }
+
+    /**
+     * Resolves the restrictions of the given rules.
+     * <p>
+     * The result records the evaluations of a single repository, do not
+     * share it with others when profiling.
+     *
+     * @param branchRules the branch permission rules of a repository
+     * @param granted the users and groups that have access to the repository
+     * @param defaultSuccessBuilds the successful builds required when a rule
+     *        does not specify them
+     * @param defaultMinApprovals the approvals required when a rule does not
+     *        specify them
+     * @param profiler the profiler of user and group rule matches
+     * @param explanation the explanation of the repository
+     * @return the desired restrictions
+     */
+    public static DesiredRestrictions resolve(List<BranchPermissionRule> branchRules, Collection<BitbucketObject> granted, //
+                                              int defaultSuccessBuilds, int defaultMinApprovals, RuleProfiler profiler, Explanation explanation) {
+        List<UserInfo> grantedUsers = granted.stream() //
+                .filter(c -> "user".equals(c.getType())) //
+                .map(UserInfo.class::cast) //
+                .collect(Collectors.toList());
+        List<GroupInfo> grantedGroups = granted.stream() //
+                .filter(c -> "group".equals(c.getType())) //
+                .map(GroupInfo.class::cast) //
+                .collect(Collectors.toList());
+
+        List<BranchRestrictions> branches = new ArrayList<>();
+        for (BranchPermissionRule branchRule : branchRules) {
+            // Write access
+            Set<UserInfo> pushUsers = grantedUsers.stream() //
+                    .filter(grantedUser -> branchRule.getUsers().stream() //
+                            .filter(rule -> rule.isWriteAccess()) //
+                            .anyMatch(rule -> test(profiler, rule, r -> r.accept(grantedUser.getUUID()), explanation, "user {0} may push to {1}", grantedUser.getUUID(), branchRule))) //
+                    .collect(Collectors.toSet());
+            Set<GroupInfo> pushGroups = grantedGroups.stream() //
+                    .filter(grantedGroup -> branchRule.getGroups().stream() //
+                            .filter(rule -> rule.isWriteAccess()) //
+                            .anyMatch(rule -> test(profiler, rule, r -> r.accept(grantedGroup.getName()), explanation, "group {0} may push to {1}", grantedGroup.getName(), branchRule))) //
+                    .collect(Collectors.toSet());
+
+            // Merge via pull request
+            Set<UserInfo> mergeUsers = grantedUsers.stream() //
+                    .filter(grantedUser -> branchRule.getUsers().stream() //
+                            .anyMatch(rule -> test(profiler, rule, r -> r.accept(grantedUser.getUUID()), explanation, "user {0} may merge to {1}", grantedUser.getUUID(), branchRule))) //
+                    .collect(Collectors.toSet());
+            Set<GroupInfo> mergeGroups = grantedGroups.stream() //
+                    .filter(grantedGroup -> branchRule.getGroups().stream() //
+                            .anyMatch(rule -> test(profiler, rule, r -> r.accept(grantedGroup.getName()), explanation, "group {0} may merge to {1}", grantedGroup.getName(), branchRule))) //
+                    .collect(Collectors.toSet());
+
+            int successBuilds = branchRule.getSuccessBuilds() != null ? branchRule.getSuccessBuilds() : defaultSuccessBuilds;
+            int minApprovals = branchRule.getMinApprovals() != null ? branchRule.getMinApprovals() : defaultMinApprovals;
+
+            for (String branchPattern : branchRule.getBranchPatterns().split(",")) {
+                List<Supplier<BranchRestriction>> restrictions = new ArrayList<>();
+                // the builder is called for each repository because the
+                // comparison with the current restrictions changes the instances
+                restrictions.add(() -> Builder.newPushPermission(branchPattern, new HashSet<>(pushUsers), new HashSet<>(pushGroups)));
+                restrictions.add(() -> Builder.newMergePermission(branchPattern, new HashSet<>(mergeUsers), new HashSet<>(mergeGroups)));
+                // Deleting this branch is not allowed
+                restrictions.add(() -> Builder.newDeletePermission(branchPattern));
+                // Rewriting branch history is not allowed
+                restrictions.add(() -> Builder.newForcePushPermission(branchPattern));
+                // Check the last commit for at least N successful build and no failed builds
+                restrictions.add(() -> Builder.newSucessBuildsPermission(branchPattern, successBuilds));
+                // Check for at least N approvals
+                restrictions.add(() -> Builder.newMinApprovalsPermission(branchPattern, minApprovals));
+                //  Check that no changes are requested
+                restrictions.add(() -> Builder.newRequireNoChanges(branchPattern));
+                // Reset requested changes when the source branch is modified
+                restrictions.add(() -> Builder.newResetPROnChange(branchPattern));
+                // Check for unresolved pull request tasks
+                restrictions.add(() -> Builder.newRequireTasksCompletion(branchPattern));
+                branches.add(new BranchRestrictions(branchPattern, restrictions));
+            }
+        }
+        return new DesiredRestrictions(branches);
+    }
+
+    // tests a user or group rule of the branch rule, explaining the match
+    private static <T> boolean test(RuleProfiler profiler, T rule, Predicate<T> accept, Explanation explanation, //
+                                    String reason, String principal, BranchPermissionRule branchRule) {
+        boolean accepted = profiler.test(rule, accept);
+        if (accepted) {
+            explanation.fired(rule, reason, principal, branchRule.getBranchPatterns());
+        }
+        return accepted;
+    }
+
+    /**
+     * Returns the restrictions of each branch pattern in the order of the
+     * rules, a pattern appears once for each rule that declares it.
+     *
+     * @return the restrictions grouped by branch pattern
+     */
+    public List<BranchRestrictions> getBranches() {
+        return branches;
+    }
+
+    /**
+     * The restrictions that a rule requires on a branch pattern.
+     */
+    public static final class BranchRestrictions {
+        private final String pattern;
+        private final List<Supplier<BranchRestriction>> restrictions;
+
+        private BranchRestrictions(String pattern, List<Supplier<BranchRestriction>> restrictions) {
+            this.pattern = pattern;
+            this.restrictions = restrictions;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Returns new instances of the restrictions, the caller is free to
+         * change them.
+         *
+         * @return the restrictions of the branch pattern
+         */
+        public List<BranchRestriction> newRestrictions() {
+            List<BranchRestriction> result = new ArrayList<>(restrictions.size());
+            for (Supplier<BranchRestriction> restriction : restrictions) {
+                result.add(restriction.get());
+            }
+            return result;
+        }
+    }
+}
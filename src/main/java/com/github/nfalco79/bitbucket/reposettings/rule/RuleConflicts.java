@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Pairs of not inherited repository access rules whose patterns could match
+ * the same repository.
+ * <p>
+ * The analysis is done once when rules are loaded by intersecting the
+ * positive patterns of each pair of rules. Negated patterns are ignored, so a
+ * pair is reported when the rules <i>could</i> overlap; checking a repository
+ * is then a lookup of the rules that really match it against the pairs found.
+ */
+public final class RuleConflicts {
+
+    private final Map<RepositoryAccessRule, List<RepositoryAccessRule>> overlaps = new IdentityHashMap<>();
+    private final List<List<RepositoryAccessRule>> pairs = new ArrayList<>();
+
+    private RuleConflicts() {
+    }
+
+    /**
+     * Finds all pairs of not inherited rules with intersecting repository
+     * patterns.
+     *
+     * @param rules the repository access rules
+     * @return the analysis result
+     */
+    public static RuleConflicts analyze(List<RepositoryAccessRule> rules) {
+        List<RepositoryAccessRule> independents = rules.stream() //
+                .filter(rule -> !rule.isInherited()) //
+                .collect(Collectors.toList());
+        List<String[]> patterns = independents.stream() //
+                .map(rule -> positivePatterns(rule.getRepositoryPatterns())) //
+                .collect(Collectors.toList());
+
+        RuleConflicts conflicts = new RuleConflicts();
+        for (int i = 0; i < independents.size(); i++) {
+            for (int j = i + 1; j < independents.size(); j++) {
+                if (intersects(patterns.get(i), patterns.get(j))) {
+                    conflicts.add(independents.get(i), independents.get(j));
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    private void add(RepositoryAccessRule first, RepositoryAccessRule second) {
+        pairs.add(Collections.unmodifiableList(Arrays.asList(first, second)));
+        overlaps.computeIfAbsent(first, k -> new ArrayList<>()).add(second);
+        overlaps.computeIfAbsent(second, k -> new ArrayList<>()).add(first);
+    }
+
+    private static String[] positivePatterns(String repositoryPatterns) {
+        return Arrays.stream(repositoryPatterns.split(",")) //
+                .filter(pattern -> !pattern.startsWith("!")) //
+                .toArray(String[]::new);
+    }
+
+    private static boolean intersects(String[] patterns1, String[] patterns2) {
+        for (String p1 : patterns1) {
+            for (String p2 : patterns2) {
+                if (intersects(p1, p2)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests if exists at least a string matched by both patterns. The
+     * patterns may contain '*' and '?' wildcards.
+     *
+     * @param pattern1 the first pattern
+     * @param pattern2 the second pattern
+     * @return {@code true} if the patterns have a common match
+     */
+    public static boolean intersects(String pattern1, String pattern2) {
+        char[] p = pattern1.toCharArray();
+        char[] q = pattern2.toCharArray();
+        // reachable[i][j] when prefixes p[0..i) and q[0..j) can match the same string
+        boolean[][] reachable = new boolean[p.length + 1][q.length + 1];
+        reachable[0][0] = true;
+        for (int i = 0; i <= p.length; i++) {
+            for (int j = 0; j <= q.length; j++) {
+                if (!reachable[i][j]) {
+                    continue;
+                }
+                if (i == p.length && j == q.length) {
+                    return true;
+                }
+                boolean pStar = i < p.length && p[i] == '*';
+                boolean qStar = j < q.length && q[j] == '*';
+                if (pStar) {
+                    // the star matches nothing more
+                    reachable[i + 1][j] = true;
+                    // the star absorbs next character (or star) of the other pattern
+                    if (j < q.length) {
+                        reachable[i][j + 1] = true;
+                    }
+                }
+                if (qStar) {
+                    reachable[i][j + 1] = true;
+                    if (i < p.length) {
+                        reachable[i + 1][j] = true;
+                    }
+                }
+                if (!pStar && !qStar && i < p.length && j < q.length //
+                        && (p[i] == '?' || q[j] == '?' || p[i] == q[j])) {
+                    reachable[i + 1][j + 1] = true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns if no pair of rules could match the same repository.
+     *
+     * @return {@code true} if there is no conflicts
+     */
+    public boolean isEmpty() {
+        return pairs.isEmpty();
+    }
+
+    /**
+     * Returns all pairs of rules that could match the same repository.
+     *
+     * @return the list of pairs in declaration order
+     */
+    public List<List<RepositoryAccessRule>> getPairs() {
+        return Collections.unmodifiableList(pairs);
+    }
+
+    /**
+     * Returns the rules in conflict between the given matching rules.
+     *
+     * @param matching the rules that accept a repository
+     * @return the not inherited rules that overlap with another matching
+     *         rule, an empty list if there is no conflict
+     */
+    public List<RepositoryAccessRule> getConflicting(List<RepositoryAccessRule> matching) {
+        if (pairs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<RepositoryAccessRule> result = matching.stream() //
+                .filter(overlaps::containsKey) //
+                .collect(Collectors.toList());
+        return result.size() > 1 ? result : Collections.<RepositoryAccessRule> emptyList();
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.rule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Counts how many times each rule is evaluated, how many times it matches
+ * and the time spent to match it, and records for each repository the rules
+ * that fired and why.
+ * <p>
+ * The {@link #NONE} profiler records nothing and does not read the clock, so
+ * callers do not need to check if profiling is enabled.
+ */
+public class RuleProfiler {
+
+    public static final RuleProfiler NONE = new RuleProfiler(false);
+
+    private final boolean enabled;
+    // rules do not override equals, each instance has its own statistics
+    private final Map<Object, RuleStats> stats = new ConcurrentHashMap<>();
+    private final Map<String, Explanation> explanations = new ConcurrentHashMap<>();
+
+    public RuleProfiler() {
+        this(true);
+    }
+
+    private RuleProfiler(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the start time of an evaluation.
+     *
+     * @return the current time in nanoseconds, 0 when profiling is disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records an evaluation of a rule.
+     *
+     * @param rule the evaluated rule
+     * @param start the value returned by {@link #start()} before the
+     *        evaluation
+     * @param matched if the rule matched
+     */
+    public void record(Object rule, long start, boolean matched) {
+        if (enabled) {
+            long elapsed = System.nanoTime() - start;
+            stats.computeIfAbsent(rule, RuleStats::new).add(matched, elapsed);
+        }
+    }
+
+    /**
+     * Evaluates and records a rule.
+     *
+     * @param rule the rule to evaluate
+     * @param predicate the match of the rule
+     * @param <T> the rule type
+     * @return if the rule matched
+     */
+    public <T> boolean test(T rule, Predicate<T> predicate) {
+        long start = start();
+        boolean matched = predicate.test(rule);
+        record(rule, start, matched);
+        return matched;
+    }
+
+    /**
+     * Discards what was explained about a repository, called when the
+     * repository is reconciled again.
+     *
+     * @param repository the repository name
+     */
+    public void reset(String repository) {
+        if (enabled) {
+            explanations.remove(repository);
+        }
+    }
+
+    /**
+     * Returns the explanation of the rules that fired for a repository.
+     *
+     * @param repository the repository name
+     * @return the explanation to complete
+     */
+    public Explanation explain(String repository) {
+        return enabled ? explanations.computeIfAbsent(repository, Explanation::new) : Explanation.NONE;
+    }
+
+    /**
+     * Returns the statistics of the evaluated rules, most expensive first.
+     *
+     * @return the statistics of each rule
+     */
+    public List<RuleStats> getStats() {
+        return stats.values().stream() //
+                .sorted(Comparator.comparingLong(RuleStats::getTotalNanos).reversed()) //
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the explanations sorted by repository.
+     *
+     * @return the explanation of each repository
+     */
+    public List<Explanation> getExplanations() {
+        return explanations.values().stream() //
+                .sorted(Comparator.comparing(Explanation::getRepository)) //
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Writes the statistics and the explanations as JSON.
+     *
+     * @param file the destination file
+     * @throws IOException if fails to write
+     */
+    public void write(Path file) throws IOException {
+        Report report = new Report(getStats(), getExplanations());
+        try (OutputStream os = Files.newOutputStream(file)) {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(os, report);
+        }
+    }
+
+    /**
+     * The content of the profile file.
+     */
+    public static final class Report {
+        private final List<RuleStats> rules;
+        private final List<Explanation> repositories;
+
+        Report(List<RuleStats> rules, List<Explanation> repositories) {
+            this.rules = rules;
+            this.repositories = repositories;
+        }
+
+        public List<RuleStats> getRules() {
+            return rules;
+        }
+
+        public List<Explanation> getRepositories() {
+            return repositories;
+        }
+    }
+
+    /**
+     * The evaluations of a rule.
+     */
+    public static final class RuleStats {
+        private final String type;
+        private final String rule;
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder matches = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        RuleStats(Object rule) {
+            this.type = rule.getClass().getSimpleName();
+            this.rule = rule.toString();
+        }
+
+        void add(boolean matched, long elapsed) {
+            evaluations.increment();
+            if (matched) {
+                matches.increment();
+            }
+            nanos.add(elapsed);
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public long getEvaluations() {
+            return evaluations.sum();
+        }
+
+        public long getMatches() {
+            return matches.sum();
+        }
+
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + rule + ": " + getMatches() + "/" + getEvaluations() + " matches in " + getTotalNanos() / 1000 + "us";
+        }
+    }
+
+    /**
+     * The rules that fired for a repository.
+     */
+    public static final class Explanation {
+        static final Explanation NONE = new Explanation(null);
+
+        private final String repository;
+        private final List<Fired> fired = Collections.synchronizedList(new ArrayList<>());
+
+        Explanation(String repository) {
+            this.repository = repository;
+        }
+
+        /**
+         * Records a rule that fired.
+         *
+         * @param rule the rule
+         * @param reason the reason in {@link MessageFormat} syntax
+         * @param arguments the arguments of the reason
+         */
+        public void fired(Object rule, String reason, Object... arguments) {
+            if (this != NONE) {
+                fired.add(new Fired(rule.getClass().getSimpleName(), rule.toString(), MessageFormat.format(reason, arguments)));
+            }
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public List<Fired> getFired() {
+            synchronized (fired) {
+                return new ArrayList<>(fired);
+            }
+        }
+    }
+
+    /**
+     * A rule that fired, with the reason.
+     */
+    public static final class Fired {
+        private final String type;
+        private final String rule;
+        private final String reason;
+
+        Fired(String type, String rule, String reason) {
+            this.type = type;
+            this.rule = rule;
+            this.reason = reason;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + rule + ": " + reason;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.UserPermission;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+
+/**
+ * The Bitbucket operations used to configure repositories.
+ * <p>
+ * It decouples the configurator from the REST client so that settings could
+ * be computed also against other sources, like an offline snapshot of the
+ * workspace.
+ */
+public interface BitbucketService {
+
+    /**
+     * Returns the authenticated user.
+     *
+     * @return the current user, {@code null} if credentials are not valid
+     * @throws ClientException if any error communicating to bitbucket occurs
+     */
+    UserInfo getUser() throws ClientException;
+
+    UserInfo getUser(String username) throws ClientException;
+
+    Collection<Repository> getRepositories(String workspace) throws ClientException;
+
+    /**
+     * Returns the privilege of the authenticated user on the given repository.
+     *
+     * @param workspace the workspace name
+     * @param repository the repository slug
+     * @return the privilege of current user
+     * @throws ClientException if any error communicating to bitbucket occurs
+     */
+    Permission getPermission(String workspace, String repository) throws ClientException;
+
+    Map<GroupInfo, Permission> getGroupsPermissions(String workspace, String repository) throws ClientException;
+
+    Collection<GroupInfo> getGroups(String workspace) throws ClientException;
+
+    void updateGroupPermission(String workspace, String repository, String groupSlug, Permission permission) throws ClientException;
+
+    void deleteGroupPermission(String workspace, String repository, String groupSlug) throws ClientException;
+
+    UserPermission getUserPermission(String workspace, String repository, String username) throws ClientException;
+
+    void updateUserPermission(String workspace, String repository, String userId, Permission permission) throws ClientException;
+
+    List<BranchRestriction> getBranchRestrictions(String workspace, String repository) throws ClientException;
+
+    void updateBranchRestriction(String workspace, String repository, BranchRestriction restriction) throws ClientException;
+
+    List<Webhook> getWebhooks(String workspace, String repository, String... names) throws ClientException;
+
+    void updateWebhook(String workspace, String repository, Webhook webhook) throws ClientException;
+
+    void addWebHook(String workspace, String repository, Webhook webhook) throws ClientException;
+
+    void deleteWebhook(String workspace, String repository, String webhookId) throws ClientException;
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.github.nfalco79.bitbucket.client.BitbucketCloudClient;
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.UserPermission;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+
+/**
+ * Implementation that performs all operations on Bitbucket Cloud using the
+ * REST client.
+ */
+public class CloudBitbucketService implements BitbucketService {
+
+    private final BitbucketCloudClient client;
+
+    public CloudBitbucketService(BitbucketCloudClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public UserInfo getUser() throws ClientException {
+        return client.getUser();
+    }
+
+    @Override
+    public UserInfo getUser(String username) throws ClientException {
+        return client.getUser(username);
+    }
+
+    @Override
+    public Collection<Repository> getRepositories(String workspace) throws ClientException {
+        return client.getRepositories(workspace);
+    }
+
+    @Override
+    public Permission getPermission(String workspace, String repository) throws ClientException {
+        // the client looks up the permission only by slug, the configurator
+        // refuses runs where a slug is in more workspaces
+        return client.getPermission(repository);
+    }
+
+    @Override
+    public Map<GroupInfo, Permission> getGroupsPermissions(String workspace, String repository) throws ClientException {
+        return client.getGroupsPermissions(workspace, repository);
+    }
+
+    @Override
+    public Collection<GroupInfo> getGroups(String workspace) throws ClientException {
+        return client.getGroups(workspace);
+    }
+
+    @Override
+    public void updateGroupPermission(String workspace, String repository, String groupSlug, Permission permission) throws ClientException {
+        client.updateGroupPermission(workspace, repository, groupSlug, permission);
+    }
+
+    @Override
+    public void deleteGroupPermission(String workspace, String repository, String groupSlug) throws ClientException {
+        client.deleteGroupPermission(workspace, repository, groupSlug);
+    }
+
+    @Override
+    public UserPermission getUserPermission(String workspace, String repository, String username) throws ClientException {
+        return client.getUserPermission(workspace, repository, username);
+    }
+
+    @Override
+    public void updateUserPermission(String workspace, String repository, String userId, Permission permission) throws ClientException {
+        client.updateUserPermission(workspace, repository, userId, permission);
+    }
+
+    @Override
+    public List<BranchRestriction> getBranchRestrictions(String workspace, String repository) throws ClientException {
+        return client.getBranchRestrictions(workspace, repository);
+    }
+
+    @Override
+    public void updateBranchRestriction(String workspace, String repository, BranchRestriction restriction) throws ClientException {
+        client.updateBranchRestriction(workspace, repository, restriction);
+    }
+
+    @Override
+    public List<Webhook> getWebhooks(String workspace, String repository, String... names) throws ClientException {
+        return client.getWebhooks(workspace, repository, names);
+    }
+
+    @Override
+    public void updateWebhook(String workspace, String repository, Webhook webhook) throws ClientException {
+        client.updateWebhook(workspace, repository, webhook);
+    }
+
+    @Override
+    public void addWebHook(String workspace, String repository, Webhook webhook) throws ClientException {
+        client.addWebHook(workspace, repository, webhook);
+    }
+
+    @Override
+    public void deleteWebhook(String workspace, String repository, String webhookId) throws ClientException {
+        client.deleteWebhook(workspace, repository, webhookId);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.service;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.reposettings.exec.Deadline;
+import com.github.nfalco79.bitbucket.reposettings.exec.DeadlineExceededException;
+
+/**
+ * Bounds each call by the deadline of the current thread.
+ * <p>
+ * When a deadline is set the call runs on another thread, so that the
+ * caller gives up when the deadline expires even if the request hangs. The
+ * abandoned call is interrupted and left to complete on its own, blocking
+ * I/O ignores the interrupt so wrap this service with the lanes to free the
+ * permit of the call when the caller gives up.
+ */
+public class DeadlineBitbucketService extends InterceptingBitbucketService {
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "deadline-call-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DeadlineBitbucketService(BitbucketService delegate) {
+        super(delegate);
+    }
+
+    @Override
+    protected <T> T intercept(String endpoint, String repository, boolean write, Call<T> call) throws ClientException {
+        Deadline deadline = Deadline.current();
+        if (deadline == Deadline.NONE) {
+            return call.call();
+        }
+        deadline.check();
+
+        Future<T> future = executor.submit(call::call);
+        try {
+            return future.get(deadline.remaining(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new DeadlineExceededException(deadline + " expired during " + endpoint);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting " + endpoint);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ClientException) {
+                throw (ClientException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
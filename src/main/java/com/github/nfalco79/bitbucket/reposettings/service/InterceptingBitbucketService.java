@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.UserPermission;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+
+/**
+ * Base class of decorators that run some logic around each call to another
+ * service.
+ */
+public abstract class InterceptingBitbucketService implements BitbucketService {
+
+    /**
+     * A call to the delegate service.
+     *
+     * @param <T> the call result
+     */
+    @FunctionalInterface
+    protected interface Call<T> {
+        T call() throws ClientException;
+    }
+
+    private final BitbucketService delegate;
+
+    protected InterceptingBitbucketService(BitbucketService delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Performs a call to the delegate service.
+     *
+     * @param endpoint the name of the called method
+     * @param repository the repository involved by the call, {@code null} for
+     *        workspace or user calls
+     * @param write if the call changes data in Bitbucket
+     * @param call the call to the delegate
+     * @param <T> the call result
+     * @return the result of the call, {@code null} for void methods
+     * @throws ClientException if the call fails
+     */
+    protected abstract <T> T intercept(String endpoint, String repository, boolean write, Call<T> call) throws ClientException;
+
+    private <T> T read(String endpoint, String repository, Call<T> call) throws ClientException {
+        return intercept(endpoint, repository, false, call);
+    }
+
+    private void write(String endpoint, String repository, Call<Void> call) throws ClientException {
+        intercept(endpoint, repository, true, call);
+    }
+
+    @Override
+    public UserInfo getUser() throws ClientException {
+        return read("getUser", null, delegate::getUser);
+    }
+
+    @Override
+    public UserInfo getUser(String username) throws ClientException {
+        return read("getUser", null, () -> delegate.getUser(username));
+    }
+
+    @Override
+    public Collection<Repository> getRepositories(String workspace) throws ClientException {
+        return read("getRepositories", null, () -> delegate.getRepositories(workspace));
+    }
+
+    @Override
+    public Permission getPermission(String workspace, String repository) throws ClientException {
+        return read("getPermission", repository, () -> delegate.getPermission(workspace, repository));
+    }
+
+    @Override
+    public Map<GroupInfo, Permission> getGroupsPermissions(String workspace, String repository) throws ClientException {
+        return read("getGroupsPermissions", repository, () -> delegate.getGroupsPermissions(workspace, repository));
+    }
+
+    @Override
+    public Collection<GroupInfo> getGroups(String workspace) throws ClientException {
+        return read("getGroups", null, () -> delegate.getGroups(workspace));
+    }
+
+    @Override
+    public void updateGroupPermission(String workspace, String repository, String groupSlug, Permission permission) throws ClientException {
+        write("updateGroupPermission", repository, () -> {
+            delegate.updateGroupPermission(workspace, repository, groupSlug, permission);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteGroupPermission(String workspace, String repository, String groupSlug) throws ClientException {
+        write("deleteGroupPermission", repository, () -> {
+            delegate.deleteGroupPermission(workspace, repository, groupSlug);
+            return null;
+        });
+    }
+
+    @Override
+    public UserPermission getUserPermission(String workspace, String repository, String username) throws ClientException {
+        return read("getUserPermission", repository, () -> delegate.getUserPermission(workspace, repository, username));
+    }
+
+    @Override
+    public void updateUserPermission(String workspace, String repository, String userId, Permission permission) throws ClientException {
+        write("updateUserPermission", repository, () -> {
+            delegate.updateUserPermission(workspace, repository, userId, permission);
+            return null;
+        });
+    }
+
+    @Override
+    public List<BranchRestriction> getBranchRestrictions(String workspace, String repository) throws ClientException {
+        return read("getBranchRestrictions", repository, () -> delegate.getBranchRestrictions(workspace, repository));
+    }
+
+    @Override
+    public void updateBranchRestriction(String workspace, String repository, BranchRestriction restriction) throws ClientException {
+        write("updateBranchRestriction", repository, () -> {
+            delegate.updateBranchRestriction(workspace, repository, restriction);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Webhook> getWebhooks(String workspace, String repository, String... names) throws ClientException {
+        return read("getWebhooks", repository, () -> delegate.getWebhooks(workspace, repository, names));
+    }
+
+    @Override
+    public void updateWebhook(String workspace, String repository, Webhook webhook) throws ClientException {
+        write("updateWebhook", repository, () -> {
+            delegate.updateWebhook(workspace, repository, webhook);
+            return null;
+        });
+    }
+
+    @Override
+    public void addWebHook(String workspace, String repository, Webhook webhook) throws ClientException {
+        write("addWebHook", repository, () -> {
+            delegate.addWebHook(workspace, repository, webhook);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteWebhook(String workspace, String repository, String webhookId) throws ClientException {
+        write("deleteWebhook", repository, () -> {
+            delegate.deleteWebhook(workspace, repository, webhookId);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.service;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.reposettings.util.PrincipalRegistry;
+
+/**
+ * Replaces the groups and users read from another service with their
+ * canonical instances, so that repositories do not keep identical copies.
+ */
+public class InterningBitbucketService extends InterceptingBitbucketService {
+
+    private final PrincipalRegistry registry;
+
+    public InterningBitbucketService(BitbucketService delegate, PrincipalRegistry registry) {
+        super(delegate);
+        this.registry = registry;
+    }
+
+    @Override
+    protected <T> T intercept(String endpoint, String repository, boolean write, Call<T> call) throws ClientException {
+        return call.call();
+    }
+
+    @Override
+    public UserInfo getUser() throws ClientException {
+        return registry.intern(super.getUser());
+    }
+
+    @Override
+    public UserInfo getUser(String username) throws ClientException {
+        return registry.intern(super.getUser(username));
+    }
+
+    @Override
+    public Collection<GroupInfo> getGroups(String workspace) throws ClientException {
+        Collection<GroupInfo> groups = super.getGroups(workspace);
+        return groups != null ? registry.intern(workspace, groups) : null;
+    }
+
+    @Override
+    public Map<GroupInfo, Permission> getGroupsPermissions(String workspace, String repository) throws ClientException {
+        Map<GroupInfo, Permission> permissions = super.getGroupsPermissions(workspace, repository);
+        return permissions != null ? registry.internKeys(workspace, permissions) : null;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.service;
+
+import java.util.concurrent.CancellationException;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.reposettings.exec.Lane;
+
+/**
+ * Sends reads and writes through separate lanes, so that each kind of
+ * request has its own concurrency and rate limits.
+ */
+public class LaneBitbucketService extends InterceptingBitbucketService {
+
+    private final Lane reads;
+    private final Lane writes;
+
+    public LaneBitbucketService(BitbucketService delegate, Lane reads, Lane writes) {
+        super(delegate);
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    @Override
+    protected <T> T intercept(String endpoint, String repository, boolean write, Call<T> call) throws ClientException {
+        Lane lane = write ? writes : reads;
+        long start;
+        try {
+            start = lane.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting the " + lane.getName() + " lane for " + endpoint);
+        }
+        Throwable error = null;
+        try {
+            return call.call();
+        } catch (ClientException | RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            lane.release(start, error);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.UserPermission;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+import com.github.nfalco79.bitbucket.reposettings.exec.ClientOperation;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.util.WebhookUtil;
+
+/**
+ * Separates the reads, the computation and the writes needed to configure a
+ * repository.
+ * <p>
+ * Once a repository is {@link #fetch fetched}, all its reads are served from
+ * memory and its writes are not performed but collected as planned changes
+ * until the plan is {@link #complete completed}; the caller then applies the
+ * changes to Bitbucket. Calls about repositories not fetched and calls about
+ * the workspace go straight to the delegate service.
+ */
+public class PlanningBitbucketService implements BitbucketService {
+
+    /**
+     * A write operation computed for a repository but not yet applied.
+     */
+    public static class PlannedChange {
+        private final String repository;
+        private final String description;
+        private final ClientOperation operation;
+        private final String batch;
+        private final List<Runnable> onApplied = new ArrayList<>();
+
+        PlannedChange(String repository, String description, ClientOperation operation, String batch) {
+            this.repository = repository;
+            this.description = description;
+            this.operation = operation;
+            this.batch = batch;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Returns the operation that applies the change to Bitbucket.
+         *
+         * @return the write operation
+         */
+        public ClientOperation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Returns the batch of the change. Adjacent changes of the same batch
+         * are independent each other and could be applied concurrently.
+         *
+         * @return the batch name, {@code null} if the change must be applied
+         *         in order
+         */
+        public String getBatch() {
+            return batch;
+        }
+
+        /**
+         * Runs the actions waiting for this change, to be called once the
+         * operation has been applied to Bitbucket.
+         */
+        public void applied() {
+            onApplied.forEach(Runnable::run);
+        }
+
+        @Override
+        public String toString() {
+            return repository + ": " + description;
+        }
+    }
+
+    private static class FetchedRepository {
+        private Permission permission;
+        private Map<GroupInfo, Permission> groupsPermissions;
+        private final Map<String, UserPermission> usersPermissions = new HashMap<>();
+        private List<BranchRestriction> branchRestrictions;
+        private List<Webhook> webhooks;
+        private final List<PlannedChange> changes = new ArrayList<>();
+    }
+
+    private final BitbucketService delegate;
+    // fetched repositories by workspace and slug
+    private final Map<String, FetchedRepository> repositories = new ConcurrentHashMap<>();
+
+    public PlanningBitbucketService(BitbucketService delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Reads all data needed to configure a repository, from now on all reads
+     * of the repository are served from memory and writes are planned.
+     * <p>
+     * Settings are read only if the current user is administrator of the
+     * repository.
+     *
+     * @param workspace the workspace name
+     * @param repository the repository slug
+     * @param usernames the users whose permission will be checked
+     * @return the permission of the current user on the repository
+     * @throws ClientException if any error communicating to bitbucket occurs
+     */
+    public Permission fetch(String workspace, String repository, Collection<String> usernames) throws ClientException {
+        FetchedRepository fetched = new FetchedRepository();
+        fetched.permission = delegate.getPermission(workspace, repository);
+        if (fetched.permission == Permission.ADMIN) {
+            fetched.groupsPermissions = delegate.getGroupsPermissions(workspace, repository);
+            for (String username : usernames) {
+                fetched.usersPermissions.put(username, delegate.getUserPermission(workspace, repository, username));
+            }
+            fetched.branchRestrictions = delegate.getBranchRestrictions(workspace, repository);
+            fetched.webhooks = delegate.getWebhooks(workspace, repository, WebhookUtil.JENKINS_WEBHOOKS_NAMES);
+        }
+        repositories.put(key(workspace, repository), fetched);
+        return fetched.permission;
+    }
+
+    /**
+     * Ends the planning of a repository, next calls about the repository go
+     * to the delegate service.
+     *
+     * @param workspace the workspace name
+     * @param repository the repository slug
+     * @return the changes planned for the repository in the requested order
+     */
+    public List<PlannedChange> complete(String workspace, String repository) {
+        FetchedRepository fetched = repositories.remove(key(workspace, repository));
+        if (fetched == null) {
+            throw new IllegalStateException("Repository " + repository + " has not been fetched");
+        }
+        return fetched.changes;
+    }
+
+    /**
+     * Discards all fetched repositories whose plan has not been completed, for
+     * example because the run was aborted, so that next calls go to the
+     * delegate service.
+     */
+    public void clear() {
+        repositories.clear();
+    }
+
+    /**
+     * Runs the given action once the last write requested for a repository has
+     * been applied to Bitbucket. Writes of a repository that is not fetched
+     * are sent immediately, so the action runs now.
+     *
+     * @param workspace the workspace name
+     * @param repository the repository slug
+     * @param action the action to run
+     */
+    public void whenApplied(String workspace, String repository, Runnable action) {
+        FetchedRepository fetched = repositories.get(key(workspace, repository));
+        if (fetched == null) {
+            action.run();
+        } else if (fetched.changes.isEmpty()) {
+            throw new IllegalStateException("No change planned for repository " + repository);
+        } else {
+            fetched.changes.get(fetched.changes.size() - 1).onApplied.add(action);
+        }
+    }
+
+    // the fetched data with all settings, null if not fetched
+    private FetchedRepository settings(String workspace, String repository) {
+        FetchedRepository fetched = repositories.get(key(workspace, repository));
+        if (fetched != null && fetched.permission != Permission.ADMIN) {
+            throw new IllegalStateException("Settings of repository " + repository + " are not readable");
+        }
+        return fetched;
+    }
+
+    private static String key(String workspace, String repository) {
+        return workspace + '/' + repository;
+    }
+
+    private boolean plan(String workspace, String repository, String description, ClientOperation operation) {
+        return plan(workspace, repository, description, operation, null);
+    }
+
+    private boolean plan(String workspace, String repository, String description, ClientOperation operation, String batch) {
+        FetchedRepository fetched = repositories.get(key(workspace, repository));
+        if (fetched == null) {
+            return false;
+        }
+        fetched.changes.add(new PlannedChange(repository, description, operation, batch));
+        return true;
+    }
+
+    @Override
+    public UserInfo getUser() throws ClientException {
+        return delegate.getUser();
+    }
+
+    @Override
+    public UserInfo getUser(String username) throws ClientException {
+        return delegate.getUser(username);
+    }
+
+    @Override
+    public Collection<Repository> getRepositories(String workspace) throws ClientException {
+        return delegate.getRepositories(workspace);
+    }
+
+    @Override
+    public Permission getPermission(String workspace, String repository) throws ClientException {
+        FetchedRepository fetched = repositories.get(key(workspace, repository));
+        return fetched != null ? fetched.permission : delegate.getPermission(workspace, repository);
+    }
+
+    @Override
+    public Map<GroupInfo, Permission> getGroupsPermissions(String workspace, String repository) throws ClientException {
+        FetchedRepository fetched = settings(workspace, repository);
+        return fetched != null ? new HashMap<>(fetched.groupsPermissions) : delegate.getGroupsPermissions(workspace, repository);
+    }
+
+    @Override
+    public Collection<GroupInfo> getGroups(String workspace) throws ClientException {
+        return delegate.getGroups(workspace);
+    }
+
+    @Override
+    public void updateGroupPermission(String workspace, String repository, String groupSlug, Permission permission) throws ClientException {
+        if (!plan(workspace, repository, "update group " + groupSlug + " permission to " + permission, //
+                () -> delegate.updateGroupPermission(workspace, repository, groupSlug, permission))) {
+            delegate.updateGroupPermission(workspace, repository, groupSlug, permission);
+        }
+    }
+
+    @Override
+    public void deleteGroupPermission(String workspace, String repository, String groupSlug) throws ClientException {
+        if (!plan(workspace, repository, "delete group " + groupSlug + " permission", //
+                () -> delegate.deleteGroupPermission(workspace, repository, groupSlug))) {
+            delegate.deleteGroupPermission(workspace, repository, groupSlug);
+        }
+    }
+
+    @Override
+    public UserPermission getUserPermission(String workspace, String repository, String username) throws ClientException {
+        FetchedRepository fetched = settings(workspace, repository);
+        UserPermission permission = fetched != null ? fetched.usersPermissions.get(username) : null;
+        return permission != null ? permission : delegate.getUserPermission(workspace, repository, username);
+    }
+
+    @Override
+    public void updateUserPermission(String workspace, String repository, String userId, Permission permission) throws ClientException {
+        if (!plan(workspace, repository, "update user " + userId + " permission to " + permission, //
+                () -> delegate.updateUserPermission(workspace, repository, userId, permission))) {
+            delegate.updateUserPermission(workspace, repository, userId, permission);
+        }
+    }
+
+    @Override
+    public List<BranchRestriction> getBranchRestrictions(String workspace, String repository) throws ClientException {
+        FetchedRepository fetched = settings(workspace, repository);
+        return fetched != null ? new ArrayList<>(fetched.branchRestrictions) : delegate.getBranchRestrictions(workspace, repository);
+    }
+
+    @Override
+    public void updateBranchRestriction(String workspace, String repository, BranchRestriction restriction) throws ClientException {
+        String action = restriction.getId() == null ? "add" : "update";
+        String description = action + " branch restriction " + restriction.getKind() + " for " + restriction.getPattern();
+        // restrictions are independent, but updates and additions are not mixed
+        if (!plan(workspace, repository, description, () -> delegate.updateBranchRestriction(workspace, repository, restriction), action + " branch restrictions")) {
+            delegate.updateBranchRestriction(workspace, repository, restriction);
+        }
+    }
+
+    @Override
+    public List<Webhook> getWebhooks(String workspace, String repository, String... names) throws ClientException {
+        FetchedRepository fetched = settings(workspace, repository);
+        if (fetched == null) {
+            return delegate.getWebhooks(workspace, repository, names);
+        }
+        List<String> descriptions = Arrays.asList(names);
+        return fetched.webhooks.stream() //
+                .filter(webhook -> descriptions.isEmpty() || descriptions.contains(webhook.getDescription())) //
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void updateWebhook(String workspace, String repository, Webhook webhook) throws ClientException {
+        if (!plan(workspace, repository, "update webhook " + webhook.getDescription(), () -> delegate.updateWebhook(workspace, repository, webhook))) {
+            delegate.updateWebhook(workspace, repository, webhook);
+        }
+    }
+
+    @Override
+    public void addWebHook(String workspace, String repository, Webhook webhook) throws ClientException {
+        if (!plan(workspace, repository, "add webhook " + webhook.getDescription(), () -> delegate.addWebHook(workspace, repository, webhook))) {
+            delegate.addWebHook(workspace, repository, webhook);
+        }
+    }
+
+    @Override
+    public void deleteWebhook(String workspace, String repository, String webhookId) throws ClientException {
+        if (!plan(workspace, repository, "delete webhook " + webhookId, () -> delegate.deleteWebhook(workspace, repository, webhookId))) {
+            delegate.deleteWebhook(workspace, repository, webhookId);
+        }
+    }
+}
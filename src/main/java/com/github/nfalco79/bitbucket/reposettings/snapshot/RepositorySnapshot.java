@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.snapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserPermission;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+
+/**
+ * The settings of a repository at the time of the snapshot.
+ */
+public class RepositorySnapshot {
+
+    private Repository repository;
+    private Permission permission;
+    private Map<String, Permission> groupsPermissions = new HashMap<>();
+    private Map<String, UserPermission> usersPermissions = new HashMap<>();
+    private List<BranchRestriction> branchRestrictions = new ArrayList<>();
+    private List<Webhook> webhooks = new ArrayList<>();
+
+    public Repository getRepository() {
+        return repository;
+    }
+
+    public void setRepository(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Returns the privilege of the user that exported the snapshot.
+     *
+     * @return the privilege on this repository
+     */
+    public Permission getPermission() {
+        return permission;
+    }
+
+    public void setPermission(Permission permission) {
+        this.permission = permission;
+    }
+
+    /**
+     * Returns the groups privilege.
+     *
+     * @return a map of privilege by group slug
+     */
+    public Map<String, Permission> getGroupsPermissions() {
+        return groupsPermissions;
+    }
+
+    public void setGroupsPermissions(Map<String, Permission> groupsPermissions) {
+        this.groupsPermissions = groupsPermissions;
+    }
+
+    /**
+     * Returns the users privilege, only users that appear in the access rules
+     * are exported.
+     *
+     * @return a map of privilege by username
+     */
+    public Map<String, UserPermission> getUsersPermissions() {
+        return usersPermissions;
+    }
+
+    public void setUsersPermissions(Map<String, UserPermission> usersPermissions) {
+        this.usersPermissions = usersPermissions;
+    }
+
+    public List<BranchRestriction> getBranchRestrictions() {
+        return branchRestrictions;
+    }
+
+    public void setBranchRestrictions(List<BranchRestriction> branchRestrictions) {
+        this.branchRestrictions = branchRestrictions;
+    }
+
+    public List<Webhook> getWebhooks() {
+        return webhooks;
+    }
+
+    public void setWebhooks(List<Webhook> webhooks) {
+        this.webhooks = webhooks;
+    }
+}
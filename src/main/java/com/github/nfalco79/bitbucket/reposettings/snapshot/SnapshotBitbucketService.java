@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.UserPermission;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+
+/**
+ * Implementation that reads all data from a workspace snapshot without any
+ * network access.
+ * <p>
+ * Write operations are not applied, they are only collected as the planned
+ * changes to the workspace.
+ */
+public class SnapshotBitbucketService implements BitbucketService {
+
+    private final Logger log = Logger.getLogger("offline");
+    private final WorkspaceSnapshot snapshot;
+    private final Map<String, RepositorySnapshot> repositories = new HashMap<>();
+    private final Map<String, GroupInfo> groups = new HashMap<>();
+    private final List<String> changes = Collections.synchronizedList(new ArrayList<>());
+
+    public SnapshotBitbucketService(WorkspaceSnapshot snapshot) {
+        this.snapshot = snapshot;
+        for (RepositorySnapshot repository : snapshot.getRepositories()) {
+            repositories.put(repository.getRepository().getSlug(), repository);
+        }
+        for (GroupInfo group : snapshot.getGroups()) {
+            groups.put(group.getSlug(), group);
+        }
+    }
+
+    /**
+     * Returns the write operations requested until now.
+     *
+     * @return the list of changes that will be applied to the workspace
+     */
+    public List<String> getPlannedChanges() {
+        synchronized (changes) {
+            return new ArrayList<>(changes);
+        }
+    }
+
+    private RepositorySnapshot repository(String workspace, String slug) throws ClientException {
+        RepositorySnapshot repository = repositories.get(slug);
+        if (repository == null || !snapshot.getWorkspace().equals(workspace)) {
+            throw new IllegalArgumentException("Repository " + workspace + "/" + slug + " is not in the snapshot");
+        }
+        return repository;
+    }
+
+    private void plan(String repository, String change) {
+        changes.add(repository + ": " + change);
+        log.log(Level.FINE, "{0}: {1}", new Object[] { repository, change });
+    }
+
+    @Override
+    public UserInfo getUser() throws ClientException {
+        return snapshot.getCurrentUser();
+    }
+
+    @Override
+    public UserInfo getUser(String username) throws ClientException {
+        return snapshot.getUsers().get(username);
+    }
+
+    @Override
+    public Collection<Repository> getRepositories(String workspace) throws ClientException {
+        if (!snapshot.getWorkspace().equals(workspace)) {
+            return Collections.emptyList();
+        }
+        return snapshot.getRepositories().stream() //
+                .map(RepositorySnapshot::getRepository) //
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Permission getPermission(String workspace, String repository) throws ClientException {
+        return repository(workspace, repository).getPermission();
+    }
+
+    @Override
+    public Map<GroupInfo, Permission> getGroupsPermissions(String workspace, String repository) throws ClientException {
+        Map<GroupInfo, Permission> permissions = new HashMap<>();
+        for (Entry<String, Permission> entry : repository(workspace, repository).getGroupsPermissions().entrySet()) {
+            GroupInfo group = groups.get(entry.getKey());
+            if (group != null) {
+                permissions.put(group, entry.getValue());
+            }
+        }
+        return permissions;
+    }
+
+    @Override
+    public Collection<GroupInfo> getGroups(String workspace) throws ClientException {
+        return snapshot.getWorkspace().equals(workspace) ? new ArrayList<>(snapshot.getGroups()) : Collections.emptyList();
+    }
+
+    @Override
+    public void updateGroupPermission(String workspace, String repository, String groupSlug, Permission permission) throws ClientException {
+        plan(repository, "update group " + groupSlug + " permission to " + permission);
+    }
+
+    @Override
+    public void deleteGroupPermission(String workspace, String repository, String groupSlug) throws ClientException {
+        plan(repository, "delete group " + groupSlug + " permission");
+    }
+
+    @Override
+    public UserPermission getUserPermission(String workspace, String repository, String username) throws ClientException {
+        UserPermission permission = repository(workspace, repository).getUsersPermissions().get(username);
+        if (permission == null) {
+            throw new IllegalStateException("Permission of user " + username + " on " + repository + " is not in the snapshot, export it again");
+        }
+        return permission;
+    }
+
+    @Override
+    public void updateUserPermission(String workspace, String repository, String userId, Permission permission) throws ClientException {
+        plan(repository, "update user " + userId + " permission to " + permission);
+    }
+
+    @Override
+    public List<BranchRestriction> getBranchRestrictions(String workspace, String repository) throws ClientException {
+        return new ArrayList<>(repository(workspace, repository).getBranchRestrictions());
+    }
+
+    @Override
+    public void updateBranchRestriction(String workspace, String repository, BranchRestriction restriction) throws ClientException {
+        plan(repository, (restriction.getId() == null ? "add" : "update") + " branch restriction " + restriction.getKind() + " for " + restriction.getPattern());
+    }
+
+    @Override
+    public List<Webhook> getWebhooks(String workspace, String repository, String... names) throws ClientException {
+        List<String> descriptions = Arrays.asList(names);
+        return repository(workspace, repository).getWebhooks().stream() //
+                .filter(webhook -> descriptions.isEmpty() || descriptions.contains(webhook.getDescription())) //
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void updateWebhook(String workspace, String repository, Webhook webhook) throws ClientException {
+        plan(repository, "update webhook " + webhook.getDescription());
+    }
+
+    @Override
+    public void addWebHook(String workspace, String repository, Webhook webhook) throws ClientException {
+        plan(repository, "add webhook " + webhook.getDescription());
+    }
+
+    @Override
+    public void deleteWebhook(String workspace, String repository, String webhookId) throws ClientException {
+        plan(repository, "delete webhook " + webhookId);
+    }
+}
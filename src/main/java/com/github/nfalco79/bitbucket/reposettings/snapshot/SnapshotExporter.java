@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.snapshot;
+
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.function.Function;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.util.WebhookUtil;
+
+/**
+ * Reads from Bitbucket all data needed to configure the repositories of a
+ * workspace.
+ */
+public class SnapshotExporter {
+
+    private final BitbucketService service;
+
+    public SnapshotExporter(BitbucketService service) {
+        this.service = service;
+    }
+
+    /**
+     * Takes a snapshot of the given repositories.
+     *
+     * @param workspace the workspace name
+     * @param repositories the repositories to export
+     * @param usernames returns the users to export for each repository slug
+     * @return the snapshot
+     * @throws ClientException if any error communicating to bitbucket occurs
+     */
+    public WorkspaceSnapshot export(String workspace, Collection<Repository> repositories, Function<String, Collection<String>> usernames) throws ClientException {
+        WorkspaceSnapshot snapshot = new WorkspaceSnapshot();
+        snapshot.setWorkspace(workspace);
+        snapshot.setTimestamp(System.currentTimeMillis());
+        snapshot.setCurrentUser(service.getUser());
+        snapshot.getGroups().addAll(service.getGroups(workspace));
+
+        for (Repository repository : repositories) {
+            String slug = repository.getSlug();
+
+            RepositorySnapshot repoSnapshot = new RepositorySnapshot();
+            repoSnapshot.setRepository(repository);
+            repoSnapshot.setPermission(service.getPermission(workspace, slug));
+            for (Entry<GroupInfo, Permission> entry : service.getGroupsPermissions(workspace, slug).entrySet()) {
+                repoSnapshot.getGroupsPermissions().put(entry.getKey().getSlug(), entry.getValue());
+            }
+            for (String username : usernames.apply(slug)) {
+                if (!snapshot.getUsers().containsKey(username)) {
+                    UserInfo user = service.getUser(username);
+                    if (user == null) {
+                        continue;
+                    }
+                    snapshot.getUsers().put(username, user);
+                }
+                repoSnapshot.getUsersPermissions().put(username, service.getUserPermission(workspace, slug, username));
+            }
+            repoSnapshot.getBranchRestrictions().addAll(service.getBranchRestrictions(workspace, slug));
+            repoSnapshot.getWebhooks().addAll(service.getWebhooks(workspace, slug, WebhookUtil.JENKINS_WEBHOOKS_NAMES));
+
+            snapshot.getRepositories().add(repoSnapshot);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.snapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+
+/**
+ * An offline copy of all the workspace data read to configure its
+ * repositories.
+ */
+public class WorkspaceSnapshot {
+
+    private String workspace;
+    private long timestamp;
+    private UserInfo currentUser;
+    private List<GroupInfo> groups = new ArrayList<>();
+    private Map<String, UserInfo> users = new HashMap<>();
+    private List<RepositorySnapshot> repositories = new ArrayList<>();
+
+    /**
+     * Reads a snapshot from file.
+     *
+     * @param file the JSON file of the snapshot
+     * @return the read snapshot
+     * @throws IOException if fails to read the file
+     */
+    public static WorkspaceSnapshot read(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            return newObjectMapper().readValue(is, WorkspaceSnapshot.class);
+        }
+    }
+
+    /**
+     * Writes this snapshot to file.
+     *
+     * @param file the destination file
+     * @throws IOException if fails to write the file
+     */
+    public void write(Path file) throws IOException {
+        try (OutputStream os = Files.newOutputStream(file)) {
+            newObjectMapper().writeValue(os, this);
+        }
+    }
+
+    private static ObjectMapper newObjectMapper() {
+        return new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public String getWorkspace() {
+        return workspace;
+    }
+
+    public void setWorkspace(String workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Returns when the snapshot was taken.
+     *
+     * @return the milliseconds since epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns the user that exported the snapshot.
+     *
+     * @return the user
+     */
+    public UserInfo getCurrentUser() {
+        return currentUser;
+    }
+
+    public void setCurrentUser(UserInfo currentUser) {
+        this.currentUser = currentUser;
+    }
+
+    public List<GroupInfo> getGroups() {
+        return groups;
+    }
+
+    public void setGroups(List<GroupInfo> groups) {
+        this.groups = groups;
+    }
+
+    /**
+     * Returns the users that appear in the access rules.
+     *
+     * @return a map of users by username
+     */
+    public Map<String, UserInfo> getUsers() {
+        return users;
+    }
+
+    public void setUsers(Map<String, UserInfo> users) {
+        this.users = users;
+    }
+
+    public List<RepositorySnapshot> getRepositories() {
+        return repositories;
+    }
+
+    public void setRepositories(List<RepositorySnapshot> repositories) {
+        this.repositories = repositories;
+    }
+}
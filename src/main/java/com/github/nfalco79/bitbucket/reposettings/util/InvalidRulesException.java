@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signals that a rule file is not well formed or contains invalid rules.
+ */
+public class InvalidRulesException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String source;
+    private final List<String> errors;
+
+    /**
+     * InvalidRulesException constructor.
+     *
+     * @param source the file or resource of the rules
+     * @param errors the errors, each prefixed by its line and column
+     */
+    public InvalidRulesException(String source, List<String> errors) {
+        super("Invalid rules in " + source + ":" + System.lineSeparator() + "  " + String.join(System.lineSeparator() + "  ", errors));
+        this.source = source;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
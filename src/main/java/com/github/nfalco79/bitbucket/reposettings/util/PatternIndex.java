@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * Matches a value against the patterns of many items in a single pass.
+ * <p>
+ * All positive patterns are compiled together: patterns without wildcards go
+ * in a hash map, the others are indexed in a prefix trie by the literal text
+ * before the first wildcard or in a suffix trie by the literal text after the
+ * last wildcard, whichever is longer. Walking both tries with the value gives
+ * the candidate items, only candidates whose patterns can not be decided by
+ * the index (negations or wildcards in the middle) are verified with the
+ * original predicate, so the result is always the same of testing each item
+ * in turn.
+ *
+ * @param <T> the type of matched items
+ */
+public final class PatternIndex<T> {
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private final BitSet items = new BitSet();
+
+        Node child(char c) {
+            return children.computeIfAbsent(c, k -> new Node());
+        }
+    }
+
+    private final List<T> items;
+    private final BiPredicate<T, String> predicate;
+    private final Map<String, BitSet> exact = new HashMap<>();
+    private final Node prefixes = new Node();
+    private final Node suffixes = new Node();
+    private final BitSet always = new BitSet();
+    // items whose candidacy does not imply the match
+    private final BitSet verify = new BitSet();
+
+    private PatternIndex(List<T> items, BiPredicate<T, String> predicate) {
+        this.items = new ArrayList<>(items);
+        this.predicate = predicate;
+    }
+
+    /**
+     * Compiles the patterns of all given items.
+     *
+     * @param items the items to match
+     * @param patterns returns the patterns of an item, the item matches when
+     *        any positive pattern matches and no negated pattern excludes
+     *        the value
+     * @param predicate the exact match of an item, used for candidates whose
+     *        patterns are not fully decided by the index
+     * @param <T> the type of matched items
+     * @return the compiled index
+     */
+    public static <T> PatternIndex<T> compile(List<T> items, Function<T, String[]> patterns, BiPredicate<T, String> predicate) {
+        PatternIndex<T> index = new PatternIndex<>(items, predicate);
+        for (int i = 0; i < index.items.size(); i++) {
+            index.add(i, patterns.apply(index.items.get(i)));
+        }
+        return index;
+    }
+
+    private void add(int item, String[] patterns) {
+        boolean positive = false;
+        for (String pattern : patterns) {
+            if (pattern.startsWith("!")) {
+                verify.set(item);
+                continue;
+            }
+            positive = true;
+
+            int first = firstWildcard(pattern);
+            if (first == -1) {
+                exact.computeIfAbsent(pattern, k -> new BitSet()).set(item);
+                continue;
+            }
+            int last = lastWildcard(pattern);
+            String prefix = pattern.substring(0, first);
+            String suffix = pattern.substring(last + 1);
+            if (first != last || pattern.charAt(first) != '*') {
+                // wildcards in the middle or single character wildcard
+                verify.set(item);
+            }
+
+            if (prefix.isEmpty() && suffix.isEmpty()) {
+                always.set(item);
+            } else if (prefix.length() >= suffix.length()) {
+                Node node = prefixes;
+                for (int c = 0; c < prefix.length(); c++) {
+                    node = node.child(prefix.charAt(c));
+                }
+                node.items.set(item);
+                if (!suffix.isEmpty()) {
+                    verify.set(item);
+                }
+            } else {
+                Node node = suffixes;
+                for (int c = suffix.length() - 1; c >= 0; c--) {
+                    node = node.child(suffix.charAt(c));
+                }
+                node.items.set(item);
+                if (!prefix.isEmpty()) {
+                    verify.set(item);
+                }
+            }
+        }
+        if (!positive) {
+            // only negated patterns
+            always.set(item);
+            verify.set(item);
+        }
+    }
+
+    private static int firstWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastWildcard(String pattern) {
+        for (int i = pattern.length() - 1; i >= 0; i--) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns all items that match the given value, in the same order they
+     * were compiled.
+     *
+     * @param value the value to match
+     * @return the list of matching items
+     */
+    public List<T> match(String value) {
+        BitSet candidates = (BitSet) always.clone();
+        BitSet exactItems = exact.get(value);
+        if (exactItems != null) {
+            candidates.or(exactItems);
+        }
+
+        Node node = prefixes;
+        candidates.or(node.items);
+        for (int i = 0; i < value.length() && node != null; i++) {
+            node = node.children.get(value.charAt(i));
+            if (node != null) {
+                candidates.or(node.items);
+            }
+        }
+
+        node = suffixes;
+        candidates.or(node.items);
+        for (int i = value.length() - 1; i >= 0 && node != null; i--) {
+            node = node.children.get(value.charAt(i));
+            if (node != null) {
+                candidates.or(node.items);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<T> result = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            T item = items.get(i);
+            if (!verify.get(i) || predicate.test(item, value)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns if any item matches the given value.
+     *
+     * @param value the value to match
+     * @return {@code true} if at least one item matches
+     */
+    public boolean anyMatch(String value) {
+        return !match(value).isEmpty();
+    }
+}
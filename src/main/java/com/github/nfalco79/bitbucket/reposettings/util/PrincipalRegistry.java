@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+
+/**
+ * Keeps one canonical instance of each group and user.
+ * <p>
+ * Every read from Bitbucket returns new copies of the same principals,
+ * interned copies are discarded so that all repositories share the same
+ * objects, and equality checks between them succeed on identity before
+ * comparing any field. Groups are identified by workspace and slug, users by
+ * UUID.
+ */
+public class PrincipalRegistry {
+
+    private final ConcurrentMap<String, GroupInfo> groups = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, UserInfo> users = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the canonical instance of the given group.
+     *
+     * @param workspace the workspace of the group
+     * @param group the group read from Bitbucket
+     * @return the first instance registered with the same slug
+     */
+    public GroupInfo intern(String workspace, GroupInfo group) {
+        if (group == null || group.getSlug() == null) {
+            return group;
+        }
+        GroupInfo canonical = groups.putIfAbsent(workspace + '/' + group.getSlug(), group);
+        return canonical != null ? canonical : group;
+    }
+
+    /**
+     * Returns the canonical instance of the given user.
+     *
+     * @param user the user read from Bitbucket
+     * @return the first instance registered with the same UUID
+     */
+    public UserInfo intern(UserInfo user) {
+        if (user == null || user.getUUID() == null) {
+            return user;
+        }
+        UserInfo canonical = users.putIfAbsent(user.getUUID(), user);
+        return canonical != null ? canonical : user;
+    }
+
+    /**
+     * Replaces each group with its canonical instance.
+     *
+     * @param workspace the workspace of the groups
+     * @param groups the groups read from Bitbucket
+     * @return a new list of canonical groups in the same order
+     */
+    public List<GroupInfo> intern(String workspace, Collection<GroupInfo> groups) {
+        List<GroupInfo> interned = new ArrayList<>(groups.size());
+        for (GroupInfo group : groups) {
+            interned.add(intern(workspace, group));
+        }
+        return interned;
+    }
+
+    /**
+     * Replaces each group key with its canonical instance.
+     *
+     * @param workspace the workspace of the groups
+     * @param map values by group read from Bitbucket
+     * @param <V> the value type
+     * @return a new map with canonical keys in the same order
+     */
+    public <V> Map<GroupInfo, V> internKeys(String workspace, Map<GroupInfo, V> map) {
+        Map<GroupInfo, V> interned = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+        map.forEach((group, value) -> interned.put(intern(workspace, group), value));
+        return interned;
+    }
+
+    /**
+     * Returns the number of registered principals.
+     *
+     * @return the count of groups and users
+     */
+    public int size() {
+        return groups.size() + users.size();
+    }
+
+    /**
+     * Forgets all canonical instances, so that renamed principals are
+     * registered again.
+     */
+    public void clear() {
+        groups.clear();
+        users.clear();
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.rule.AccessRule;
+import com.github.nfalco79.bitbucket.reposettings.rule.BranchPermissionGroupRule;
+import com.github.nfalco79.bitbucket.reposettings.rule.BranchPermissionRule;
+import com.github.nfalco79.bitbucket.reposettings.rule.BranchPermissionUserRule;
+import com.github.nfalco79.bitbucket.reposettings.rule.RepositoryAccessRule;
+
+/**
+ * Reads rule files from the JSON token stream.
+ * <p>
+ * Rules are validated and appended to the result one at a time while the file
+ * is read, the whole document is never held in memory. Repository access
+ * rules, which can list tens of thousands of users, are read field by field so
+ * that every user and group entry is checked at its own position. Invalid
+ * entries do not stop the parsing, all errors are reported together with their
+ * line and column; a malformed document stops at the first syntax error.
+ */
+public class RuleParser {
+
+    // errors listed before giving up
+    private static final int MAX_ERRORS = 50;
+
+    private final ObjectMapper objectMapper;
+
+    public RuleParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    private interface EntryReader<T> {
+        T read(Context context) throws IOException;
+    }
+
+    /**
+     * Reads the repository access rules.
+     *
+     * @param is the JSON content, not closed
+     * @param source the name of the content reported in errors
+     * @return the rules in the order of the file
+     * @throws InvalidRulesException if the content is malformed or contains
+     *         invalid rules
+     * @throws IOException if couldn't read the content
+     */
+    public List<RepositoryAccessRule> parseRepositoryRules(InputStream is, String source) throws IOException {
+        return parse(is, source, this::readRepositoryRule);
+    }
+
+    /**
+     * Reads the branch permission rules.
+     *
+     * @param is the JSON content, not closed
+     * @param source the name of the content reported in errors
+     * @return the rules in the order of the file
+     * @throws InvalidRulesException if the content is malformed or contains
+     *         invalid rules
+     * @throws IOException if couldn't read the content
+     */
+    public List<BranchPermissionRule> parseBranchRules(InputStream is, String source) throws IOException {
+        return parse(is, source, this::readBranchRule);
+    }
+
+    private <T> List<T> parse(InputStream is, String source, EntryReader<T> reader) throws IOException {
+        List<T> rules = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(is)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            Context context = new Context(parser, source);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw context.fail("expected an array of rules");
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                T rule = reader.read(context);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+            if (parser.nextToken() != null) {
+                throw context.fail("unexpected content after the rules");
+            }
+            context.check();
+        } catch (JsonProcessingException e) {
+            JsonLocation location = e.getLocation();
+            List<String> errors = new ArrayList<>();
+            errors.add(format(location, e.getOriginalMessage()));
+            throw new InvalidRulesException(source, errors);
+        }
+        return rules;
+    }
+
+    /*
+     * Keep in sync with the properties of RepositoryAccessRule.
+     */
+    private RepositoryAccessRule readRepositoryRule(Context context) throws IOException {
+        JsonParser parser = context.parser;
+        JsonLocation start = parser.getTokenLocation();
+        if (!context.expect(JsonToken.START_OBJECT, "a repository access rule")) {
+            return null;
+        }
+        RepositoryAccessRule rule = new RepositoryAccessRule();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonLocation location = parser.getTokenLocation();
+            parser.nextToken();
+            switch (field) {
+            case "repositoryPatterns":
+                rule.setRepositoryPatterns(context.value(String.class, field));
+                break;
+            case "comment":
+                rule.setComment(context.value(String.class, field));
+                break;
+            case "inherited":
+                Boolean inherited = context.value(Boolean.class, field);
+                if (inherited != null) {
+                    rule.setInherited(inherited);
+                }
+                break;
+            case "users":
+                rule.setUsers(readAccessRules(context, field));
+                break;
+            case "groups":
+                rule.setGroups(readAccessRules(context, field));
+                break;
+            default:
+                context.error(location, "unknown property " + field);
+                parser.skipChildren();
+            }
+        }
+        if (isBlank(rule.getRepositoryPatterns())) {
+            context.error(start, "repositoryPatterns is required");
+        }
+        return rule;
+    }
+
+    private List<AccessRule> readAccessRules(Context context, String field) throws IOException {
+        JsonParser parser = context.parser;
+        List<AccessRule> rules = new ArrayList<>();
+        if (!context.expect(JsonToken.START_ARRAY, "an array for " + field)) {
+            return rules;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            JsonLocation start = parser.getTokenLocation();
+            if (!context.expect(JsonToken.START_OBJECT, "an access rule")) {
+                continue;
+            }
+            AccessRule rule = new AccessRule();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonLocation location = parser.getTokenLocation();
+                parser.nextToken();
+                if ("pattern".equals(name)) {
+                    rule.setPattern(context.value(String.class, name));
+                } else if ("privilege".equals(name)) {
+                    rule.setPrivilege(context.privilege());
+                } else {
+                    context.error(location, "unknown property " + name);
+                    parser.skipChildren();
+                }
+            }
+            if (isBlank(rule.getPattern())) {
+                context.error(start, "pattern is required");
+            } else if (rule.getPrivilege() == null) {
+                context.error(start, "privilege is required for " + rule.getPattern());
+            } else {
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    private BranchPermissionRule readBranchRule(Context context) throws IOException {
+        JsonParser parser = context.parser;
+        JsonLocation start = parser.getTokenLocation();
+        if (!context.expect(JsonToken.START_OBJECT, "a branch permission rule")) {
+            return null;
+        }
+        // branch rules are few and small, bind them as a whole
+        BranchPermissionRule rule = objectMapper.readValue(parser, BranchPermissionRule.class);
+        if (isBlank(rule.getRepositoryPatterns())) {
+            context.error(start, "repositoryPatterns is required");
+        }
+        if (isBlank(rule.getBranchPatterns())) {
+            context.error(start, "branchPatterns is required");
+        }
+        if (rule.getMinApprovals() != null && rule.getMinApprovals() < 0) {
+            context.error(start, "minApprovals must not be negative");
+        }
+        if (rule.getSuccessBuilds() != null && rule.getSuccessBuilds() < 0) {
+            context.error(start, "successBuilds must not be negative");
+        }
+        for (BranchPermissionUserRule user : rule.getUsers()) {
+            if (isBlank(user.getUUID()) && isBlank(user.getUsername())) {
+                context.error(start, "uuid or username is required for user " + user);
+            }
+        }
+        for (BranchPermissionGroupRule group : rule.getGroups()) {
+            if (isBlank(group.getPattern())) {
+                context.error(start, "pattern is required for group " + group);
+            }
+        }
+        return rule;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static String format(JsonLocation location, String message) {
+        return location == null ? message : "line " + location.getLineNr() + ", column " + location.getColumnNr() + ": " + message;
+    }
+
+    /*
+     * The state of the file being parsed.
+     */
+    private final class Context {
+        private final JsonParser parser;
+        private final String source;
+        private final List<String> errors = new ArrayList<>();
+        // privileges are repeated many times
+        private final Map<String, Permission> privileges = new HashMap<>();
+
+        private Context(JsonParser parser, String source) {
+            this.parser = parser;
+            this.source = source;
+        }
+
+        void error(JsonLocation location, String message) throws InvalidRulesException {
+            errors.add(format(location, message));
+            if (errors.size() >= MAX_ERRORS) {
+                errors.add("too many errors");
+                throw new InvalidRulesException(source, errors);
+            }
+        }
+
+        InvalidRulesException fail(String message) {
+            errors.add(format(parser.getTokenLocation(), message));
+            return new InvalidRulesException(source, errors);
+        }
+
+        void check() throws InvalidRulesException {
+            if (!errors.isEmpty()) {
+                throw new InvalidRulesException(source, errors);
+            }
+        }
+
+        /*
+         * Skips the current value when it is not of the expected type.
+         */
+        boolean expect(JsonToken token, String what) throws IOException {
+            if (parser.currentToken() == token) {
+                return true;
+            }
+            error(parser.getTokenLocation(), "expected " + what);
+            parser.skipChildren();
+            return false;
+        }
+
+        /*
+         * Binds a scalar value with the same coercions of the object mapper.
+         */
+        <V> V value(Class<V> type, String field) throws IOException {
+            if (!parser.currentToken().isScalarValue()) {
+                error(parser.getTokenLocation(), "expected a value for " + field);
+                parser.skipChildren();
+                return null;
+            }
+            try {
+                return objectMapper.readValue(parser, type);
+            } catch (JsonMappingException e) {
+                error(parser.getTokenLocation(), "invalid value for " + field + ": " + parser.getText());
+                return null;
+            }
+        }
+
+        Permission privilege() throws IOException {
+            String key = parser.getText();
+            Permission privilege = privileges.get(key);
+            if (privilege == null) {
+                privilege = value(Permission.class, "privilege");
+                if (privilege != null) {
+                    privileges.put(key, privilege);
+                }
+            }
+            return privilege;
+        }
+    }
+}
@@ -15,33 +15,54 @@
  */
 package com.github.nfalco79.bitbucket.reposettings.util;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.nfalco79.bitbucket.reposettings.rule.BranchPermissionRule;
 import com.github.nfalco79.bitbucket.reposettings.rule.RepositoryAccessRule;
 
 /**
  * Utility class to read JSON files.
+ * <p>
+ * A rule source is a URL, a classpath resource, a file, a directory or a glob
+ * of files. The JSON files of a directory or a glob are merged in the order of
+ * their paths. Each file is read again only when its modification time or
+ * size changed, and the rules of files whose content is the same keep their
+ * instances between reads. Files are parsed and validated as a stream by
+ * {@link RuleParser}.
  */
 public class RulesReader {
 
-    private String repositoryAccess;
-    private String branchPermission;
-    private ObjectMapper objectMapper;
+    private final RuleSource<RepositoryAccessRule> repositoryAccess;
+    private final RuleSource<BranchPermissionRule> branchPermission;
+    private final RuleParser parser;
 
     public RulesReader(String repositoryAccess, String branchPermission) {
-        this.repositoryAccess = repositoryAccess;
-        this.branchPermission = branchPermission;
-        this.objectMapper = new ObjectMapper();
+        this.parser = new RuleParser(new ObjectMapper());
+        this.repositoryAccess = new RuleSource<>(repositoryAccess, parser::parseRepositoryRules);
+        this.branchPermission = new RuleSource<>(branchPermission, parser::parseBranchRules);
     }
 
     /**
@@ -53,24 +74,7 @@ public class RulesReader {
      * @throws IOException if couldn't read file
      */
     public List<RepositoryAccessRule> getRepositoryRules() throws IOException {
-        try (InputStream inputStream = getStream(repositoryAccess)) {
-            if (inputStream == null) {
-                throw new FileNotFoundException("File " + repositoryAccess + " not found");
-            }
-
-            return objectMapper.readValue(inputStream, new TypeReference<List<RepositoryAccessRule>>() {});
-        }
-    }
-
-    private InputStream getStream(String resource) throws IOException {
-        try {
-            return new URL(resource).openStream();
-        } catch (MalformedURLException e) {
-            if (new File(resource).isFile()) {
-                return new FileInputStream(resource);
-            }
-        }
-        return getClass().getResourceAsStream(resource);
+        return repositoryAccess.read();
     }
 
     /**
@@ -82,12 +86,210 @@ public class RulesReader {
      * @throws IOException if couldn't read file
      */
     public List<BranchPermissionRule> getBranchPermissions() throws IOException {
-        try (InputStream inputStream = getStream(branchPermission)) {
-            if (inputStream == null) {
-                throw new FileNotFoundException("File " + branchPermission + " not found");
+        return branchPermission.read();
+    }
+
+    /**
+     * Returns if a rule file has been added, removed or changed since the
+     * last read. URLs and classpath resources are never reported as changed.
+     *
+     * @return {@code true} if the rules should be read again
+     * @throws IOException if couldn't list the files of a source
+     */
+    public boolean isModified() throws IOException {
+        return repositoryAccess.isModified() || branchPermission.isModified();
+    }
+
+    /*
+     * Returns the files of a directory or glob source, sorted by path, or
+     * null when the source is not one of them.
+     */
+    private static List<Path> listFiles(String source) throws IOException {
+        Path path;
+        try {
+            path = Paths.get(source);
+        } catch (RuntimeException e) {
+            // not a valid path, for example a glob on Windows
+            path = null;
+        }
+        if (path != null && Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                return files.filter(file -> file.getFileName().toString().endsWith(".json")) //
+                        .filter(Files::isRegularFile) //
+                        .sorted() //
+                        .collect(Collectors.toList());
+            }
+        }
+
+        int wildcard = indexOfWildcard(source);
+        if (wildcard < 0) {
+            return null;
+        }
+        int separator = Math.max(source.lastIndexOf('/', wildcard), source.lastIndexOf('\\', wildcard));
+        Path base = Paths.get(separator < 0 ? "" : source.substring(0, separator + 1));
+        if (!Files.isDirectory(base)) {
+            return Collections.emptyList();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + source);
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(matcher::matches) //
+                    .filter(Files::isRegularFile) //
+                    .sorted() //
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOfWildcard(String source) {
+        for (int i = 0; i < source.length(); i++) {
+            if ("*?[{".indexOf(source.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isURL(String source) {
+        try {
+            new URL(source);
+            return true;
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface Parser<T> {
+        List<T> parse(InputStream is, String source) throws IOException;
+    }
+
+    /*
+     * The rules parsed from a file, with the attributes used to find out if
+     * it changed.
+     */
+    private static final class Fragment<T> {
+        private final long modified;
+        private final long size;
+        private final byte[] digest;
+        private final List<T> rules;
+
+        private Fragment(long modified, long size, byte[] digest, List<T> rules) {
+            this.modified = modified;
+            this.size = size;
+            this.digest = digest;
+            this.rules = rules;
+        }
+    }
+
+    private final class RuleSource<T> {
+        private final String source;
+        private final Parser<T> parser;
+        private Map<String, Fragment<T>> fragments = Collections.emptyMap();
+
+        private RuleSource(String source, Parser<T> parser) {
+            this.source = source;
+            this.parser = parser;
+        }
+
+        public synchronized List<T> read() throws IOException {
+            Map<String, Fragment<T>> loaded = new LinkedHashMap<>();
+            List<Path> files = isURL(source) ? null : resolve();
+            if (files == null) {
+                try (InputStream is = openStream()) {
+                    loaded.put(source, load(source, is, -1, -1));
+                }
+            } else if (files.isEmpty()) {
+                throw new FileNotFoundException("No JSON file matches " + source);
+            } else {
+                for (Path file : files) {
+                    String key = file.toString();
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    long modified = attributes.lastModifiedTime().toMillis();
+                    Fragment<T> fragment = fragments.get(key);
+                    if (fragment == null || fragment.modified != modified || fragment.size != attributes.size()) {
+                        try (InputStream is = Files.newInputStream(file)) {
+                            fragment = load(key, is, modified, attributes.size());
+                        }
+                    }
+                    loaded.put(key, fragment);
+                }
             }
+            fragments = loaded;
 
-            return objectMapper.readValue(inputStream, new TypeReference<List<BranchPermissionRule>>() {});
+            List<T> rules = new ArrayList<>();
+            for (Fragment<T> fragment : loaded.values()) {
+                rules.addAll(fragment.rules);
+            }
+            return rules;
+        }
+
+        /*
+         * Parses the content while computing its digest, so large files are
+         * read only once.
+         */
+        private Fragment<T> load(String key, InputStream content, long modified, long size) throws IOException {
+            DigestInputStream is = new DigestInputStream(new BufferedInputStream(content), newDigest());
+            List<T> rules = parser.parse(is, key);
+            // the parser stops at the end of the rules, digest what follows
+            byte[] buffer = new byte[512];
+            while (is.read(buffer) != -1) {
+                continue;
+            }
+            byte[] digest = is.getMessageDigest().digest();
+            Fragment<T> previous = fragments.get(key);
+            if (previous != null && Arrays.equals(previous.digest, digest)) {
+                // touched but not changed, keep the instances in use
+                rules = previous.rules;
+            }
+            return new Fragment<>(modified, size, digest, rules);
+        }
+
+        public synchronized boolean isModified() throws IOException {
+            List<Path> files = isURL(source) || fragments.isEmpty() ? null : resolve();
+            if (files == null) {
+                return false;
+            }
+            if (files.size() != fragments.size()) {
+                return true;
+            }
+            for (Path file : files) {
+                Fragment<T> fragment = fragments.get(file.toString());
+                if (fragment == null) {
+                    return true;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (fragment.modified != attributes.lastModifiedTime().toMillis() || fragment.size != attributes.size()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*
+         * Returns the files of the source or null when it is a classpath
+         * resource.
+         */
+        private List<Path> resolve() throws IOException {
+            List<Path> files = listFiles(source);
+            if (files == null && Files.isRegularFile(Paths.get(source))) {
+                files = Collections.singletonList(Paths.get(source));
+            }
+            return files;
+        }
+
+        private InputStream openStream() throws IOException {
+            InputStream is = isURL(source) ? new URL(source).openStream() : RulesReader.class.getResourceAsStream(source);
+            if (is == null) {
+                throw new FileNotFoundException("File " + source + " not found");
+            }
+            return is;
         }
     }
 }
@@ -0,0 +1,19 @@
+#!/bin/sh
+#
+# Launches the CLI from the jar with dependencies. When the AppCDS archive
+# built by the appcds profile is next to the jar, the JVM maps the classes
+# from the archive instead of loading them one by one; an archive that does
+# not match the running JVM is ignored.
+#
+DIR=$(cd "$(dirname "$0")" && pwd)
+JAR="$DIR/@project.build.finalName@-jar-with-dependencies.jar"
+ARCHIVE="$DIR/@project.build.finalName@-jar-with-dependencies.jsa"
+JAVA="java"
+if [ -n "$JAVA_HOME" ]; then
+    JAVA="$JAVA_HOME/bin/java"
+fi
+
+if [ -f "$ARCHIVE" ]; then
+    exec "$JAVA" -XX:+IgnoreUnrecognizedVMOptions -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto $JAVA_OPTS -jar "$JAR" "$@"
+fi
+exec "$JAVA" $JAVA_OPTS -jar "$JAR" "$@"
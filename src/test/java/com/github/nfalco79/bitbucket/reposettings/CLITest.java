@@ -15,6 +15,9 @@
  */
 package com.github.nfalco79.bitbucket.reposettings;
 
+import java.io.IOException;
+import java.util.Locale;
+
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
@@ -36,4 +39,20 @@ public class CLITest {
         CLI.parseOptions(new String[] {"-u", "username", "-p", "pwd", "-accessRules", file, "-f", "*"});
     }
 
-}
\ No newline at end of file
+    @Test
+    public void verify_query_permission() throws Exception {
+        Locale locale = Locale.getDefault();
+        try {
+            // upper case of "write" in turkish has a dotted capital I
+            Locale.setDefault(new Locale("tr", "TR"));
+            Assertions.assertThatThrownBy(() -> IndexCLI.run(IndexCLI.QUERY_COMMAND, new String[] { "-index", "missing", "-group", "devs", "-permission", "owner" })) //
+                    .isInstanceOf(IllegalArgumentException.class) //
+                    .hasMessage("Parsing failed.  Reason: Invalid permission owner, allowed values are read, write, admin");
+            // a valid permission goes on to open the index
+            Assertions.assertThatThrownBy(() -> IndexCLI.run(IndexCLI.QUERY_COMMAND, new String[] { "-index", "missing", "-group", "devs", "-permission", "write" })) //
+                    .isInstanceOf(IOException.class);
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings;
+
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.github.nfalco79.bitbucket.reposettings.fake.FakeWorkspace;
+import com.github.nfalco79.bitbucket.reposettings.fake.FakeWorkspace.Request;
+
+/**
+ * Runs the configurator against a fake workspace to keep under control the
+ * number of client calls spent for each repository.
+ * <p>
+ * Budgets count client method calls, requests added inside the real client,
+ * like extra pages, are not detected.
+ */
+public class RepoSettingsConfiguratorCallBudgetTest {
+
+    private static final int REPOSITORIES = 200;
+    // getPermission, getGroupsPermissions, getBranchRestrictions, getWebhooks
+    private static final int READS_PER_REPOSITORY = 4;
+    // 9 restrictions for the 2 branch patterns, 2 groups and the webhook
+    private static final int WRITES_PER_REPOSITORY = 9 * 2 + 2 + 1;
+
+    private String workspace = "user1";
+
+    private RepoSettingsInfo newConfiguration() {
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setParallelism(8);
+        configuration.setRetryBackoff(0);
+        return configuration;
+    }
+
+    @Test
+    public void verify_call_budget_per_repository() throws Exception {
+        FakeWorkspace fake = FakeWorkspace.workspace(workspace, "prj1", REPOSITORIES, 5).latency(1);
+
+        new RepoSettingsConfigurator(newConfiguration(), fake.client()).exec();
+
+        Map<String, Long> reads = fake.countByRepository(r -> !r.isWrite());
+        Map<String, Long> writes = fake.countByRepository(Request::isWrite);
+        Assertions.assertThat(reads).hasSize(REPOSITORIES);
+        Assertions.assertThat(reads.values()).allMatch(count -> count <= READS_PER_REPOSITORY);
+        Assertions.assertThat(writes.values()).allMatch(count -> count <= WRITES_PER_REPOSITORY);
+        Assertions.assertThat(fake.count("getRepositories")).isEqualTo(1);
+        Assertions.assertThat(fake.count("getGroups")).isEqualTo(1);
+    }
+
+    @Test
+    public void verify_configured_workspace_requires_only_reads() throws Exception {
+        FakeWorkspace fake = FakeWorkspace.workspace(workspace, "prj1", REPOSITORIES, 5);
+        new RepoSettingsConfigurator(newConfiguration(), fake.client()).exec();
+        fake.reset();
+
+        new RepoSettingsConfigurator(newConfiguration(), fake.client()).exec();
+
+        Assertions.assertThat(fake.getRequests()).noneMatch(Request::isWrite);
+        Assertions.assertThat(fake.countByRepository(r -> true).values()).allMatch(count -> count == READS_PER_REPOSITORY);
+    }
+
+    @Test
+    public void verify_throttled_writes_converge() throws Exception {
+        FakeWorkspace fake = FakeWorkspace.workspace(workspace, "prj1", REPOSITORIES, 5) //
+                .throttle(0.1, "updateBranchRestriction", "addWebHook");
+        new RepoSettingsConfigurator(newConfiguration(), fake.client()).exec();
+        Assertions.assertThat(fake.getRequests()).anyMatch(Request::isThrottled);
+        fake.reset();
+
+        new RepoSettingsConfigurator(newConfiguration(), fake.client()).exec();
+
+        Assertions.assertThat(fake.getRequests()).noneMatch(Request::isWrite);
+    }
+}
@@ -15,23 +15,39 @@
  */
 package com.github.nfalco79.bitbucket.reposettings;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.times;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.nfalco79.bitbucket.client.BitbucketCloudClient;
+import com.github.nfalco79.bitbucket.client.ClientException;
 import com.github.nfalco79.bitbucket.client.model.BitbucketObject;
 import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
 import com.github.nfalco79.bitbucket.client.model.BranchRestriction.Builder;
@@ -39,9 +55,16 @@ import com.github.nfalco79.bitbucket.client.model.GroupInfo;
 import com.github.nfalco79.bitbucket.client.model.Permission;
 import com.github.nfalco79.bitbucket.client.model.Repository;
 import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+import com.github.nfalco79.bitbucket.reposettings.ReconcileResult.Status;
+import com.github.nfalco79.bitbucket.reposettings.exec.RolloutHaltedException;
+import com.github.nfalco79.bitbucket.reposettings.log.RepositoryLogRecord;
 
 public class RepoSettingsConfiguratorTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private String workspace = "user1";
 
     @Test
@@ -69,6 +92,342 @@ public class RepoSettingsConfiguratorTest {
         Mockito.verify(client).updateGroupPermission(workspace, repository, group, Permission.WRITE);
     }
 
+    @Test
+    public void conflicting_access_rules_fail_before_any_write() throws Exception {
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/conflicting-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository("prj1.repo1"), new Repository("prj1.prod.repo2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        RepoSettingsConfigurator configurator = new RepoSettingsConfigurator(configuration, client);
+        Assertions.assertThatThrownBy(configurator::exec) //
+                .isInstanceOf(IllegalArgumentException.class) //
+                .hasMessageContaining("prj1.prod.repo2") //
+                .hasMessageNotContaining("prj1.repo1");
+
+        Mockito.verify(client, Mockito.never()).getGroupsPermissions(Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(client, Mockito.never()).updateGroupPermission(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    public void hung_repository_times_out_without_block_the_others() throws Exception {
+        String hung = "prj1.prod.repo2";
+        String repository = "prj1.prod.repo3";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setRepositoryTimeout(1);
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(hung), new Repository(repository)));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+        Mockito.when(client.getBranchRestrictions(workspace, hung)).thenAnswer(invocation -> {
+            Thread.sleep(60000);
+            return Collections.emptyList();
+        });
+
+        long start = System.currentTimeMillis();
+        new RepoSettingsConfigurator(configuration, client).exec();
+        Assertions.assertThat(System.currentTimeMillis() - start).isLessThan(30000);
+
+        Mockito.verify(client, atLeastOnce()).updateGroupPermission(eq(workspace), eq(repository), Mockito.anyString(), any());
+        Mockito.verify(client, Mockito.never()).updateGroupPermission(eq(workspace), eq(hung), Mockito.anyString(), any());
+
+        ReconcileResult result = new RepoSettingsConfigurator(configuration, client).reconcile(hung);
+        Assertions.assertThat(result.getStatus()).isEqualTo(Status.TIMED_OUT);
+        Assertions.assertThat(result.getError()).hasMessageContaining(hung);
+    }
+
+    @Test
+    public void branch_restrictions_are_applied_concurrently_updates_first() throws Exception {
+        String repository = "prj1.prod.repo2";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setMinApprovals(2);
+        configuration.setRepositoryWriteConcurrency(3);
+        // the write lane allows more than the repository limit
+        configuration.setWriteConcurrency(8);
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(repository)));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(repository)).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+        BranchRestriction existing = Builder.newMinApprovalsPermission("support/*", 5);
+        existing.setId(42);
+        Mockito.when(client.getBranchRestrictions(workspace, repository)).thenReturn(Arrays.asList(existing));
+
+        List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            applied.add(invocation.<BranchRestriction> getArgument(2).getId());
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return null;
+        }).when(client).updateBranchRestriction(eq(workspace), eq(repository), any(BranchRestriction.class));
+
+        new RepoSettingsConfigurator(configuration, client).exec();
+
+        Assertions.assertThat(applied).hasSize(18).first().isEqualTo(42);
+        Assertions.assertThat(applied.subList(1, applied.size())).containsOnlyNulls();
+        Assertions.assertThat(maxRunning.get()).isBetween(2, 3);
+    }
+
+    @Test
+    public void workspaces_are_processed_in_the_same_run() throws Exception {
+        String repository = "prj1.prod.repo2";
+        String otherRepository = "prj1.prod.repo3";
+        String otherWorkspace = "user2";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspaces(Arrays.asList(workspace, otherWorkspace));
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setParallelism(4);
+        // written by a run over one workspace
+        File history = folder.newFile("timings.properties");
+        Files.write(history.toPath(), Arrays.asList(workspace + '/' + repository + "=1000"));
+        configuration.setTimingHistory(history.getPath());
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(repository)));
+        Mockito.when(client.getRepositories(otherWorkspace)).thenReturn(Arrays.asList(new Repository(otherRepository), new Repository("prj1.repo1")));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1")));
+        Mockito.when(client.getGroups(otherWorkspace)).thenReturn(Arrays.asList(new GroupInfo("group2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        new RepoSettingsConfigurator(configuration, client).exec();
+
+        Mockito.verify(client).getUser();
+        Mockito.verify(client).getGroups(workspace);
+        Mockito.verify(client).getGroups(otherWorkspace);
+        // groups are not mixed between workspaces
+        Mockito.verify(client).updateGroupPermission(workspace, repository, "group1", Permission.ADMIN);
+        Mockito.verify(client, Mockito.never()).updateGroupPermission(eq(workspace), eq(repository), eq("group2"), any());
+        Mockito.verify(client).updateGroupPermission(otherWorkspace, otherRepository, "group2", Permission.WRITE);
+        Mockito.verify(client).updateGroupPermission(otherWorkspace, "prj1.repo1", "group2", Permission.WRITE);
+        Mockito.verify(client, Mockito.never()).updateGroupPermission(eq(otherWorkspace), Mockito.anyString(), eq("group1"), any());
+        // the entries of the single workspace run are updated, not duplicated
+        Properties timings = new Properties();
+        try (InputStream is = Files.newInputStream(history.toPath())) {
+            timings.load(is);
+        }
+        Assertions.assertThat(timings.stringPropertyNames()).containsExactlyInAnyOrder(workspace + '/' + repository, //
+                otherWorkspace + '/' + otherRepository, otherWorkspace + "/prj1.repo1");
+    }
+
+    @Test
+    public void same_slug_in_more_workspaces_is_rejected() throws Exception {
+        String repository = "prj1.repo1";
+        String otherWorkspace = "user2";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspaces(Arrays.asList(workspace, otherWorkspace));
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(repository)));
+        Mockito.when(client.getRepositories(otherWorkspace)).thenReturn(Arrays.asList(new Repository(repository)));
+        Mockito.when(client.getGroups(Mockito.anyString())).thenReturn(Arrays.asList(new GroupInfo("group1")));
+        // admin only in the first workspace, but the client answers by slug
+        Mockito.when(client.getPermission(repository)).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        RepoSettingsConfigurator configurator = new RepoSettingsConfigurator(configuration, client);
+        Assertions.assertThatThrownBy(configurator::exec) //
+                .isInstanceOf(IllegalArgumentException.class) //
+                .hasMessageContaining(repository) //
+                .hasMessageContaining(otherWorkspace);
+        Assertions.assertThatThrownBy(configurator::validate).isInstanceOf(IllegalArgumentException.class);
+
+        Mockito.verify(client, Mockito.never()).getPermission(Mockito.anyString());
+        Mockito.verify(client, Mockito.never()).updateGroupPermission(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    public void repositories_sharing_rules_get_their_own_restrictions() throws Exception {
+        String updated = "prj1.prod.repo2";
+        String added = "prj1.prod.repo3";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setMinApprovals(3);
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(updated), new Repository(added)));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+        BranchRestriction current = Builder.newMinApprovalsPermission("master", 1);
+        current.setId(7);
+        Mockito.when(client.getBranchRestrictions(workspace, updated)).thenReturn(Arrays.asList(current));
+
+        new RepoSettingsConfigurator(configuration, client).exec();
+
+        String kind = current.getKind();
+        ArgumentCaptor<BranchRestriction> captor = ArgumentCaptor.forClass(BranchRestriction.class);
+        Mockito.verify(client, atLeastOnce()).updateBranchRestriction(eq(workspace), eq(updated), captor.capture());
+        Assertions.assertThat(captor.getAllValues()) //
+                .filteredOn(r -> kind.equals(r.getKind()) && "master".equals(r.getPattern())) //
+                .singleElement() //
+                .satisfies(r -> {
+                    Assertions.assertThat(r.getId()).isEqualTo(7);
+                    Assertions.assertThat(r.getValue()).isEqualTo(3);
+                });
+        List<BranchRestriction> updates = new ArrayList<>(captor.getAllValues());
+
+        captor = ArgumentCaptor.forClass(BranchRestriction.class);
+        Mockito.verify(client, atLeastOnce()).updateBranchRestriction(eq(workspace), eq(added), captor.capture());
+        Assertions.assertThat(captor.getAllValues()).hasSameSizeAs(updates) //
+                .allMatch(r -> r.getId() == null) //
+                .noneMatch(r -> updates.stream().anyMatch(u -> u == r));
+    }
+
+    @Test
+    public void rule_profile_explains_the_fired_rules() throws Exception {
+        String repository = "prj1.prod.repo2";
+        File profile = folder.newFile("profile.json");
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setRuleProfile(profile.getPath());
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(repository)));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(repository)).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        new RepoSettingsConfigurator(configuration, client).exec();
+
+        JsonNode report = new ObjectMapper().readTree(profile);
+        Assertions.assertThat(report.get("rules")).isNotEmpty();
+        JsonNode explanation = report.get("repositories").get(0);
+        Assertions.assertThat(explanation.get("repository").asText()).isEqualTo(workspace + "/" + repository);
+        Assertions.assertThat(explanation.get("fired")) //
+                .extracting(fired -> fired.get("reason").asText()) //
+                .contains("repository matches prj1.*", //
+                        "group group1 matches, privilege " + Permission.ADMIN, //
+                        "group group2 matches, privilege " + Permission.WRITE, //
+                        "repository matches *, restricts master");
+    }
+
+    @Test
+    public void rule_profile_counts_each_repository_once() throws Exception {
+        File profile = folder.newFile("profile.json");
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setRuleProfile(profile.getPath());
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository("prj1.repo1"), new Repository("prj1.repo2")));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        new RepoSettingsConfigurator(configuration, client).exec();
+
+        JsonNode report = new ObjectMapper().readTree(profile);
+        Assertions.assertThat(report.get("rules")) //
+                .extracting(rule -> rule.get("rule").asText(), rule -> rule.get("evaluations").asLong(), rule -> rule.get("matches").asLong()) //
+                .containsExactlyInAnyOrder( //
+                        Assertions.tuple("prj1.*", 2L, 2L), //
+                        Assertions.tuple("prj2.*", 2L, 0L), //
+                        Assertions.tuple("prj2.prod.*", 2L, 0L), //
+                        Assertions.tuple("group1 " + Permission.ADMIN, 4L, 2L), //
+                        Assertions.tuple("group2 " + Permission.WRITE, 4L, 2L), //
+                        Assertions.tuple("* -> master", 2L, 2L), //
+                        Assertions.tuple("* -> support/*", 2L, 2L), //
+                        // push and merge of both groups in both repositories
+                        Assertions.tuple("*1 write: true merge: true", 8L, 4L));
+        // the second repository resolves the same restrictions and explains them too
+        Assertions.assertThat(report.get("repositories")).hasSize(2).allSatisfy(explanation -> Assertions.assertThat(explanation.get("fired")) //
+                .extracting(fired -> fired.get("reason").asText()) //
+                .contains("group group1 may push to master", "group group1 may merge to master"));
+    }
+
+    @Test
+    public void rollout_halts_after_a_failing_canary() throws Exception {
+        String canary = "prj1.prod.repo3";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setRetryBackoff(0);
+        configuration.setRolloutBatchSize(1);
+        configuration.setCanaries(Arrays.asList(canary));
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository("prj1.repo1"), new Repository("prj1.repo2"), new Repository(canary)));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+        ClientException failure = Mockito.mock(ClientException.class);
+        Mockito.when(failure.getStatusCode()).thenReturn(500);
+        Mockito.doThrow(failure).when(client).updateBranchRestriction(eq(workspace), eq(canary), any(BranchRestriction.class));
+
+        RepoSettingsConfigurator configurator = new RepoSettingsConfigurator(configuration, client);
+        Assertions.assertThatThrownBy(configurator::exec) //
+                .isInstanceOf(RolloutHaltedException.class) //
+                .hasMessageContaining("2 repositories not processed");
+
+        Mockito.verify(client, atLeastOnce()).updateGroupPermission(eq(workspace), eq(canary), Mockito.anyString(), any());
+        Mockito.verify(client, Mockito.never()).getBranchRestrictions(workspace, "prj1.repo1");
+        Mockito.verify(client, Mockito.never()).getBranchRestrictions(workspace, "prj1.repo2");
+    }
+
+    @Test
+    public void stale_timing_history_does_not_break_the_run() throws Exception {
+        String repository = "prj1.prod.repo2";
+        File history = folder.newFile("timings.properties");
+        Files.write(history.toPath(), Arrays.asList(workspace + "/deleted.repo=60000", workspace + '/' + repository + "=1000"));
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setTimingHistory(history.getPath());
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(repository)));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(repository)).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        new RepoSettingsConfigurator(configuration, client).exec();
+
+        Mockito.verify(client, atLeastOnce()).updateGroupPermission(eq(workspace), eq(repository), Mockito.anyString(), any());
+        Properties timings = new Properties();
+        try (InputStream is = Files.newInputStream(history.toPath())) {
+            timings.load(is);
+        }
+        Assertions.assertThat(timings.stringPropertyNames()).containsExactlyInAnyOrder(workspace + "/deleted.repo", workspace + '/' + repository);
+    }
+
     @Test
     public void test_rule_override_for_min_approvals() throws Exception {
         String repository = "prj1.prod.repo2";
@@ -159,6 +518,9 @@ public class RepoSettingsConfiguratorTest {
 
         RepoSettingsInfo configuration = new RepoSettingsInfo();
         configuration.setWorkspace(workspace);
+        // rules are validated before process any repository
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
 
         BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
         Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(repository)));
@@ -174,4 +536,203 @@ public class RepoSettingsConfiguratorTest {
         };
         configurator.exec();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void verify_throttled_branch_restriction_is_retried_at_the_end_of_run() throws Exception {
+        String repository = "prj1.prod.repo2";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/branch-min-approvals.json");
+        configuration.setRetryBackoff(0);
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(repository)));
+        Mockito.when(client.getGroupsPermissions(workspace, repository)).thenReturn(new HashMap<>());
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1")));
+        Mockito.when(client.getPermission(repository)).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        ClientException throttled = Mockito.mock(ClientException.class);
+        Mockito.when(throttled.getStatusCode()).thenReturn(429);
+        BranchRestriction minApprovals = Builder.newMinApprovalsPermission("support/*", 1);
+        Mockito.doThrow(throttled).doNothing().when(client).updateBranchRestriction(workspace, repository, minApprovals);
+
+        RepoSettingsConfigurator configurator = new RepoSettingsConfigurator(configuration, client);
+        configurator.exec();
+
+        Mockito.verify(client, times(2)).updateBranchRestriction(workspace, repository, minApprovals);
+        Mockito.verify(client, atLeastOnce()).updateBranchRestriction(eq(workspace), eq(repository), any(BranchRestriction.class));
+    }
+
+    @Test
+    public void verify_reconcile_of_single_repository_shares_caches() throws Exception {
+        String repository = "prj1.prod.repo2";
+        String otherRepository = "prj1.prod.repo3";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(repository)).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getPermission(otherRepository)).thenReturn(Permission.READ);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+
+        RepoSettingsConfigurator configurator = new RepoSettingsConfigurator(configuration, client);
+        ReconcileResult result = configurator.reconcile(repository);
+        Assertions.assertThat(result.getStatus()).isEqualTo(Status.CONFIGURED);
+        Assertions.assertThat(result.getFailures()).isEmpty();
+
+        result = configurator.reconcile(otherRepository);
+        Assertions.assertThat(result.getStatus()).isEqualTo(Status.NOT_ADMIN);
+
+        result = configurator.reconcile(repository);
+        Assertions.assertThat(result.isSuccessful()).isTrue();
+
+        Mockito.verify(client, times(1)).getGroups(workspace);
+        // credentials are verified by the first call only
+        Mockito.verify(client, times(1)).getUser();
+        Mockito.verify(client, Mockito.never()).getRepositories(workspace);
+    }
+
+    @Test
+    public void failed_run_does_not_leave_fetched_repositories() throws Exception {
+        String failing = "prj1.prod.failing";
+        // all planners busy and one more repository fetched but never planned
+        int planners = Runtime.getRuntime().availableProcessors();
+        List<Repository> repositories = new ArrayList<>();
+        for (int i = 0; i <= planners; i++) {
+            repositories.add(new Repository("prj1.prod.repo" + i));
+        }
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setReadConcurrency(4);
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        List<Repository> all = new ArrayList<>(repositories);
+        all.add(new Repository(failing));
+        Mockito.when(client.getRepositories(workspace)).thenReturn(all);
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+        AtomicInteger fetched = new AtomicInteger();
+        Mockito.when(client.getWebhooks(eq(workspace), Mockito.anyString(), any())).thenAnswer(invocation -> {
+            fetched.incrementAndGet();
+            return Collections.emptyList();
+        });
+        AtomicInteger failed = new AtomicInteger();
+        Mockito.when(client.getPermission(failing)).thenAnswer(invocation -> {
+            while (fetched.get() < repositories.size()) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            failed.incrementAndGet();
+            throw new IllegalStateException("down");
+        });
+        Mockito.when(client.getGroups(workspace)).thenAnswer(invocation -> {
+            while (failed.get() == 0) {
+                Thread.sleep(10);
+            }
+            throw new IllegalStateException("down");
+        });
+
+        RepoSettingsConfigurator configurator = new RepoSettingsConfigurator(configuration, client);
+        Assertions.assertThatThrownBy(configurator::exec).hasMessage("down");
+
+        Mockito.doReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2"))).when(client).getGroups(workspace);
+        for (Repository repository : repositories) {
+            ReconcileResult result = configurator.reconcile(repository.getSlug());
+            Assertions.assertThat(result.getStatus()).isEqualTo(Status.CONFIGURED);
+            Mockito.verify(client, atLeastOnce()).updateGroupPermission(eq(workspace), eq(repository.getSlug()), Mockito.anyString(), any());
+        }
+    }
+
+    @Test
+    public void webhook_is_logged_only_when_applied() throws Exception {
+        String failing = "prj1.prod.repo2";
+        String repository = "prj1.prod.repo3";
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setDebug(true);
+        configuration.setRetryBackoff(0);
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository(failing), new Repository(repository)));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+        ClientException error = Mockito.mock(ClientException.class);
+        Mockito.when(error.getStatusCode()).thenReturn(400);
+        Mockito.doThrow(error).when(client).addWebHook(eq(workspace), eq(failing), any(Webhook.class));
+
+        List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger("app");
+        logger.addHandler(handler);
+        try {
+            new RepoSettingsConfigurator(configuration, client).exec();
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        Mockito.verify(client).addWebHook(eq(workspace), eq(failing), any(Webhook.class));
+        Assertions.assertThat(records) //
+                .filteredOn(record -> "Set webhook {0}".equals(record.getMessage())) //
+                .extracting(record -> ((RepositoryLogRecord) record).getRepository()) //
+                .containsExactly(repository);
+    }
+
+    @Test
+    public void unlimited_lanes_fetch_repositories_concurrently() throws Exception {
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        // no limit on read and write requests
+        configuration.setParallelism(0);
+
+        BitbucketCloudClient client = Mockito.mock(BitbucketCloudClient.class);
+        Mockito.when(client.getRepositories(workspace)).thenReturn(Arrays.asList(new Repository("prj1.repo1"), new Repository("prj1.repo2"), new Repository("prj1.repo3")));
+        Mockito.when(client.getGroups(workspace)).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(client.getPermission(Mockito.anyString())).thenReturn(Permission.ADMIN);
+        Mockito.when(client.getUser()).thenReturn(Mockito.mock(UserInfo.class));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Mockito.when(client.getBranchRestrictions(eq(workspace), Mockito.anyString())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            // wait for another repository, a single worker gives up after a while
+            long end = System.currentTimeMillis() + 2000;
+            while (maxRunning.get() < 2 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            running.decrementAndGet();
+            return Collections.emptyList();
+        });
+
+        new RepoSettingsConfigurator(configuration, client).exec();
+
+        Assertions.assertThat(maxRunning.get()).isGreaterThan(1);
+    }
+}
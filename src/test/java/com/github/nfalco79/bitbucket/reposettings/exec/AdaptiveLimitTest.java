@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+    @Test
+    public void limit_grows_while_in_use_and_latency_is_flat() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 10);
+        for (int i = 0; i < 20; i++) {
+            limit.acquire();
+            limit.acquire();
+            limit.onSuccess(0, 100);
+            limit.onSuccess(0, 100);
+        }
+        Assertions.assertThat(limit.getLimit()).isGreaterThan(2).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    public void limit_does_not_grow_when_unused() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(8, 1, 10);
+        for (int i = 0; i < 50; i++) {
+            limit.acquire();
+            limit.onSuccess(0, 100);
+        }
+        Assertions.assertThat(limit.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    public void throttling_halves_the_limit_once_per_window() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(8, 1, 10);
+        limit.acquire();
+        limit.acquire();
+        limit.onThrottled(10, 100);
+        Assertions.assertThat(limit.getLimit()).isEqualTo(4);
+
+        // sent before the decrease, already accounted
+        limit.onThrottled(20, 110);
+        Assertions.assertThat(limit.getLimit()).isEqualTo(4);
+
+        limit.acquire();
+        limit.onThrottled(200, 300);
+        Assertions.assertThat(limit.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void limit_stays_in_bounds() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 3);
+        for (int i = 0; i < 10; i++) {
+            limit.acquire();
+            limit.onThrottled(i * 10 + 1, i * 10 + 5);
+        }
+        Assertions.assertThat(limit.getLimit()).isEqualTo(1);
+
+        for (int i = 0; i < 100; i++) {
+            limit.acquire();
+            if (limit.getLimit() > 1) {
+                limit.acquire();
+                limit.onSuccess(0, 100);
+            }
+            limit.onSuccess(0, 100);
+        }
+        Assertions.assertThat(limit.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    public void high_latency_lowers_the_limit() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 1, 10);
+        limit.acquire();
+        limit.onSuccess(0, 100);
+        limit.acquire();
+        limit.onSuccess(0, 1000);
+        Assertions.assertThat(limit.getLimit()).isEqualTo(9);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.DeadlineBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.LaneBitbucketService;
+
+public class DeadlineTest {
+
+    @Test
+    public void earliest_deadline_wins() {
+        Deadline run = Deadline.after("run", 1, TimeUnit.HOURS);
+        Deadline repository = Deadline.after("repository", 1, TimeUnit.MINUTES);
+
+        Assertions.assertThat(run.min(repository)).isSameAs(repository);
+        Assertions.assertThat(repository.min(run)).isSameAs(repository);
+        Assertions.assertThat(Deadline.NONE.min(run)).isSameAs(run);
+        Assertions.assertThat(run.min(Deadline.NONE)).isSameAs(run);
+        Assertions.assertThat(Deadline.after("none", 0, TimeUnit.SECONDS)).isSameAs(Deadline.NONE);
+        Assertions.assertThat(Deadline.NONE.isExpired()).isFalse();
+    }
+
+    @Test
+    public void scope_binds_the_deadline_to_the_thread() {
+        Deadline outer = Deadline.after("outer", 1, TimeUnit.MINUTES);
+        Deadline inner = Deadline.after("inner", 1, TimeUnit.SECONDS);
+
+        try (Deadline.Scope scope = outer.enter()) {
+            try (Deadline.Scope nested = inner.enter()) {
+                Assertions.assertThat(Deadline.current()).isSameAs(inner);
+            }
+            Assertions.assertThat(Deadline.current()).isSameAs(outer);
+        }
+        Assertions.assertThat(Deadline.current()).isSameAs(Deadline.NONE);
+    }
+
+    @Test
+    public void hung_call_is_abandoned_when_the_deadline_expires() throws Exception {
+        BitbucketService delegate = Mockito.mock(BitbucketService.class);
+        Mockito.when(delegate.getPermission("ws", "repo1")).thenAnswer(invocation -> {
+            Thread.sleep(60000);
+            return Permission.ADMIN;
+        });
+        Mockito.when(delegate.getPermission("ws", "repo2")).thenReturn(Permission.READ);
+        BitbucketService service = new DeadlineBitbucketService(delegate);
+
+        Deadline deadline = Deadline.after("Time budget of repo1", 100, TimeUnit.MILLISECONDS);
+        try (Deadline.Scope scope = deadline.enter()) {
+            Assertions.assertThatThrownBy(() -> service.getPermission("ws", "repo1")) //
+                    .isInstanceOf(DeadlineExceededException.class) //
+                    .hasMessageContaining("repo1") //
+                    .hasMessageContaining("getPermission");
+            // no more calls once expired
+            Assertions.assertThatThrownBy(() -> service.getPermission("ws", "repo2")).isInstanceOf(DeadlineExceededException.class);
+        }
+
+        // without deadline the call runs on the caller thread
+        Assertions.assertThat(service.getPermission("ws", "repo2")).isEqualTo(Permission.READ);
+    }
+
+    @Test
+    public void hung_calls_do_not_keep_their_lane() throws Exception {
+        CountDownLatch network = new CountDownLatch(1);
+        BitbucketService delegate = Mockito.mock(BitbucketService.class);
+        Mockito.when(delegate.getPermission(Mockito.eq("ws"), Mockito.startsWith("hung"))).thenAnswer(invocation -> {
+            // like a blocking socket read the call does not stop when interrupted
+            while (true) {
+                try {
+                    network.await();
+                    return Permission.ADMIN;
+                } catch (InterruptedException e) {
+                    // ignored
+                }
+            }
+        });
+        Mockito.when(delegate.getPermission("ws", "repo1")).thenReturn(Permission.READ);
+        int readConcurrency = 2;
+        BitbucketService service = new LaneBitbucketService(new DeadlineBitbucketService(delegate), new Lane("read", readConcurrency, 0), new Lane("write", 1, 0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(readConcurrency);
+        try {
+            for (int i = 0; i < readConcurrency; i++) {
+                String repo = "hung" + i;
+                Future<Permission> hung = executor.submit(() -> {
+                    try (Deadline.Scope scope = Deadline.after("Time budget of " + repo, 100, TimeUnit.MILLISECONDS).enter()) {
+                        return service.getPermission("ws", repo);
+                    }
+                });
+                Assertions.assertThatThrownBy(() -> hung.get(1, TimeUnit.MINUTES)).hasCauseInstanceOf(DeadlineExceededException.class);
+            }
+
+            // the calls are still hung but their permits are back in the lane
+            try (Deadline.Scope scope = Deadline.after("Time budget of repo1", 5, TimeUnit.SECONDS).enter()) {
+                Assertions.assertThat(service.getPermission("ws", "repo1")).isEqualTo(Permission.READ);
+            }
+        } finally {
+            network.countDown();
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
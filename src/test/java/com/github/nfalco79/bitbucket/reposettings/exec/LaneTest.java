@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.LaneBitbucketService;
+
+public class LaneTest {
+
+    @Test
+    public void rate_limiter_spreads_permits() throws Exception {
+        RateLimiter limiter = new RateLimiter(10);
+        long now = 0;
+        Assertions.assertThat(limiter.reserve(now)).isZero();
+        Assertions.assertThat(limiter.reserve(now)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        Assertions.assertThat(limiter.reserve(now)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+        // idle time is not accumulated as burst
+        now = TimeUnit.SECONDS.toNanos(10);
+        Assertions.assertThat(limiter.reserve(now)).isZero();
+        Assertions.assertThat(limiter.reserve(now)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void writes_do_not_exceed_their_lane_concurrency() throws Exception {
+        AtomicInteger writing = new AtomicInteger();
+        AtomicInteger maxWriting = new AtomicInteger();
+        AtomicInteger reading = new AtomicInteger();
+        AtomicInteger maxReading = new AtomicInteger();
+
+        BitbucketService delegate = Mockito.mock(BitbucketService.class);
+        Mockito.doAnswer(invocation -> {
+            maxWriting.accumulateAndGet(writing.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            writing.decrementAndGet();
+            return null;
+        }).when(delegate).deleteGroupPermission(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+        Mockito.when(delegate.getPermission(Mockito.anyString(), Mockito.anyString())).thenAnswer(invocation -> {
+            maxReading.accumulateAndGet(reading.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            reading.decrementAndGet();
+            return Permission.ADMIN;
+        });
+
+        BitbucketService service = new LaneBitbucketService(delegate, new Lane("read", 8, 0), new Lane("write", 2, 0));
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            for (int i = 0; i < 40; i++) {
+                String repo = "repo" + i;
+                executor.submit(() -> {
+                    service.deleteGroupPermission("ws", repo, "group1");
+                    return null;
+                });
+                executor.submit(() -> service.getPermission("ws", repo));
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        Assertions.assertThat(maxWriting.get()).isLessThanOrEqualTo(2);
+        Assertions.assertThat(maxReading.get()).isGreaterThan(2).isLessThanOrEqualTo(8);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class PipelineTest {
+
+    private static final List<Integer> ITEMS = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+
+    @Test
+    public void all_items_flow_through_all_stages() throws Exception {
+        List<String> consumed = new CopyOnWriteArrayList<>();
+
+        Pipeline.from(ITEMS) //
+                .then("double", 4, 2, i -> i * 2) //
+                .then("odd", 2, 2, i -> i % 4 == 0 ? null : "item" + i) //
+                .run("sink", 3, 2, consumed::add);
+
+        Assertions.assertThat(consumed).hasSize(50) //
+                .containsAll(ITEMS.stream().filter(i -> i % 2 == 1).map(i -> "item" + i * 2).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void slow_sink_bounds_items_in_flight() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        Pipeline.from(ITEMS) //
+                .then("fetch", 4, 4, i -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return i;
+                }) //
+                .run("apply", 1, 2, i -> {
+                    Thread.sleep(1);
+                    inFlight.decrementAndGet();
+                });
+
+        // queue capacity plus one item for each worker
+        Assertions.assertThat(maxInFlight.get()).isLessThanOrEqualTo(2 + 4 + 1);
+    }
+
+    @Test
+    public void first_error_stops_the_pipeline() throws Exception {
+        AtomicInteger consumed = new AtomicInteger();
+
+        Assertions.assertThatThrownBy(() -> Pipeline.from(ITEMS) //
+                .then("fetch", 2, 2, i -> {
+                    if (i == 10) {
+                        throw new IOException("failure at " + i);
+                    }
+                    return i;
+                }) //
+                .run("apply", 1, 1, i -> consumed.incrementAndGet())) //
+                .isInstanceOf(IOException.class) //
+                .hasMessage("failure at 10");
+        Assertions.assertThat(consumed.get()).isLessThan(ITEMS.size());
+    }
+
+}
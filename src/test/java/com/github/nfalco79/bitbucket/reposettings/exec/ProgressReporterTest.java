@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.assertj.core.api.Assertions;
+import org.assertj.core.data.Offset;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.exec.ProgressReporter.Progress;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+
+public class ProgressReporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void figures_since_previous_report() throws Exception {
+        BitbucketService service = Mockito.mock(BitbucketService.class);
+        ClientException throttled = Mockito.mock(ClientException.class);
+        Mockito.when(throttled.getStatusCode()).thenReturn(429);
+        Mockito.when(service.getPermission("ws", "repo1")).thenReturn(Permission.ADMIN);
+        Mockito.when(service.getPermission("ws", "repo2")).thenThrow(throttled);
+
+        Path statusFile = folder.getRoot().toPath().resolve("status.properties");
+        ProgressReporter reporter = new ProgressReporter(60000, statusFile);
+        BitbucketService metered = reporter.meter(service);
+        reporter.start(4);
+        long start = System.currentTimeMillis();
+
+        metered.getPermission("ws", "repo1");
+        metered.getPermission("ws", "repo1");
+        metered.getPermission("ws", "repo1");
+        Assertions.assertThatThrownBy(() -> metered.getPermission("ws", "repo2")).isSameAs(throttled);
+        reporter.repositoryDone();
+
+        Progress progress = reporter.progress(start + 2000);
+        Assertions.assertThat(progress.getDone()).isEqualTo(1);
+        Assertions.assertThat(progress.getTotal()).isEqualTo(4);
+        Assertions.assertThat(progress.getRequestsPerSecond()).isCloseTo(2, Offset.offset(0.1));
+        Assertions.assertThat(progress.getThrottledRate()).isEqualTo(0.25);
+        Assertions.assertThat(progress.getEta()).isBetween(5000L, 6500L);
+
+        // rates are relative to the previous report
+        metered.getPermission("ws", "repo1");
+        reporter.repositoryDone();
+        progress = reporter.progress(start + 4000);
+        Assertions.assertThat(progress.getDone()).isEqualTo(2);
+        Assertions.assertThat(progress.getRequestsPerSecond()).isCloseTo(0.5, Offset.offset(0.1));
+        Assertions.assertThat(progress.getThrottledRate()).isZero();
+
+        reporter.close();
+        Properties status = new Properties();
+        try (InputStream is = Files.newInputStream(statusFile)) {
+            status.load(is);
+        }
+        Assertions.assertThat(status.getProperty("done")).isEqualTo("2");
+        Assertions.assertThat(status.getProperty("total")).isEqualTo("4");
+        Assertions.assertThat(status).containsKeys("repositoriesPerMinute", "requestsPerSecond", "throttledRate", "eta");
+    }
+
+}
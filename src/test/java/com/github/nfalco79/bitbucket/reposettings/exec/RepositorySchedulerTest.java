@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class RepositorySchedulerTest {
+
+    @Test
+    public void verify_most_expensive_repositories_are_processed_first() throws Exception {
+        Map<String, Long> costs = new HashMap<>();
+        costs.put("small", 1L);
+        costs.put("monorepo", 100L);
+        costs.put("medium", 10L);
+
+        RepositoryScheduler scheduler = new RepositoryScheduler(costs::get);
+        Assertions.assertThat(scheduler.order(costs.keySet())).containsExactly("monorepo", "medium", "small");
+    }
+
+    @Test
+    public void verify_history_wins_over_estimated_cost() throws Exception {
+        TimingHistory history = new TimingHistory();
+        history.put("repo1", 60000);
+        history.put("repo2", 1000);
+
+        // repo1 has less rules but took more in previous run
+        Map<String, Long> units = new HashMap<>();
+        units.put("repo1", 1L);
+        units.put("repo2", 10L);
+        units.put("repo3", 5L);
+
+        List<String> repositories = Arrays.asList("repo2", "repo3", "repo1");
+        RepositoryScheduler scheduler = new RepositoryScheduler(history.withFallback(repositories, units::get));
+        Assertions.assertThat(scheduler.order(repositories)).containsExactly("repo1", "repo3", "repo2");
+    }
+
+    @Test
+    public void stale_history_entries_are_ignored_and_kept() throws Exception {
+        TimingHistory history = new TimingHistory();
+        history.put("deleted", 60000);
+        history.put("repo1", 1000);
+
+        Map<String, Long> units = new HashMap<>();
+        units.put("repo1", 1L);
+        units.put("repo2", 2L);
+
+        List<String> repositories = Arrays.asList("repo1", "repo2");
+        // the fallback knows only the repositories of the run
+        CostEstimator estimator = history.withFallback(repositories, repo -> units.computeIfAbsent(repo, k -> {
+            throw new IllegalArgumentException("Unknown repository " + k);
+        }));
+        Assertions.assertThat(new RepositoryScheduler(estimator).order(repositories)).containsExactly("repo2", "repo1");
+
+        // a filtered run must not lose the timings of the other repositories
+        Assertions.assertThat(history.get("deleted")).isEqualTo(60000);
+        Assertions.assertThat(history.get("repo1")).isEqualTo(1000);
+    }
+}
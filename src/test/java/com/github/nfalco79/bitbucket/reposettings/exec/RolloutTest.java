@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+
+public class RolloutTest {
+
+    @Test
+    public void canaries_go_in_the_first_batch() {
+        Rollout rollout = new Rollout(2, 0, 0.1, 0.2, Arrays.asList("*.web", "core"));
+
+        Assertions.assertThat(rollout.batches(Arrays.asList("a", "core", "b", "c.web", "d", "e"))) //
+                .containsExactly(Arrays.asList("core", "c.web"), Arrays.asList("a", "b"), Arrays.asList("d", "e"));
+
+        Rollout unbounded = new Rollout(0, 0, 0.1, 0.2, Collections.singletonList("core"));
+        Assertions.assertThat(unbounded.batches(Arrays.asList("a", "core", "b"))) //
+                .containsExactly(Arrays.asList("core"), Arrays.asList("a", "b"));
+    }
+
+    @Test
+    public void canaries_match_the_slug_of_qualified_names() {
+        Rollout rollout = new Rollout(0, 0, 0.1, 0.2, Arrays.asList("*.web", "ws2/core", "!ws1/b.web"));
+
+        Assertions.assertThat(rollout.batches(Arrays.asList("ws1/a.web", "ws1/core", "ws2/core", "ws1/b.web", "ws2/b.web"))) //
+                .containsExactly(Arrays.asList("ws1/a.web", "ws2/core", "ws2/b.web"), Arrays.asList("ws1/core", "ws1/b.web"));
+    }
+
+    @Test
+    public void batch_over_thresholds_halts_the_rollout() throws Exception {
+        BitbucketService service = Mockito.mock(BitbucketService.class);
+        ClientException throttled = Mockito.mock(ClientException.class);
+        Mockito.when(throttled.getStatusCode()).thenReturn(429);
+        Mockito.doThrow(throttled).when(service).updateGroupPermission("ws", "throttled", "devs", Permission.WRITE);
+
+        Rollout rollout = new Rollout(1, 0, 0.5, 0.2, Collections.emptyList());
+        BitbucketService metered = rollout.meter(service);
+
+        rollout.startBatch();
+        for (int i = 0; i < 4; i++) {
+            metered.updateGroupPermission("ws", "repo", "devs", Permission.WRITE);
+        }
+        Assertions.assertThat(rollout.endBatch(1, 2)).isNull();
+
+        rollout.startBatch();
+        metered.updateGroupPermission("ws", "repo", "devs", Permission.WRITE);
+        metered.updateGroupPermission("ws", "repo", "devs", Permission.WRITE);
+        Assertions.assertThatThrownBy(() -> metered.updateGroupPermission("ws", "throttled", "devs", Permission.WRITE)) //
+                .isSameAs(throttled);
+        // one failed write of three is under the error threshold, not the throttled one
+        Assertions.assertThat(rollout.endBatch(2, 2)).startsWith("throttled requests of batch 2 are 33.3%");
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.exec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+
+public class SingleFlightTest {
+
+    private static void awaitParked(Thread thread) {
+        while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void concurrent_loads_share_one_call() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> flight.get("ws", () -> {
+                calls.incrementAndGet();
+                while (release.getCount() > 0) {
+                    Thread.yield();
+                }
+                return "groups";
+            }));
+            while (!flight.isLoading("ws")) {
+                Thread.yield();
+            }
+
+            List<String> results = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> followers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Thread follower = new Thread(() -> {
+                    try {
+                        results.add(flight.get("ws", () -> {
+                            calls.incrementAndGet();
+                            return "other";
+                        }));
+                    } catch (ClientException e) {
+                        results.add(e.getMessage());
+                    }
+                });
+                follower.start();
+                followers.add(follower);
+            }
+            // followers park waiting the result of the leader
+            for (Thread follower : followers) {
+                awaitParked(follower);
+            }
+            release.countDown();
+
+            Assertions.assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("groups");
+            for (Thread follower : followers) {
+                follower.join(5000);
+            }
+            Assertions.assertThat(results).containsExactly("groups", "groups", "groups");
+            Assertions.assertThat(calls.get()).isEqualTo(1);
+            Assertions.assertThat(flight.isLoading("ws")).isFalse();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failure_is_not_remembered() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+
+        Assertions.assertThatThrownBy(() -> flight.get("user1", () -> {
+            throw new IllegalStateException("down");
+        })).isInstanceOf(IllegalStateException.class);
+
+        Assertions.assertThat(flight.get("user1", () -> "user")).isEqualTo("user");
+    }
+
+    @Test
+    public void leader_deadline_is_not_shared_with_waiters() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch waiting = new CountDownLatch(1);
+        SingleFlight.Loader<String> loader = () -> {
+            calls.incrementAndGet();
+            Deadline deadline = Deadline.current();
+            if (deadline != Deadline.NONE) {
+                // the first repository spends its short budget waiting the response
+                while (waiting.getCount() > 0) {
+                    Thread.yield();
+                }
+                while (!deadline.isExpired()) {
+                    Thread.yield();
+                }
+                deadline.check();
+            }
+            return "groups";
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> repo1 = executor.submit(() -> {
+                try (Deadline.Scope scope = Deadline.after("repo1", 50, TimeUnit.MILLISECONDS).enter()) {
+                    return flight.get("ws", loader);
+                }
+            });
+            while (!flight.isLoading("ws")) {
+                Thread.yield();
+            }
+
+            List<Object> results = Collections.synchronizedList(new ArrayList<>());
+            Thread repo2 = new Thread(() -> {
+                try {
+                    results.add(flight.get("ws", loader));
+                } catch (ClientException | RuntimeException e) {
+                    results.add(e);
+                }
+            });
+            repo2.start();
+            awaitParked(repo2);
+            waiting.countDown();
+
+            Assertions.assertThatThrownBy(() -> repo1.get(5, TimeUnit.SECONDS)) //
+                    .hasCauseInstanceOf(DeadlineExceededException.class);
+            repo2.join(5000);
+            Assertions.assertThat(results).containsExactly("groups");
+            Assertions.assertThat(calls.get()).isEqualTo(2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waiter_gives_up_at_its_deadline() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> flight.get("ws", () -> {
+                while (release.getCount() > 0) {
+                    Thread.yield();
+                }
+                return "groups";
+            }));
+            while (!flight.isLoading("ws")) {
+                Thread.yield();
+            }
+
+            try (Deadline.Scope scope = Deadline.after("repo2", 50, TimeUnit.MILLISECONDS).enter()) {
+                Assertions.assertThatThrownBy(() -> flight.get("ws", () -> "other")) //
+                        .isInstanceOf(DeadlineExceededException.class);
+            }
+            release.countDown();
+            Assertions.assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("groups");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void interrupted_waiter_stops_waiting() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> flight.get("ws", () -> {
+                while (release.getCount() > 0) {
+                    Thread.yield();
+                }
+                return "groups";
+            }));
+            while (!flight.isLoading("ws")) {
+                Thread.yield();
+            }
+
+            List<Object> results = Collections.synchronizedList(new ArrayList<>());
+            Thread waiter = new Thread(() -> {
+                try {
+                    results.add(flight.get("ws", () -> "other"));
+                } catch (ClientException | RuntimeException e) {
+                    results.add(e);
+                }
+                results.add(Thread.currentThread().isInterrupted());
+            });
+            waiter.start();
+            awaitParked(waiter);
+            waiter.interrupt();
+            waiter.join(5000);
+
+            Assertions.assertThat(results).hasSize(2);
+            Assertions.assertThat(results.get(0)).isInstanceOf(CancellationException.class);
+            Assertions.assertThat(results.get(1)).isEqualTo(true);
+
+            release.countDown();
+            Assertions.assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("groups");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.fake;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+
+import com.github.nfalco79.bitbucket.client.BitbucketCloudClient;
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.client.model.Webhook;
+
+/**
+ * In-process fake of a Bitbucket workspace at the level of client calls.
+ * <p>
+ * The client returned by {@link #client()} is a mock that answers every
+ * client method using an in memory state that is updated by write
+ * operations, so a second run on the same fake finds the workspace already
+ * configured. Every call is recorded and could be delayed or throttled to
+ * simulate the real server. The HTTP requests made by the real client, like
+ * pagination, are not part of the record.
+ */
+public class FakeWorkspace {
+
+    private static final Set<String> WRITE_METHODS = new HashSet<>(Arrays.asList( //
+            "updateGroupPermission", "deleteGroupPermission", "updateUserPermission", //
+            "updateBranchRestriction", "addWebHook", "updateWebhook", "deleteWebhook"));
+
+    /**
+     * A recorded REST call.
+     */
+    public static class Request {
+        private final String method;
+        private final String repository;
+        private final boolean throttled;
+
+        private Request(String method, String repository, boolean throttled) {
+            this.method = method;
+            this.repository = repository;
+            this.throttled = throttled;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public boolean isWrite() {
+            return WRITE_METHODS.contains(method);
+        }
+
+        public boolean isThrottled() {
+            return throttled;
+        }
+
+        @Override
+        public String toString() {
+            return method + (repository != null ? " " + repository : "");
+        }
+    }
+
+    private final String workspace;
+    private final Map<String, Repository> repositories = new LinkedHashMap<>();
+    private final List<GroupInfo> groups = new ArrayList<>();
+    private final Map<String, Map<GroupInfo, Permission>> groupsPermissions = new ConcurrentHashMap<>();
+    private final Map<String, List<BranchRestriction>> restrictions = new ConcurrentHashMap<>();
+    private final Map<String, List<Webhook>> webhooks = new ConcurrentHashMap<>();
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final Set<String> throttledRequests = ConcurrentHashMap.newKeySet();
+    private final Random random = new Random(0);
+    private final ClientException throttledError;
+    private long latency;
+    private double throttleRate;
+    private Set<String> throttledMethods = Collections.emptySet();
+
+    private FakeWorkspace(String workspace) {
+        this.workspace = workspace;
+        this.throttledError = Mockito.mock(ClientException.class);
+        Mockito.when(throttledError.getStatusCode()).thenReturn(429);
+        Mockito.when(throttledError.getMessage()).thenReturn("Too Many Requests");
+    }
+
+    /**
+     * Creates a workspace with the given number of repositories and groups.
+     * <p>
+     * Repositories are named {@code <prefix>.repo<N>} and groups
+     * {@code group<N>}.
+     *
+     * @param workspace the workspace name
+     * @param prefix the prefix of all repositories slug
+     * @param repositories the number of repositories
+     * @param groups the number of groups
+     * @return a new fake workspace
+     */
+    public static FakeWorkspace workspace(String workspace, String prefix, int repositories, int groups) {
+        FakeWorkspace fake = new FakeWorkspace(workspace);
+        for (int i = 1; i <= repositories; i++) {
+            String slug = prefix + ".repo" + i;
+            fake.repositories.put(slug, new Repository(slug));
+            fake.groupsPermissions.put(slug, new ConcurrentHashMap<>());
+            fake.restrictions.put(slug, new CopyOnWriteArrayList<>());
+            fake.webhooks.put(slug, new CopyOnWriteArrayList<>());
+        }
+        for (int i = 1; i <= groups; i++) {
+            fake.groups.add(new GroupInfo("group" + i));
+        }
+        return fake;
+    }
+
+    /**
+     * Delays every REST call.
+     *
+     * @param millis the latency in milliseconds
+     * @return this fake
+     */
+    public FakeWorkspace latency(long millis) {
+        this.latency = millis;
+        return this;
+    }
+
+    /**
+     * Answers HTTP 429 to the given rate of calls to the given methods. The
+     * same request is never throttled twice, like a server that recovers after
+     * a while.
+     *
+     * @param rate a value between 0 and 1
+     * @param methods the name of client methods to throttle, if empty all
+     *        write operations are throttled
+     * @return this fake
+     */
+    public FakeWorkspace throttle(double rate, String... methods) {
+        this.throttleRate = rate;
+        this.throttledMethods = methods.length > 0 ? new HashSet<>(Arrays.asList(methods)) : WRITE_METHODS;
+        return this;
+    }
+
+    /**
+     * Returns a client that works on this fake workspace.
+     *
+     * @return a bitbucket client
+     */
+    public BitbucketCloudClient client() {
+        return Mockito.mock(BitbucketCloudClient.class, this::answer);
+    }
+
+    public String getWorkspace() {
+        return workspace;
+    }
+
+    public List<String> getRepositories() {
+        return new ArrayList<>(repositories.keySet());
+    }
+
+    public List<Request> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * Forgets all recorded requests.
+     */
+    public void reset() {
+        requests.clear();
+    }
+
+    /**
+     * Returns the number of recorded requests for each repository.
+     *
+     * @param filter which requests count
+     * @return a map of request count by repository slug
+     */
+    public Map<String, Long> countByRepository(Function<Request, Boolean> filter) {
+        return requests.stream() //
+                .filter(r -> r.getRepository() != null) //
+                .filter(filter::apply) //
+                .collect(Collectors.groupingBy(Request::getRepository, Collectors.counting()));
+    }
+
+    public long count(String method) {
+        return requests.stream().filter(r -> method.equals(r.getMethod())).count();
+    }
+
+    public List<BranchRestriction> getBranchRestrictions(String repository) {
+        return Collections.unmodifiableList(restrictions.get(repository));
+    }
+
+    private Object answer(InvocationOnMock invocation) throws Throwable {
+        String method = invocation.getMethod().getName();
+        Object[] args = invocation.getArguments();
+        String repository = "getPermission".equals(method) && args.length == 1 ? (String) args[0] //
+                : args.length > 1 && args[1] instanceof String ? (String) args[1] : null;
+
+        boolean throttled = throttledMethods.contains(method) && shouldThrottle(method, args);
+        requests.add(new Request(method, repository, throttled));
+        if (latency > 0) {
+            TimeUnit.MILLISECONDS.sleep(latency);
+        }
+        if (throttled) {
+            throw throttledError;
+        }
+
+        switch (method) {
+        case "getUser":
+            if (args.length == 0) {
+                // a real object, so that it could be exported to a snapshot
+                return new UserInfo();
+            }
+            return null;
+        case "getRepositories":
+            return new ArrayList<>(repositories.values());
+        case "getPermission":
+            return repositories.containsKey(repository) ? Permission.ADMIN : Permission.NONE;
+        case "getGroups":
+            return new ArrayList<>(groups);
+        case "getGroupsPermissions":
+            return new HashMap<>(groupsPermissions.get(repository));
+        case "updateGroupPermission":
+            groupsPermissions.get(repository).put(group((String) args[2]), (Permission) args[3]);
+            return null;
+        case "deleteGroupPermission":
+            groupsPermissions.get(repository).remove(group((String) args[2]));
+            return null;
+        case "getBranchRestrictions":
+            return new ArrayList<>(restrictions.get(repository));
+        case "updateBranchRestriction":
+            BranchRestriction restriction = (BranchRestriction) args[2];
+            List<BranchRestriction> current = restrictions.get(repository);
+            current.removeIf(r -> r.getKind().equals(restriction.getKind()) && r.getPattern().equals(restriction.getPattern()));
+            current.add(restriction);
+            return null;
+        case "getWebhooks":
+            return new ArrayList<>(webhooks.get(repository));
+        case "addWebHook":
+            webhooks.get(repository).add((Webhook) args[2]);
+            return null;
+        case "updateWebhook":
+            Webhook webhook = (Webhook) args[2];
+            webhooks.get(repository).removeIf(h -> h.getUUID() != null && h.getUUID().equals(webhook.getUUID()));
+            webhooks.get(repository).add(webhook);
+            return null;
+        case "deleteWebhook":
+            webhooks.get(repository).removeIf(h -> args[2].equals(h.getUUID()));
+            return null;
+        default:
+            return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+
+    private boolean shouldThrottle(String method, Object[] args) {
+        if (throttleRate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            if (random.nextDouble() >= throttleRate) {
+                return false;
+            }
+        }
+        return throttledRequests.add(method + Arrays.toString(args));
+    }
+
+    private GroupInfo group(String slug) {
+        return groups.stream() //
+                .filter(g -> slug.equals(g.getSlug())) //
+                .findFirst() //
+                .orElseThrow(() -> new IllegalArgumentException("Unknown group " + slug));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.fake;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import com.github.nfalco79.bitbucket.reposettings.RepoSettingsConfigurator;
+import com.github.nfalco79.bitbucket.reposettings.RepoSettingsInfo;
+
+/**
+ * Prepares the input of the training run used by the appcds profile: a
+ * snapshot of a fake workspace and the rules to apply to it. The packaged
+ * CLI then computes the changes offline while the JVM records the loaded
+ * classes into the archive.
+ * <p>
+ * The offline run loads the classes of a real run except the HTTP transport
+ * of the REST client. The packaged CLI always connects to bitbucket.org, so
+ * it cannot be pointed at a local server, and the archive must be recorded
+ * with the same class path of the packaged jar. Those classes are loaded
+ * from the jar at run time as before.
+ */
+public final class TrainingRun {
+
+    public static final String WORKSPACE = "training";
+
+    private TrainingRun() {
+    }
+
+    /**
+     * Writes the training files.
+     *
+     * @param args the output directory
+     * @throws Exception if fails to write the files
+     */
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get(args[0]);
+        Files.createDirectories(directory);
+        Path accessRules = copy("/test-repository-permissions.json", directory.resolve("repository-permissions.json"));
+        Path branchRules = copy("/test-branch-permissions.json", directory.resolve("branch-permissions.json"));
+
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(WORKSPACE);
+        configuration.setAccessRules(accessRules.toString());
+        configuration.setBranchRules(branchRules.toString());
+
+        FakeWorkspace fake = FakeWorkspace.workspace(WORKSPACE, "prj1", 50, 5);
+        new RepoSettingsConfigurator(configuration, fake.client()).exportSnapshot(directory.resolve("snapshot.json"));
+    }
+
+    private static Path copy(String resource, Path target) throws Exception {
+        try (InputStream is = TrainingRun.class.getResourceAsStream(resource)) {
+            Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+}
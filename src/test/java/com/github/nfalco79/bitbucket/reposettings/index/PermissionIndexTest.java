@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.index;
+
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction.Builder;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.RepositorySnapshot;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.WorkspaceSnapshot;
+
+public class PermissionIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RepositorySnapshot newRepository(String slug) {
+        RepositorySnapshot repository = new RepositorySnapshot();
+        repository.setRepository(new Repository(slug));
+        repository.setPermission(Permission.ADMIN);
+        return repository;
+    }
+
+    @Test
+    public void verify_group_queries() throws Exception {
+        GroupInfo devs = new GroupInfo("devs");
+        GroupInfo leads = new GroupInfo("leads");
+
+        RepositorySnapshot repo1 = newRepository("repo1");
+        repo1.getGroupsPermissions().put(devs.getSlug(), Permission.WRITE);
+        repo1.getGroupsPermissions().put(leads.getSlug(), Permission.ADMIN);
+        repo1.getBranchRestrictions().add(Builder.newPushPermission("master", Collections.emptySet(), Collections.singleton(leads)));
+
+        RepositorySnapshot repo2 = newRepository("repo2");
+        repo2.getGroupsPermissions().put(devs.getSlug(), Permission.READ);
+
+        RepositorySnapshot repo3 = newRepository("repo3");
+        repo3.getGroupsPermissions().put(devs.getSlug(), Permission.WRITE);
+        repo3.getBranchRestrictions().add(Builder.newPushPermission("release/*", Collections.emptySet(), Collections.singleton(leads)));
+
+        WorkspaceSnapshot snapshot = new WorkspaceSnapshot();
+        snapshot.setWorkspace("ws");
+        snapshot.getGroups().add(devs);
+        snapshot.getGroups().add(leads);
+        snapshot.getRepositories().add(repo1);
+        snapshot.getRepositories().add(repo2);
+        snapshot.getRepositories().add(repo3);
+
+        Path file = folder.newFile("permissions.idx").toPath();
+        new PermissionIndexWriter().write(snapshot, file);
+
+        try (PermissionIndex index = new PermissionIndex(file)) {
+            Assertions.assertThat(index.size()).isEqualTo(3);
+
+            String devsKey = PermissionIndexWriter.groupKey("devs");
+            Assertions.assertThat(index.getRepositories(devsKey, Permission.READ)).containsExactly("repo1", "repo2", "repo3");
+            Assertions.assertThat(index.getRepositories(devsKey, Permission.WRITE)).containsExactly("repo1", "repo3");
+            Assertions.assertThat(index.getRepositories(devsKey, Permission.ADMIN)).isEmpty();
+
+            // master is restricted only in repo1, where only leads can push
+            Assertions.assertThat(index.getPushableRepositories(devsKey, "master")).containsExactly("repo3");
+            Assertions.assertThat(index.getPushableRepositories(devsKey, "release/1.0")).containsExactly("repo1");
+            Assertions.assertThat(index.getPushableRepositories(PermissionIndexWriter.groupKey("leads"), "master")).containsExactly("repo1");
+
+            Assertions.assertThat(index.getRepositories(PermissionIndexWriter.groupKey("unknown"), Permission.READ)).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.jfr;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.github.nfalco79.bitbucket.client.ClientException;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.reposettings.exec.FlightRecorder;
+import com.github.nfalco79.bitbucket.reposettings.exec.ReconcileTracer.Span;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JfrTracingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void events_are_recorded() throws Exception {
+        BitbucketService service = Mockito.mock(BitbucketService.class);
+        Mockito.when(service.getGroups("ws")).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        ClientException error = Mockito.mock(ClientException.class);
+        Mockito.when(error.getStatusCode()).thenReturn(429);
+        Mockito.doThrow(error).when(service).deleteGroupPermission("ws", "repo1", "group1");
+
+        Path file = folder.getRoot().toPath().resolve("run.jfr");
+        FlightRecorder recorder = FlightRecorder.load();
+        try (Closeable recording = recorder.startRecording(file)) {
+            BitbucketService recorded = recorder.record(service);
+            try (Span repository = recorder.tracer().repository("repo1")) {
+                try (Span phase = recorder.tracer().phase("repo1", "processRepositoryPermission")) {
+                    recorded.getGroups("ws");
+                    Assertions.assertThatThrownBy(() -> recorded.deleteGroupPermission("ws", "repo1", "group1")).isSameAs(error);
+                }
+                repository.outcome("configured");
+            }
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Assertions.assertThat(events).filteredOn(e -> "reposettings.ClientRequest".equals(e.getEventType().getName())) //
+                .extracting(e -> e.getString("endpoint"), e -> e.getString("repository"), e -> e.getBoolean("succeeded"), e -> e.getInt("status"), e -> e.getInt("items")) //
+                .containsExactly(Assertions.tuple("getGroups", null, true, 0, 2), Assertions.tuple("deleteGroupPermission", "repo1", false, 429, 0));
+        Assertions.assertThat(events).filteredOn(e -> "reposettings.Phase".equals(e.getEventType().getName())) //
+                .extracting(e -> e.getString("phase")) //
+                .containsExactly("processRepositoryPermission");
+        Assertions.assertThat(events).filteredOn(e -> "reposettings.Repository".equals(e.getEventType().getName())) //
+                .extracting(e -> e.getString("repository"), e -> e.getString("outcome")) //
+                .containsExactly(Assertions.tuple("repo1", "configured"));
+    }
+
+}
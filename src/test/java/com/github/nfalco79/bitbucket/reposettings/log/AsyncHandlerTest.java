@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class AsyncHandlerTest {
+
+    private static class CollectHandler extends Handler {
+        private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+        private final CountDownLatch blocked;
+        private boolean closed;
+
+        CollectHandler(CountDownLatch blocked) {
+            this.blocked = blocked;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void records_are_published_in_order_on_close() throws Exception {
+        CollectHandler target = new CollectHandler(new CountDownLatch(0));
+        AsyncHandler handler = new AsyncHandler(target, 16);
+        for (int i = 0; i < 10; i++) {
+            handler.publish(new RepositoryLogRecord(Level.INFO, "message " + i, "repo" + i));
+        }
+        handler.close();
+
+        Assertions.assertThat(target.closed).isTrue();
+        Assertions.assertThat(target.records).extracting(LogRecord::getLoggerName) //
+                .containsExactly("repo0", "repo1", "repo2", "repo3", "repo4", "repo5", "repo6", "repo7", "repo8", "repo9");
+        Assertions.assertThat(handler.getDropped()).isZero();
+    }
+
+    @Test
+    public void informational_records_are_dropped_when_queue_is_full() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CollectHandler target = new CollectHandler(blocked);
+        AsyncHandler handler = new AsyncHandler(target, 2);
+        for (int i = 0; i < 10; i++) {
+            handler.publish(new LogRecord(Level.FINE, "message " + i));
+        }
+        blocked.countDown();
+        handler.close();
+
+        // at most one record was taken by the writer before the queue was full
+        Assertions.assertThat(handler.getDropped()).isBetween(7L, 8L);
+        Assertions.assertThat(target.records).last().extracting(LogRecord::getLevel).isEqualTo(Level.WARNING);
+    }
+
+    @Test
+    public void flush_waits_for_queued_records() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CollectHandler target = new CollectHandler(blocked);
+        AsyncHandler handler = new AsyncHandler(target, 16);
+        for (int i = 0; i < 5; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        Thread release = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            blocked.countDown();
+        });
+        release.start();
+
+        handler.flush();
+        Assertions.assertThat(target.records).hasSize(5);
+
+        handler.close();
+        handler.publish(new LogRecord(Level.SEVERE, "after close"));
+        Assertions.assertThat(target.records).hasSize(5);
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.log;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonLinesFormatterTest {
+
+    @Test
+    public void repository_record() throws Exception {
+        RepositoryLogRecord record = new RepositoryLogRecord(Level.INFO, "Set webhook {0}", "prj1.repo1");
+        record.setParameters(new Object[] { "Jenkins \"CI\"" });
+
+        String line = new JsonLinesFormatter().format(record);
+        Assertions.assertThat(line).endsWith(System.lineSeparator()).doesNotContain("\n{");
+
+        JsonNode json = new ObjectMapper().readTree(line);
+        Assertions.assertThat(json.get("level").asText()).isEqualTo("INFO");
+        Assertions.assertThat(json.get("repository").asText()).isEqualTo("prj1.repo1");
+        Assertions.assertThat(json.get("message").asText()).isEqualTo("Set webhook Jenkins \"CI\"");
+        Assertions.assertThat(json.has("thrown")).isFalse();
+    }
+
+    @Test
+    public void application_record_with_error() throws Exception {
+        LogRecord record = new LogRecord(Level.SEVERE, "failure");
+        record.setLoggerName("app");
+        record.setThrown(new IllegalStateException("boom"));
+
+        JsonNode json = new ObjectMapper().readTree(new JsonLinesFormatter().format(record));
+        Assertions.assertThat(json.get("logger").asText()).isEqualTo("app");
+        Assertions.assertThat(json.has("repository")).isFalse();
+        Assertions.assertThat(json.get("thrown").asText()).contains("IllegalStateException: boom");
+    }
+
+}
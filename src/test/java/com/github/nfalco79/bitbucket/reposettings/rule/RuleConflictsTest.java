@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.rule;
+
+import java.util.Arrays;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class RuleConflictsTest {
+
+    private static RepositoryAccessRule rule(String patterns, boolean inherited) {
+        RepositoryAccessRule rule = new RepositoryAccessRule();
+        rule.setRepositoryPatterns(patterns);
+        rule.setInherited(inherited);
+        return rule;
+    }
+
+    @Test
+    public void test_patterns_intersection() {
+        Assertions.assertThat(RuleConflicts.intersects("prj1.*", "*.core")).isTrue();
+        Assertions.assertThat(RuleConflicts.intersects("prj1.*", "prj2.*")).isFalse();
+        Assertions.assertThat(RuleConflicts.intersects("a?c", "*b*")).isTrue();
+        Assertions.assertThat(RuleConflicts.intersects("a?c", "ab")).isFalse();
+        Assertions.assertThat(RuleConflicts.intersects("*-deploy", "*-test")).isFalse();
+        Assertions.assertThat(RuleConflicts.intersects("a*b*c", "*bb*")).isTrue();
+        Assertions.assertThat(RuleConflicts.intersects("exact", "exact")).isTrue();
+        Assertions.assertThat(RuleConflicts.intersects("", "*")).isTrue();
+    }
+
+    @Test
+    public void only_independent_rules_are_analyzed() {
+        RepositoryAccessRule prj1 = rule("prj1.*", false);
+        RepositoryAccessRule prod = rule("*.prod.*", false);
+        RepositoryAccessRule inherited = rule("prj1.prod.*", true);
+        RepositoryAccessRule prj2 = rule("prj2.*,!prj2.prod.*", false);
+
+        RuleConflicts conflicts = RuleConflicts.analyze(Arrays.asList(prj1, prod, inherited, prj2));
+
+        // negations are not considered, prj2 could overlap prod
+        Assertions.assertThat(conflicts.getPairs()).containsExactly(Arrays.asList(prj1, prod), Arrays.asList(prod, prj2));
+        Assertions.assertThat(conflicts.getConflicting(Arrays.asList(prj1, prod, inherited))).containsExactly(prj1, prod);
+        Assertions.assertThat(conflicts.getConflicting(Arrays.asList(prj1, inherited))).isEmpty();
+    }
+
+}
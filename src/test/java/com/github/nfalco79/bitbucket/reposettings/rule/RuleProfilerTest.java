@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.rule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class RuleProfilerTest {
+
+    private static RepositoryAccessRule rule(String patterns) {
+        RepositoryAccessRule rule = new RepositoryAccessRule();
+        rule.setRepositoryPatterns(patterns);
+        return rule;
+    }
+
+    @Test
+    public void profiled_rules_match_like_the_index() {
+        List<RepositoryAccessRule> rules = Arrays.asList(rule("prj1.*"), rule("*"), rule("prj2.*,!prj2.test"), rule("*.core"));
+        RuleProfiler profiler = new RuleProfiler();
+        CompiledRules indexed = new CompiledRules(rules, Collections.emptyList());
+        CompiledRules profiled = new CompiledRules(rules, Collections.emptyList(), profiler);
+
+        for (String repository : Arrays.asList("prj1.core", "prj2.test", "prj2.web", "other")) {
+            Assertions.assertThat(profiled.profileRepositoryRules(repository)).isEqualTo(indexed.getRepositoryRules(repository));
+            // plain lookups are not profiled
+            profiled.getRepositoryRules(repository);
+        }
+
+        Assertions.assertThat(profiler.getStats()) //
+                .extracting(RuleProfiler.RuleStats::getRule, RuleProfiler.RuleStats::getEvaluations, RuleProfiler.RuleStats::getMatches) //
+                .containsExactlyInAnyOrder( //
+                        Assertions.tuple("prj1.*", 4L, 1L), //
+                        Assertions.tuple("*", 4L, 4L), //
+                        Assertions.tuple("prj2.*,!prj2.test", 4L, 1L), //
+                        Assertions.tuple("*.core", 4L, 1L));
+    }
+
+    @Test
+    public void disabled_profiler_records_nothing() {
+        RuleProfiler profiler = RuleProfiler.NONE;
+        RepositoryAccessRule rule = rule("*");
+
+        Assertions.assertThat(profiler.test(rule, r -> r.accept("repo"))).isTrue();
+        profiler.explain("repo").fired(rule, "always");
+
+        Assertions.assertThat(profiler.getStats()).isEmpty();
+        Assertions.assertThat(profiler.getExplanations()).isEmpty();
+    }
+}
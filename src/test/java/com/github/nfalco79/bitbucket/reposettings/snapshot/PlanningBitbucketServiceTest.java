@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.snapshot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction;
+import com.github.nfalco79.bitbucket.client.model.BranchRestriction.Builder;
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.snapshot.PlanningBitbucketService.PlannedChange;
+
+public class PlanningBitbucketServiceTest {
+
+    @Test
+    public void fetched_repository_is_read_from_memory_and_writes_are_planned() throws Exception {
+        BitbucketService live = Mockito.mock(BitbucketService.class);
+        Mockito.when(live.getPermission("ws", "repo1")).thenReturn(Permission.ADMIN);
+        Mockito.when(live.getGroupsPermissions("ws", "repo1")).thenReturn(Collections.singletonMap(new GroupInfo("group1"), Permission.READ));
+
+        PlanningBitbucketService planning = new PlanningBitbucketService(live);
+        Assertions.assertThat(planning.fetch("ws", "repo1", Collections.emptyList())).isEqualTo(Permission.ADMIN);
+
+        Assertions.assertThat(planning.getPermission("ws", "repo1")).isEqualTo(Permission.ADMIN);
+        Assertions.assertThat(planning.getGroupsPermissions("ws", "repo1")).containsEntry(new GroupInfo("group1"), Permission.READ);
+        planning.updateGroupPermission("ws", "repo1", "group1", Permission.WRITE);
+        planning.deleteGroupPermission("ws", "repo1", "group2");
+
+        Mockito.verify(live).getPermission("ws", "repo1");
+        Mockito.verify(live).getGroupsPermissions("ws", "repo1");
+        Mockito.verify(live, Mockito.never()).updateGroupPermission(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.any());
+
+        List<PlannedChange> changes = planning.complete("ws", "repo1");
+        Assertions.assertThat(changes).extracting(PlannedChange::getDescription) //
+                .containsExactly("update group group1 permission to " + Permission.WRITE, "delete group group2 permission");
+
+        for (PlannedChange change : changes) {
+            change.getOperation().run();
+        }
+        Mockito.verify(live).updateGroupPermission("ws", "repo1", "group1", Permission.WRITE);
+        Mockito.verify(live).deleteGroupPermission("ws", "repo1", "group2");
+    }
+
+    @Test
+    public void branch_restrictions_are_planned_in_batches() throws Exception {
+        BitbucketService live = Mockito.mock(BitbucketService.class);
+        Mockito.when(live.getPermission("ws", "repo1")).thenReturn(Permission.ADMIN);
+
+        PlanningBitbucketService planning = new PlanningBitbucketService(live);
+        planning.fetch("ws", "repo1", Collections.emptyList());
+        BranchRestriction update = Builder.newDeletePermission("master");
+        update.setId(1);
+        planning.updateBranchRestriction("ws", "repo1", update);
+        planning.updateBranchRestriction("ws", "repo1", Builder.newForcePushPermission("master"));
+        planning.updateBranchRestriction("ws", "repo1", Builder.newRequireNoChanges("master"));
+        planning.deleteGroupPermission("ws", "repo1", "group2");
+
+        Assertions.assertThat(planning.complete("ws", "repo1")).extracting(PlannedChange::getBatch) //
+                .containsExactly("update branch restrictions", "add branch restrictions", "add branch restrictions", null);
+    }
+
+    @Test
+    public void same_slug_of_other_workspace_is_not_confused() throws Exception {
+        BitbucketService live = Mockito.mock(BitbucketService.class);
+        Mockito.when(live.getPermission("ws1", "repo1")).thenReturn(Permission.ADMIN);
+        Mockito.when(live.getPermission("ws2", "repo1")).thenReturn(Permission.READ);
+
+        PlanningBitbucketService planning = new PlanningBitbucketService(live);
+        planning.fetch("ws1", "repo1", Collections.emptyList());
+        planning.fetch("ws2", "repo1", Collections.emptyList());
+
+        Assertions.assertThat(planning.getPermission("ws1", "repo1")).isEqualTo(Permission.ADMIN);
+        Assertions.assertThat(planning.getPermission("ws2", "repo1")).isEqualTo(Permission.READ);
+        Mockito.verify(live, Mockito.times(1)).getPermission("ws1", "repo1");
+        Mockito.verify(live, Mockito.times(1)).getPermission("ws2", "repo1");
+    }
+
+    @Test
+    public void not_fetched_repository_goes_to_delegate() throws Exception {
+        BitbucketService live = Mockito.mock(BitbucketService.class);
+        Mockito.when(live.getPermission("ws", "repo1")).thenReturn(Permission.NONE);
+
+        PlanningBitbucketService planning = new PlanningBitbucketService(live);
+        planning.fetch("ws", "repo1", Arrays.asList("user1"));
+        Mockito.verify(live, Mockito.never()).getUserPermission("ws", "repo1", "user1");
+        Assertions.assertThat(planning.complete("ws", "repo1")).isEmpty();
+
+        planning.updateGroupPermission("ws", "repo1", "group1", Permission.WRITE);
+        Mockito.verify(live).updateGroupPermission("ws", "repo1", "group1", Permission.WRITE);
+        Assertions.assertThatThrownBy(() -> planning.complete("ws", "repo1")).isInstanceOf(IllegalStateException.class);
+    }
+
+}
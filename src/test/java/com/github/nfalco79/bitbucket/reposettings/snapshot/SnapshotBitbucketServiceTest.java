@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.snapshot;
+
+import java.util.Collections;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.github.nfalco79.bitbucket.client.model.Repository;
+import com.github.nfalco79.bitbucket.reposettings.RepoSettingsConfigurator;
+import com.github.nfalco79.bitbucket.reposettings.RepoSettingsInfo;
+import com.github.nfalco79.bitbucket.reposettings.fake.FakeWorkspace;
+import com.github.nfalco79.bitbucket.reposettings.fake.FakeWorkspace.Request;
+import com.github.nfalco79.bitbucket.reposettings.service.CloudBitbucketService;
+
+public class SnapshotBitbucketServiceTest {
+
+    private String workspace = "user1";
+
+    private RepoSettingsInfo newConfiguration() {
+        RepoSettingsInfo configuration = new RepoSettingsInfo();
+        configuration.setWorkspace(workspace);
+        configuration.setAccessRules("/test-repository-permissions.json");
+        configuration.setBranchRules("/test-branch-permissions.json");
+        configuration.setParallelism(4);
+        return configuration;
+    }
+
+    @Test
+    public void verify_offline_plan_matches_online_changes() throws Exception {
+        FakeWorkspace fake = FakeWorkspace.workspace(workspace, "prj1", 20, 3);
+        WorkspaceSnapshot snapshot = new SnapshotExporter(new CloudBitbucketService(fake.client())) //
+                .export(workspace, fake.client().getRepositories(workspace), repo -> Collections.emptyList());
+        Assertions.assertThat(snapshot.getRepositories()).extracting(RepositorySnapshot::getRepository) //
+                .extracting(Repository::getSlug) //
+                .containsExactlyElementsOf(fake.getRepositories());
+        fake.reset();
+
+        SnapshotBitbucketService offline = new SnapshotBitbucketService(snapshot);
+        new RepoSettingsConfigurator(newConfiguration(), offline).exec();
+        Assertions.assertThat(fake.getRequests()).isEmpty();
+
+        // the same run against the online workspace
+        new RepoSettingsConfigurator(newConfiguration(), fake.client()).exec();
+        long writes = fake.getRequests().stream().filter(Request::isWrite).count();
+        Assertions.assertThat(offline.getPlannedChanges()).hasSize((int) writes);
+    }
+}
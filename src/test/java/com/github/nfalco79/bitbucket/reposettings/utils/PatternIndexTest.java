@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.github.nfalco79.bitbucket.reposettings.util.PatternIndex;
+import com.github.nfalco79.bitbucket.reposettings.util.SelectorUtils;
+
+public class PatternIndexTest {
+
+    private static final List<String> PATTERNS = Arrays.asList("prj1.*", //
+            "*-deploy", //
+            "a*b", //
+            "?x*", //
+            "!foo*", //
+            "prj2.*,!prj2.test.*", //
+            "prj2.prod.*", //
+            "exact-name", //
+            "*", //
+            "prj1.*-deploy");
+
+    private static final List<String> SLUGS = Arrays.asList("prj1.core", "prj1.core-deploy", "prj2.test.ui", "prj2.prod.api", //
+            "foo-deploy", "foobar", "ab", "axxb", "xx", "axe", "exact-name", "exact-names", "", "b");
+
+    private static PatternIndex<String> compile() {
+        return PatternIndex.compile(PATTERNS, p -> p.split(","), (p, slug) -> SelectorUtils.match(p.split(","), slug));
+    }
+
+    @Test
+    public void match_returns_the_same_items_of_a_linear_scan() throws Exception {
+        PatternIndex<String> index = compile();
+        for (String slug : SLUGS) {
+            List<String> expected = PATTERNS.stream() //
+                    .filter(p -> SelectorUtils.match(p.split(","), slug)) //
+                    .collect(Collectors.toList());
+            Assertions.assertThat(index.match(slug)).as(slug).containsExactlyElementsOf(expected);
+            Assertions.assertThat(index.anyMatch(slug)).as(slug).isEqualTo(!expected.isEmpty());
+        }
+    }
+
+    @Test
+    public void no_match() throws Exception {
+        PatternIndex<String> index = PatternIndex.compile(Arrays.asList("prj1.*", "lib-?"), p -> new String[] { p }, SelectorUtils::match);
+        Assertions.assertThat(index.match("prj2.core")).isEmpty();
+        Assertions.assertThat(index.anyMatch("lib-12")).isFalse();
+        Assertions.assertThat(index.match("lib-1")).containsExactly("lib-?");
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.nfalco79.bitbucket.client.model.GroupInfo;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.client.model.UserInfo;
+import com.github.nfalco79.bitbucket.reposettings.service.BitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.service.InterningBitbucketService;
+import com.github.nfalco79.bitbucket.reposettings.util.PrincipalRegistry;
+
+public class PrincipalRegistryTest {
+
+    @Test
+    public void copies_of_a_principal_share_one_instance() {
+        PrincipalRegistry registry = new PrincipalRegistry();
+        GroupInfo group = new GroupInfo("group1");
+
+        Assertions.assertThat(registry.intern("ws", group)).isSameAs(group);
+        Assertions.assertThat(registry.intern("ws", new GroupInfo("group1"))).isSameAs(group);
+        // groups of different workspaces are different principals
+        Assertions.assertThat(registry.intern("ws2", new GroupInfo("group1"))).isNotSameAs(group);
+
+        UserInfo user = user("{uuid1}");
+        Assertions.assertThat(registry.intern(user)).isSameAs(user);
+        Assertions.assertThat(registry.intern(user("{uuid1}"))).isSameAs(user);
+        Assertions.assertThat(registry.intern((UserInfo) null)).isNull();
+        Assertions.assertThat(registry.size()).isEqualTo(3);
+
+        registry.clear();
+        Assertions.assertThat(registry.intern("ws", new GroupInfo("group1"))).isNotSameAs(group);
+    }
+
+    @Test
+    public void service_returns_canonical_groups_and_users() throws Exception {
+        BitbucketService delegate = Mockito.mock(BitbucketService.class);
+        Mockito.when(delegate.getGroups("ws")).thenReturn(Arrays.asList(new GroupInfo("group1"), new GroupInfo("group2")));
+        Mockito.when(delegate.getGroupsPermissions(Mockito.eq("ws"), Mockito.anyString())) //
+                .thenAnswer(invocation -> Collections.singletonMap(new GroupInfo("group2"), Permission.READ));
+        Mockito.when(delegate.getUser("user1")).thenAnswer(invocation -> user("{uuid1}"));
+
+        BitbucketService service = new InterningBitbucketService(delegate, new PrincipalRegistry());
+        List<GroupInfo> groups = (List<GroupInfo>) service.getGroups("ws");
+        Map<GroupInfo, Permission> repo1 = service.getGroupsPermissions("ws", "repo1");
+        Map<GroupInfo, Permission> repo2 = service.getGroupsPermissions("ws", "repo2");
+
+        Assertions.assertThat(repo1.keySet().iterator().next()).isSameAs(groups.get(1));
+        Assertions.assertThat(repo2.keySet().iterator().next()).isSameAs(groups.get(1));
+        Assertions.assertThat(repo2).containsEntry(new GroupInfo("group2"), Permission.READ);
+        Assertions.assertThat(service.getUser("user1")).isSameAs(service.getUser("user1"));
+    }
+
+    private static UserInfo user(String uuid) {
+        UserInfo user = Mockito.mock(UserInfo.class);
+        Mockito.when(user.getUUID()).thenReturn(uuid);
+        return user;
+    }
+}
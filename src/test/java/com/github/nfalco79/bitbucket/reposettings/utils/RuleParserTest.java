@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.nfalco79.bitbucket.client.model.Permission;
+import com.github.nfalco79.bitbucket.reposettings.rule.BranchPermissionRule;
+import com.github.nfalco79.bitbucket.reposettings.rule.RepositoryAccessRule;
+import com.github.nfalco79.bitbucket.reposettings.util.InvalidRulesException;
+import com.github.nfalco79.bitbucket.reposettings.util.RuleParser;
+
+public class RuleParserTest {
+
+    private RuleParser parser = new RuleParser(new ObjectMapper());
+
+    private InputStream json(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void repository_rules_are_read_from_the_stream() throws Exception {
+        List<RepositoryAccessRule> rules = parser.parseRepositoryRules(getClass().getResourceAsStream("/test-repository-permissions.json"), "test");
+
+        Assertions.assertThat(rules).extracting(RepositoryAccessRule::getRepositoryPatterns) //
+                .containsExactly("prj1.*", "prj2.*", "prj2.prod.*");
+        Assertions.assertThat(rules.get(0).getGroups()).extracting(r -> r.getPrivilege()) //
+                .containsExactly(Permission.ADMIN, Permission.WRITE);
+        Assertions.assertThat(rules.get(0).isInherited()).isTrue();
+    }
+
+    @Test
+    public void invalid_entries_are_reported_with_their_position() throws Exception {
+        InputStream is = json("[", //
+                "  { \"repositoryPatterns\": \"prj1.*\",", //
+                "    \"users\": [", //
+                "      { \"pattern\": \"{abc}\", \"privilege\": \"write\" },", //
+                "      { \"pattern\": \"{def}\", \"privilege\": \"owner\" },", //
+                "      { \"privilege\": \"read\" }", //
+                "    ] },", //
+                "  { \"groups\": [], \"color\": \"red\" }", //
+                "]");
+
+        Assertions.assertThatThrownBy(() -> parser.parseRepositoryRules(is, "access.json")) //
+                .isInstanceOfSatisfying(InvalidRulesException.class, e -> {
+                    Assertions.assertThat(e.getSource()).isEqualTo("access.json");
+                    Assertions.assertThat(e.getErrors()).containsExactly( //
+                            "line 5, column 42: invalid value for privilege: owner", //
+                            "line 5, column 7: privilege is required for {def}", //
+                            "line 6, column 7: pattern is required", //
+                            "line 8, column 19: unknown property color", //
+                            "line 8, column 3: repositoryPatterns is required");
+                });
+    }
+
+    @Test
+    public void malformed_document_reports_the_syntax_error() throws Exception {
+        InputStream is = json("[", //
+                "  { \"repositoryPatterns\": \"prj1.*\"", //
+                "    \"users\": [] }", //
+                "]");
+
+        Assertions.assertThatThrownBy(() -> parser.parseRepositoryRules(is, "access.json")) //
+                .isInstanceOf(InvalidRulesException.class) //
+                .hasMessageContaining("access.json") //
+                .hasMessageContaining("line 3, column 6");
+    }
+
+    @Test
+    public void branch_rules_are_validated() throws Exception {
+        List<BranchPermissionRule> rules = parser.parseBranchRules(getClass().getResourceAsStream("/test-branch-permissions.json"), "test");
+        Assertions.assertThat(rules).extracting(BranchPermissionRule::getBranchPatterns).containsExactly("master", "support/*");
+
+        InputStream is = json("[", //
+                "  { \"repositoryPatterns\": \"*\", \"minApprovals\": -1,", //
+                "    \"users\": [ { \"writeAccess\": true } ] }", //
+                "]");
+        Assertions.assertThatThrownBy(() -> parser.parseBranchRules(is, "branch.json")) //
+                .isInstanceOfSatisfying(InvalidRulesException.class, e -> Assertions.assertThat(e.getErrors()).containsExactly( //
+                        "line 2, column 3: branchPatterns is required", //
+                        "line 2, column 3: minApprovals must not be negative", //
+                        "line 2, column 3: uuid or username is required for user null write:true merge:null"));
+    }
+}
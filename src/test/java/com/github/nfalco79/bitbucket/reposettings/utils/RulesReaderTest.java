@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 DevOps Team
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.nfalco79.bitbucket.reposettings.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.nfalco79.bitbucket.reposettings.rule.RepositoryAccessRule;
+import com.github.nfalco79.bitbucket.reposettings.util.RulesReader;
+
+public class RulesReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(File dir, String name, String repositoryPatterns, long modified) throws Exception {
+        Path file = dir.toPath().resolve(name);
+        String json = "[ { \"repositoryPatterns\": \"" + repositoryPatterns + "\" } ]";
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        file.toFile().setLastModified(modified);
+        return file;
+    }
+
+    @Test
+    public void directory_fragments_are_merged_in_path_order() throws Exception {
+        File dir = folder.newFolder("access");
+        write(dir, "team-b.json", "b.*", 1000);
+        write(dir, "team-a.json", "a.*", 1000);
+        write(dir, "notes.txt", "ignored", 1000);
+
+        RulesReader reader = new RulesReader(dir.getPath(), "/test-branch-permissions.json");
+        Assertions.assertThat(reader.getRepositoryRules()) //
+                .extracting(RepositoryAccessRule::getRepositoryPatterns) //
+                .containsExactly("a.*", "b.*");
+    }
+
+    @Test
+    public void glob_selects_the_matching_files() throws Exception {
+        File dir = folder.newFolder("access");
+        write(dir, "team-b.json", "b.*", 1000);
+        write(dir, "team-a.json", "a.*", 1000);
+        write(dir, "defaults.json", "*", 1000);
+
+        RulesReader reader = new RulesReader(dir.getPath() + "/team-*.json", "/test-branch-permissions.json");
+        Assertions.assertThat(reader.getRepositoryRules()) //
+                .extracting(RepositoryAccessRule::getRepositoryPatterns) //
+                .containsExactly("a.*", "b.*");
+
+        RulesReader empty = new RulesReader(dir.getPath() + "/other-*.json", "/test-branch-permissions.json");
+        Assertions.assertThatThrownBy(empty::getRepositoryRules).isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    public void only_changed_fragments_are_parsed_again() throws Exception {
+        File dir = folder.newFolder("access");
+        write(dir, "team-a.json", "a.*", 1000);
+        Path teamB = write(dir, "team-b.json", "b.*", 1000);
+
+        RulesReader reader = new RulesReader(dir.getPath(), "/test-branch-permissions.json");
+        List<RepositoryAccessRule> first = reader.getRepositoryRules();
+        Assertions.assertThat(reader.isModified()).isFalse();
+
+        // touched without changes
+        teamB.toFile().setLastModified(2000);
+        Assertions.assertThat(reader.isModified()).isTrue();
+        List<RepositoryAccessRule> touched = reader.getRepositoryRules();
+        Assertions.assertThat(touched.get(0)).isSameAs(first.get(0));
+        Assertions.assertThat(touched.get(1)).isSameAs(first.get(1));
+        Assertions.assertThat(reader.isModified()).isFalse();
+
+        write(dir, "team-b.json", "c.*", 3000);
+        List<RepositoryAccessRule> changed = reader.getRepositoryRules();
+        Assertions.assertThat(changed.get(0)).isSameAs(first.get(0));
+        Assertions.assertThat(changed.get(1).getRepositoryPatterns()).isEqualTo("c.*");
+
+        write(dir, "team-c.json", "d.*", 3000);
+        Assertions.assertThat(reader.isModified()).isTrue();
+        Assertions.assertThat(reader.getRepositoryRules()).hasSize(3);
+    }
+
+    @Test
+    public void classpath_resources_are_never_modified() throws Exception {
+        RulesReader reader = new RulesReader("/test-repository-permissions.json", "/test-branch-permissions.json");
+        Assertions.assertThat(reader.getRepositoryRules()).hasSize(3);
+        Assertions.assertThat(reader.getBranchPermissions()).hasSize(2);
+        Assertions.assertThat(reader.isModified()).isFalse();
+    }
+}